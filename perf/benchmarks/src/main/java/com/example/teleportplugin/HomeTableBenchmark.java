@@ -0,0 +1,93 @@
+package com.example.teleportplugin;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Home lookups at server sizes from 10k to 1M known players: finding a
+ * player's homes in the {@link HomeTable}, the miss for a player with none,
+ * the remove and re-add a quit and rejoin cause, and a whole {@code /home}
+ * lookup including the name search. A {@code HashMap<UUID, PlayerHomes>}
+ * lookup is measured alongside as the baseline the table replaced.
+ *
+ * Every player shares one {@link PlayerHomes}, so memory goes to the table
+ * and the results reflect its probing rather than cache misses on homes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class HomeTableBenchmark {
+    private static final int SAMPLES = 1 << 16;
+
+    @Param({"10000", "100000", "1000000"})
+    public int players;
+
+    private HomeTable table;
+    private HashMap<UUID, PlayerHomes> map;
+    private PlayerHomes homes;
+    private UUID[] known;
+    private UUID[] unknown;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        homes = new PlayerHomes();
+        homes.put("home", 0, 100.5, 64.0, -20.5, 0.0f, 0.0f);
+        homes.put("base", 0, 1500.5, 70.0, 300.5, 90.0f, 0.0f);
+        homes.put("farm", 1, -40.5, 80.0, 12.5, 180.0f, 0.0f);
+
+        Random random = new Random(42L);
+        table = new HomeTable();
+        map = new HashMap<>();
+        UUID[] all = new UUID[players];
+        for (int i = 0; i < players; i++) {
+            all[i] = new UUID(random.nextLong(), random.nextLong());
+            table.put(all[i], homes);
+            map.put(all[i], homes);
+        }
+        // Lookups in random order, so successive probes don't share cache lines
+        known = new UUID[SAMPLES];
+        unknown = new UUID[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            known[i] = all[random.nextInt(players)];
+            unknown[i] = new UUID(random.nextLong(), random.nextLong());
+        }
+    }
+
+    @Benchmark
+    public PlayerHomes getHit() {
+        return table.get(known[next++ & (SAMPLES - 1)]);
+    }
+
+    @Benchmark
+    public PlayerHomes getMiss() {
+        return table.get(unknown[next++ & (SAMPLES - 1)]);
+    }
+
+    @Benchmark
+    public PlayerHomes hashMapGetHit() {
+        return map.get(known[next++ & (SAMPLES - 1)]);
+    }
+
+    /** A player unloaded on quit and loaded again on rejoin. */
+    @Benchmark
+    public void removeAndPut() {
+        UUID uuid = known[next++ & (SAMPLES - 1)];
+        PlayerHomes removed = table.remove(uuid);
+        table.put(uuid, removed);
+    }
+
+    /** {@code /home base}: the player's homes, then the name. */
+    @Benchmark
+    public int homeLookup() {
+        PlayerHomes found = table.get(known[next++ & (SAMPLES - 1)]);
+        return found != null ? found.indexOf("base") : -1;
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.teleportplugin;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Properties;
+
+/**
+ * Entry point of benchmarks.jar. Takes the usual JMH command line, but unless
+ * told otherwise writes the results as JSON to
+ * {@code results/<plugin version>-<timestamp>.json}, so runs of different
+ * releases can be kept side by side and compared.
+ */
+public final class RunBenchmarks {
+    private RunBenchmarks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(cli);
+        if (!cli.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!cli.getResult().hasValue()) {
+            File folder = new File("results");
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                throw new IOException("Could not create " + folder.getAbsolutePath());
+            }
+            String stamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+            options.result(new File(folder, pluginVersion() + "-" + stamp + ".json").getPath());
+        }
+        new Runner(options.build()).run();
+    }
+
+    private static String pluginVersion() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = RunBenchmarks.class.getResourceAsStream("/benchmarks.properties")) {
+            if (in != null) {
+                properties.load(in);
+            }
+        }
+        return properties.getProperty("plugin.version", "dev");
+    }
+}
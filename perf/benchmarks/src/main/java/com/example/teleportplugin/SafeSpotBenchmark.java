@@ -0,0 +1,84 @@
+package com.example.teleportplugin;
+
+import com.example.teleportplugin.testkit.StubChunk;
+import com.example.teleportplugin.testkit.StubServer;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The safe-spot search {@code createDeathChest} runs off the main thread, with
+ * the default radius and vertical range, on three terrains:
+ * <ul>
+ *   <li>{@code plains}: flat ground, the first column is safe;</li>
+ *   <li>{@code nether}: solid netherrack under a roof, with one air pocket at
+ *       the edge of the radius, so nearly every column is scanned;</li>
+ *   <li>{@code ocean}: a death under water, where no column is safe and the
+ *       search ends in the fallback.</li>
+ * </ul>
+ * The death is at a chunk corner, so the search spans four chunk snapshots.
+ * Block reads go through a proxy, which adds a constant cost to each one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SafeSpotBenchmark {
+    private static final int MIN_Y = -64;
+    private static final int MAX_Y = 320;
+
+    @Param({"plains", "nether", "ocean"})
+    public String terrain;
+
+    private final SafeSpotFinder finder = new SafeSpotFinder(6, 12);
+    private SafeSpotFinder.SearchArea area;
+
+    @Setup
+    public void setUp() {
+        StubServer.install();
+        StubChunk.Terrain blocks;
+        int deathY;
+        boolean nether = false;
+        switch (terrain) {
+            case "nether":
+                nether = true;
+                deathY = 60;
+                blocks = (x, y, z) -> {
+                    if (y == MIN_Y || y >= 127) {
+                        return Material.BEDROCK;
+                    }
+                    // A two-high pocket on netherrack, six blocks from the death
+                    if (x == 6 && z == 0 && (y == 60 || y == 61)) {
+                        return Material.AIR;
+                    }
+                    return Material.NETHERRACK;
+                };
+                break;
+            case "ocean":
+                deathY = 50;
+                blocks = (x, y, z) -> y < 40 ? Material.SAND : y <= 62 ? Material.WATER : Material.AIR;
+                break;
+            default:
+                deathY = 64;
+                blocks = (x, y, z) -> y < 63 ? Material.STONE : y == 63 ? Material.GRASS_BLOCK : Material.AIR;
+                break;
+        }
+        HashMap<Long, ChunkSnapshot> chunks = new HashMap<>();
+        for (int cx = -1; cx <= 0; cx++) {
+            for (int cz = -1; cz <= 0; cz++) {
+                chunks.put(SafeSpotFinder.chunkKey(cx, cz), StubChunk.create("world", cx, cz, MIN_Y, MAX_Y, blocks));
+            }
+        }
+        area = new SafeSpotFinder.SearchArea("world", 0, deathY, 0, MIN_Y, MAX_Y, nether, chunks);
+    }
+
+    @Benchmark
+    public SafeSpotFinder.Spot find() {
+        return finder.find(area);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.teleportplugin;
+
+import com.example.teleportplugin.testkit.StubInventory;
+import com.example.teleportplugin.testkit.StubServer;
+import org.bukkit.Material;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The work {@code TradeSession.updateItems} and the commit-time verification
+ * do on one side of a full default trade window: rereading the slots a click
+ * touched, rereading all of them, comparing the window against the copies, and
+ * copying the offer out for the journal.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TradeOfferBenchmark {
+    private static final Material[] GOODS = {
+        Material.DIAMOND, Material.IRON_INGOT, Material.OAK_LOG, Material.COBBLESTONE, Material.EMERALD,
+        Material.GOLD_INGOT, Material.REDSTONE, Material.BREAD, Material.ENDER_PEARL, Material.ARROW};
+
+    private final TradeLayout layout = TradeLayout.DEFAULT;
+    private Inventory window;
+    private TradeOffer offer;
+    private int[] offerSlots;
+    // Two versions of every offered stack, swapped in turn so each refresh sees a change
+    private ItemStack[][] versions;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        StubServer.install();
+        window = StubInventory.create(layout.getSize());
+        offer = new TradeOffer(layout, false);
+        Random random = new Random(42L);
+        offerSlots = new int[Long.bitCount(layout.offerMask(false))];
+        versions = new ItemStack[offerSlots.length][2];
+        long mask = layout.offerMask(false);
+        for (int i = 0; mask != 0L; i++) {
+            int slot = Long.numberOfTrailingZeros(mask);
+            mask &= mask - 1L;
+            offerSlots[i] = slot;
+            Material material = GOODS[random.nextInt(GOODS.length)];
+            versions[i][0] = new ItemStack(material, 1 + random.nextInt(32));
+            versions[i][1] = new ItemStack(material, 33 + random.nextInt(31));
+            window.setItem(slot, versions[i][0]);
+        }
+        offer.refresh(window, layout.allOfferSlots());
+    }
+
+    /** A click that changed one slot: the common case while players arrange an offer. */
+    @Benchmark
+    public boolean refreshChangedSlot() {
+        int n = next++ & Integer.MAX_VALUE;
+        int i = n % offerSlots.length;
+        int slot = offerSlots[i];
+        window.setItem(slot, versions[i][(n / offerSlots.length + 1) & 1]);
+        return offer.refresh(window, 1L << slot);
+    }
+
+    /** A click that moved nothing: every offer slot is reread and found unchanged. */
+    @Benchmark
+    public boolean refreshUnchanged() {
+        return offer.refresh(window, layout.allOfferSlots());
+    }
+
+    /** Deep comparison made once when the trade commits. */
+    @Benchmark
+    public boolean matches() {
+        return offer.matches(window);
+    }
+
+    /** Copy of the offer written to the journal after every change. */
+    @Benchmark
+    public List<ItemStack> toList() {
+        return offer.toList();
+    }
+}
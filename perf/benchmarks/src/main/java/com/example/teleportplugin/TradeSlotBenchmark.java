@@ -0,0 +1,51 @@
+package com.example.teleportplugin;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Slot ownership checks made on every click in a trade window: which side a
+ * slot belongs to (the table read behind {@code TradeSession.isValidSlot})
+ * and its index in that side's offer. Slots are drawn from the whole window,
+ * so hits and misses both show up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TradeSlotBenchmark {
+    private static final int SAMPLES = 1024;
+
+    @Param({"default", "compact"})
+    public String layoutName;
+
+    private TradeLayout layout;
+    private final int[] slots = new int[SAMPLES];
+    private final boolean[] sides = new boolean[SAMPLES];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        layout = layoutName.equals("compact") ? TradeLayout.COMPACT : TradeLayout.DEFAULT;
+        Random random = new Random(42L);
+        for (int i = 0; i < SAMPLES; i++) {
+            slots[i] = random.nextInt(layout.getSize());
+            sides[i] = random.nextBoolean();
+        }
+    }
+
+    @Benchmark
+    public boolean isOfferSlot() {
+        int i = next++ & (SAMPLES - 1);
+        return layout.isOfferSlot(slots[i], sides[i]);
+    }
+
+    @Benchmark
+    public int offerIndex() {
+        return layout.offerIndex(slots[next++ & (SAMPLES - 1)]);
+    }
+}
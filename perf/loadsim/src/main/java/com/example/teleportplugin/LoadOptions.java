@@ -0,0 +1,112 @@
+package com.example.teleportplugin;
+
+/**
+ * Command line of loadsim.jar. Rates are per minute of game time across the
+ * whole server; each tick draws its share from the seeded random source, so
+ * the same seed plays the same script.
+ */
+final class LoadOptions {
+    int players = 200;
+    int ticks = 6000;
+    long seed = 42L;
+    boolean fast;
+    boolean keepData;
+    double budgetMillis = 5.0;
+    double tradesPerMinute = 40.0;
+    double deathsPerMinute = 20.0;
+    double bedsPerMinute = 240.0;
+    double teleportsPerMinute = 60.0;
+    double homesPerMinute = 60.0;
+    double churnPerMinute = 10.0;
+    // Late afternoon: a night falls about a minute into the default run
+    long startTime = 11000L;
+
+    static final String USAGE = String.join(System.lineSeparator(),
+        "Usage: java -jar loadsim.jar [options]",
+        "  --players N          fake players online at the start (200)",
+        "  --ticks N            ticks to simulate (6000, five minutes)",
+        "  --seed N             seed of the script (42)",
+        "  --fast               run ticks back to back instead of every 50 ms",
+        "  --budget-ms X        plugin time per tick counted as over budget (5)",
+        "  --trades R           trades started per minute (40)",
+        "  --deaths R           deaths per minute (20)",
+        "  --beds R             bed entries per minute at night (240)",
+        "  --teleports R        /tp and /tpahere requests per minute (60)",
+        "  --homes R            /sethome, /home and /homes per minute (60)",
+        "  --churn R            players leaving and rejoining per minute (10)",
+        "  --start-time T       world time at the start, 0-23999 (11000)",
+        "  --keep-data          keep the plugin's data folder afterwards");
+
+    static LoadOptions parse(String[] args) {
+        LoadOptions options = new LoadOptions();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--fast":
+                    options.fast = true;
+                    continue;
+                case "--keep-data":
+                    options.keepData = true;
+                    continue;
+                case "-h":
+                case "--help":
+                    throw new IllegalArgumentException(USAGE);
+                default:
+                    break;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg + System.lineSeparator() + USAGE);
+            }
+            String value = args[++i];
+            try {
+                switch (arg) {
+                    case "--players":
+                        options.players = positive(arg, Integer.parseInt(value));
+                        break;
+                    case "--ticks":
+                        options.ticks = positive(arg, Integer.parseInt(value));
+                        break;
+                    case "--seed":
+                        options.seed = Long.parseLong(value);
+                        break;
+                    case "--budget-ms":
+                        options.budgetMillis = Double.parseDouble(value);
+                        break;
+                    case "--trades":
+                        options.tradesPerMinute = Double.parseDouble(value);
+                        break;
+                    case "--deaths":
+                        options.deathsPerMinute = Double.parseDouble(value);
+                        break;
+                    case "--beds":
+                        options.bedsPerMinute = Double.parseDouble(value);
+                        break;
+                    case "--teleports":
+                        options.teleportsPerMinute = Double.parseDouble(value);
+                        break;
+                    case "--homes":
+                        options.homesPerMinute = Double.parseDouble(value);
+                        break;
+                    case "--churn":
+                        options.churnPerMinute = Double.parseDouble(value);
+                        break;
+                    case "--start-time":
+                        options.startTime = Math.floorMod(Long.parseLong(value), 24000L);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg + System.lineSeparator() + USAGE);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number for " + arg + ": " + value);
+            }
+        }
+        return options;
+    }
+
+    private static int positive(String option, int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException(option + " must be at least 1");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.teleportplugin;
+
+import com.example.teleportplugin.testkit.StubServer;
+import com.example.teleportplugin.testkit.StubWorld;
+import org.bukkit.Material;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entry point of loadsim.jar. Runs the plugin on the stub server with a crowd
+ * of fake players following a seeded {@link Scenario}, then reports how much
+ * of each tick went to plugin code, how fast it allocated, and whether trades,
+ * requests, homes or chunk tickets were left behind once everyone had left.
+ * Exits with 1 when plugin code threw or something leaked.
+ */
+public final class LoadSimulator {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50L);
+    // Ten seconds of ticks after everyone has left, for flushes and grace periods to run out
+    private static final int DRAIN_TICKS = 200;
+
+    private LoadSimulator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        System.exit(run(options) ? 0 : 1);
+    }
+
+    private static boolean run(LoadOptions options) throws Exception {
+        StubServer stub = StubServer.get();
+        stub.claimMainThread();
+        StubWorld world = stub.createWorld("world", options.seed, LoadSimulator::terrain);
+        world.setFullTime(options.startTime);
+        Path dataFolder = Files.createTempDirectory("loadsim");
+
+        SimulatedPlugin plugin = SimulatedPlugin.load(stub.getServer(), dataFolder.toFile());
+        plugin.getConfig().set("metrics.enabled", true);
+        stub.registerCommands(plugin);
+        stub.getPluginManager().addPlugin(plugin);
+        plugin.enable(true);
+        if (!plugin.isEnabled()) {
+            System.err.println("The plugin did not enable; see the log above.");
+            return false;
+        }
+
+        TickProbe probe = new TickProbe(TimeUnit.MICROSECONDS.toNanos((long) (options.budgetMillis * 1000.0)));
+        stub.setProbe(probe);
+        Scenario scenario = new Scenario(options, stub, world, plugin);
+        scenario.joinAll();
+        System.out.printf(Locale.ROOT, "Simulating %d players for %d ticks, seed %d%s%n", options.players, options.ticks,
+            options.seed, options.fast ? ", ticks back to back" : "");
+        if (!probe.measuresAllocation()) {
+            System.out.println("This JVM cannot measure allocations per thread; allocation figures are zero.");
+        }
+
+        long started = System.nanoTime();
+        for (long tick = 1; tick <= options.ticks; tick++) {
+            scenario.step(tick);
+            stub.tick();
+            probe.endTick();
+            if (!options.fast) {
+                pace(started, tick);
+            }
+        }
+        long elapsed = System.nanoTime() - started;
+
+        // Everyone leaves; what the plugin still holds once its timers have run out leaked
+        scenario.quitAll();
+        stub.setProbe(StubServer.Probe.NONE);
+        long drainStarted = System.nanoTime();
+        for (long tick = 1; tick <= DRAIN_TICKS; tick++) {
+            stub.tick();
+            // The trade window's timers are wall clock, so the drain always runs in real time
+            pace(drainStarted, tick);
+        }
+        Map<String, Integer> leaks = leaks(plugin, world);
+        List<Metrics.Row> metrics = plugin.getMetrics().snapshot();
+
+        plugin.enable(false);
+        stub.getPluginManager().disabled(plugin);
+        stub.getScheduler().shutdown(5000L);
+
+        report(options, probe, elapsed, scenario.getCounts(), stub.getFailures(), metrics, leaks);
+        if (options.keepData) {
+            System.out.println("Plugin data kept in " + dataFolder);
+        } else {
+            delete(dataFolder.toFile());
+        }
+        return leaks.isEmpty() && stub.getFailures().isEmpty();
+    }
+
+    // Sleeps until the given tick's 50 ms are up, the way a server holds 20 ticks a second
+    private static void pace(long started, long tick) throws InterruptedException {
+        long wait = started + tick * TICK_NANOS - System.nanoTime();
+        if (wait > 0L) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Plains over stone with shallow sea in a diagonal band of 64 block cells,
+     * so deaths and teleports land on dry ground as well as in water.
+     */
+    private static Material terrain(int x, int y, int z) {
+        if (y == -64) {
+            return Material.BEDROCK;
+        }
+        boolean sea = Math.floorMod((x >> 6) + (z >> 6), 7) == 0;
+        if (sea) {
+            return y <= 58 ? Material.STONE : y <= 60 ? Material.SAND : y <= 63 ? Material.WATER : Material.AIR;
+        }
+        return y <= 60 ? Material.STONE : y <= 63 ? Material.DIRT : y == 64 ? Material.GRASS_BLOCK : Material.AIR;
+    }
+
+    // Non-zero counts of what should all be gone with no players online
+    private static Map<String, Integer> leaks(TeleportPlugin plugin, StubWorld world) {
+        Map<String, Integer> leaks = new LinkedHashMap<>();
+        leaks.put("active trades", plugin.getTradeManager().getActiveTradeCount());
+        leaks.put("trade requests", plugin.getTradeManager().getPendingRequestCount());
+        leaks.put("outgoing teleport requests", plugin.getTeleportRequests().getOutgoingCount());
+        leaks.put("incoming teleport requests", plugin.getTeleportRequests().getIncomingCount());
+        leaks.put("pending teleports", plugin.getTeleportPipeline().getPendingCount());
+        leaks.put("loaded home tables", plugin.getHomeStore().getLoadedCount());
+        leaks.put("pending timeouts", plugin.getExpiryService().pending());
+        leaks.put("ticketed chunks", world.getTicketedChunks());
+        leaks.values().removeIf(count -> count == 0);
+        return leaks;
+    }
+
+    private static void report(LoadOptions options, TickProbe probe, long elapsed, Map<String, Long> counts,
+                               Map<String, Integer> failures, List<Metrics.Row> metrics, Map<String, Integer> leaks) {
+        LatencyHistogram.Snapshot ticks = probe.snapshot();
+        double seconds = options.ticks / 20.0;
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Ran %d ticks (%.1f s of game time) in %.1f s%n", options.ticks, seconds,
+            elapsed / 1e9);
+        System.out.printf(Locale.ROOT, "Plugin time per tick: mean %s, p50 %s, p99 %s, max %s ms%n",
+            millis(ticks.meanNanos()), millis(ticks.percentile(50.0)), millis(ticks.percentile(99.0)),
+            millis(ticks.maxNanos));
+        System.out.printf(Locale.ROOT, "Ticks over the %.1f ms budget: %d of %d%n", options.budgetMillis,
+            probe.getOverBudget(), ticks.count);
+        System.out.printf(Locale.ROOT, "Allocated on the main thread: %.1f MB, %.2f MB/s of game time, %d bytes a tick, "
+                + "at most %d in one tick%n", probe.getTotalBytes() / 1e6, probe.getTotalBytes() / 1e6 / seconds,
+            probe.getTotalBytes() / Math.max(1, options.ticks), probe.getMaxTickBytes());
+        System.out.printf(Locale.ROOT, "Calls into plugin code: %d%n", probe.getCalls());
+
+        System.out.println();
+        System.out.println("Actions:");
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            System.out.printf(Locale.ROOT, "  %-28s %d%n", entry.getKey(), entry.getValue());
+        }
+
+        if (!metrics.isEmpty()) {
+            List<Metrics.Row> rows = new ArrayList<>(metrics);
+            rows.sort(Comparator.comparingLong((Metrics.Row row) -> row.latency.totalNanos).reversed());
+            System.out.println();
+            System.out.println("Most time spent (count, p50/p99/max ms):");
+            for (Metrics.Row row : rows.subList(0, Math.min(10, rows.size()))) {
+                System.out.printf(Locale.ROOT, "  %-40s %d, %s/%s/%s%n", row.name, row.count,
+                    millis(row.latency.percentile(50.0)), millis(row.latency.percentile(99.0)),
+                    millis(row.latency.maxNanos));
+            }
+        }
+
+        System.out.println();
+        if (failures.isEmpty()) {
+            System.out.println("No exceptions from plugin code.");
+        } else {
+            System.out.println("Exceptions from plugin code:");
+            for (Map.Entry<String, Integer> entry : failures.entrySet()) {
+                System.out.printf(Locale.ROOT, "  %-40s %d%n", entry.getKey(), entry.getValue());
+            }
+        }
+        if (leaks.isEmpty()) {
+            System.out.println("Nothing left behind after everyone left.");
+        } else {
+            System.out.println("Left behind after everyone left:");
+            for (Map.Entry<String, Integer> entry : leaks.entrySet()) {
+                System.out.printf(Locale.ROOT, "  %-28s %d%n", entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static void delete(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+}
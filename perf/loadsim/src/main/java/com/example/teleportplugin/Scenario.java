@@ -0,0 +1,625 @@
+package com.example.teleportplugin;
+
+import com.example.teleportplugin.testkit.StubPlayer;
+import com.example.teleportplugin.testkit.StubServer;
+import com.example.teleportplugin.testkit.StubWorld;
+import com.example.teleportplugin.testkit.Stubs;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.damage.DamageSource;
+import org.bukkit.event.entity.PlayerDeathEvent;
+import org.bukkit.event.inventory.ClickType;
+import org.bukkit.event.inventory.InventoryAction;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.player.PlayerBedEnterEvent;
+import org.bukkit.event.player.PlayerBedLeaveEvent;
+import org.bukkit.inventory.InventoryView;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+
+import java.util.*;
+
+/**
+ * The script the fake players follow. Each tick draws how many trades,
+ * deaths, bed entries, teleport requests, home commands and reconnects start,
+ * picks the players from the seeded random source, and plays every started
+ * action out over later ticks: a trade is requested, accepted, filled by
+ * clicks and drags, readied and confirmed, or abandoned on the way by a
+ * closed window, a cancel button or a player who leaves.
+ */
+final class Scenario {
+    private static final Material[] GOODS = {
+        Material.COBBLESTONE, Material.OAK_LOG, Material.IRON_INGOT, Material.GOLD_INGOT, Material.DIAMOND,
+        Material.EMERALD, Material.REDSTONE, Material.BREAD, Material.ENDER_PEARL, Material.SAND
+    };
+    // Vanilla lets players sleep from this time until dawn
+    private static final long NIGHT_START = 12542L;
+    private static final long NIGHT_END = 23460L;
+    // Past the trade window's 2 second wait after a change, at 20 ticks a second
+    private static final long READY_DELAY_TICKS = 45L;
+    private static final int READY_ATTEMPTS = 3;
+    // Players stay near spawn unless a death or a teleport takes them elsewhere
+    private static final int WANDER = 64;
+    private static final int DEATH_RANGE = 1000;
+
+    private enum Fate { FINISH, CLOSE, QUIT, CANCEL }
+
+    private final LoadOptions options;
+    private final StubServer server;
+    private final StubWorld world;
+    private final SimulatedPlugin plugin;
+    private final Random random;
+    private final DamageSource damage = Stubs.create(DamageSource.class, (method, args) -> Stubs.DEFAULT);
+    private final ArrayList<StubPlayer> online = new ArrayList<>();
+    // Players in a scripted trade; nothing else picks them meanwhile
+    private final HashSet<UUID> busy = new HashSet<>();
+    private final PriorityQueue<Step> steps = new PriorityQueue<>();
+    private final LinkedHashMap<String, Long> counts = new LinkedHashMap<>();
+    private final long closeGraceTicks;
+    private final long requestTimeoutTicks;
+    private long tick;
+    private long sequence;
+
+    private static final class Step implements Comparable<Step> {
+        final long tick;
+        final long sequence;
+        final Runnable action;
+
+        Step(long tick, long sequence, Runnable action) {
+            this.tick = tick;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Step other) {
+            return tick != other.tick ? Long.compare(tick, other.tick) : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    Scenario(LoadOptions options, StubServer server, StubWorld world, SimulatedPlugin plugin) {
+        this.options = options;
+        this.server = server;
+        this.world = world;
+        this.plugin = plugin;
+        this.random = new Random(options.seed);
+        this.closeGraceTicks = plugin.getConfig().getLong("trade.close-grace-seconds", 10L) * 20L;
+        this.requestTimeoutTicks = plugin.getConfig().getLong("trade.request-timeout-seconds", 30L) * 20L;
+    }
+
+    Map<String, Long> getCounts() {
+        return counts;
+    }
+
+    private void count(String what) {
+        counts.merge(what, 1L, Long::sum);
+    }
+
+    private void later(long delay, Runnable action) {
+        steps.add(new Step(tick + Math.max(1L, delay), sequence++, action));
+    }
+
+    // Poisson arrivals for this tick at the given rate per minute
+    private int arrivals(double perMinute) {
+        double limit = Math.exp(-perMinute / 1200.0);
+        int arrivals = 0;
+        for (double product = random.nextDouble(); product > limit; product *= random.nextDouble()) {
+            arrivals++;
+        }
+        return arrivals;
+    }
+
+    void joinAll() {
+        for (int i = 1; i <= options.players; i++) {
+            join(String.format("sim%04d", i), new UUID(random.nextLong(), random.nextLong()));
+        }
+    }
+
+    void quitAll() {
+        steps.clear();
+        for (StubPlayer player : new ArrayList<>(online)) {
+            quit(player);
+        }
+    }
+
+    void step(long tick) {
+        this.tick = tick;
+        for (Step step; (step = steps.peek()) != null && step.tick <= tick; ) {
+            steps.poll();
+            step.action.run();
+        }
+        for (int i = arrivals(options.churnPerMinute); i > 0; i--) {
+            reconnect();
+        }
+        for (int i = arrivals(options.tradesPerMinute); i > 0; i--) {
+            startTrade();
+        }
+        for (int i = arrivals(options.deathsPerMinute); i > 0; i--) {
+            die();
+        }
+        for (int i = arrivals(options.teleportsPerMinute); i > 0; i--) {
+            requestTeleport();
+        }
+        for (int i = arrivals(options.homesPerMinute); i > 0; i--) {
+            home();
+        }
+        long time = world.getFullTime() % 24000L;
+        if (time >= NIGHT_START && time < NIGHT_END) {
+            for (int i = arrivals(options.bedsPerMinute); i > 0; i--) {
+                enterBed();
+            }
+        } else {
+            for (StubPlayer player : online) {
+                if (player.isSleeping()) {
+                    leaveBed(player);
+                }
+            }
+        }
+        wander();
+    }
+
+    private boolean isOnline(StubPlayer player) {
+        return server.getPlayer(player.getUniqueId()) == player;
+    }
+
+    // An online player doing nothing else; null if a few draws find nobody
+    private StubPlayer pickIdle() {
+        for (int attempt = 0; attempt < 8 && !online.isEmpty(); attempt++) {
+            StubPlayer player = online.get(random.nextInt(online.size()));
+            if (!busy.contains(player.getUniqueId()) && !player.isSleeping()
+                && plugin.getTradeManager().getTradeSession(player.getUniqueId()) == null) {
+                return player;
+            }
+        }
+        return null;
+    }
+
+    private void command(StubPlayer player, String line) {
+        server.getServer().dispatchCommand(player.getPlayer(), line);
+    }
+
+    private Location surface(int x, int z) {
+        return new Location(world.getWorld(), x + 0.5, world.getWorld().getHighestBlockYAt(x, z) + 1, z + 0.5);
+    }
+
+    private void join(String name, UUID uuid) {
+        StubPlayer player = server.join(name, uuid, world);
+        player.setLocation(surface(random.nextInt(2 * WANDER) - WANDER, random.nextInt(2 * WANDER) - WANDER));
+        giveKit(player);
+        online.add(player);
+    }
+
+    private void quit(StubPlayer player) {
+        if (player.isSleeping()) {
+            leaveBed(player);
+        }
+        server.quit(player);
+        online.remove(player);
+    }
+
+    private void reconnect() {
+        StubPlayer player = pickIdle();
+        if (player == null) {
+            return;
+        }
+        quit(player);
+        count("reconnects");
+        later(100L + random.nextInt(500), () -> join(player.getName(), player.getUniqueId()));
+    }
+
+    // A dozen or so random stacks in random storage slots, leaving room for what trades bring
+    private void giveKit(StubPlayer player) {
+        PlayerInventory inventory = player.getPlayer().getInventory();
+        for (int i = 6 + random.nextInt(7); i > 0; i--) {
+            Material material = GOODS[random.nextInt(GOODS.length)];
+            inventory.setItem(random.nextInt(36), new ItemStack(material, 1 + random.nextInt(material.getMaxStackSize())));
+        }
+    }
+
+    // Some players move a block every now and then, which cancels their teleport warmups
+    private void wander() {
+        for (StubPlayer player : online) {
+            if (random.nextInt(40) == 0 && !player.isSleeping() && !busy.contains(player.getUniqueId())) {
+                Location location = player.getLocation();
+                player.setLocation(surface(location.getBlockX() + random.nextInt(3) - 1, location.getBlockZ() + random.nextInt(3) - 1));
+            }
+        }
+    }
+
+    // The server closes the window, the plugin gets the drops, the player respawns with a new kit
+    private void die() {
+        if (online.isEmpty()) {
+            return;
+        }
+        StubPlayer victim = online.get(random.nextInt(online.size()));
+        if (victim.isSleeping()) {
+            return;
+        }
+        victim.getPlayer().closeInventory();
+        // Out in the world, so graves land on every kind of terrain
+        victim.setLocation(surface(random.nextInt(2 * DEATH_RANGE) - DEATH_RANGE, random.nextInt(2 * DEATH_RANGE) - DEATH_RANGE));
+        List<ItemStack> drops = new ArrayList<>();
+        for (ItemStack item : victim.getInventory().getContents()) {
+            if (item != null && item.getType() != Material.AIR) {
+                drops.add(item);
+            }
+        }
+        victim.getInventory().clear();
+        server.getPluginManager().callEvent(new PlayerDeathEvent(victim.getPlayer(), damage, drops, 0,
+            victim.getName() + " died"));
+        count("deaths");
+        victim.setLocation(world.getSpawnLocation());
+        giveKit(victim);
+    }
+
+    private void enterBed() {
+        StubPlayer player = pickIdle();
+        if (player == null) {
+            return;
+        }
+        Block bed = world.getWorld().getBlockAt(player.getLocation());
+        PlayerBedEnterEvent event = server.getPluginManager().callEvent(
+            new PlayerBedEnterEvent(player.getPlayer(), bed, PlayerBedEnterEvent.BedEnterResult.OK));
+        count("bed entries");
+        if (!event.isCancelled()) {
+            player.setSleeping(true);
+        }
+    }
+
+    private void leaveBed(StubPlayer player) {
+        server.getPluginManager().callEvent(new PlayerBedLeaveEvent(player.getPlayer(),
+            world.getWorld().getBlockAt(player.getLocation()), true));
+        player.setSleeping(false);
+    }
+
+    private void requestTeleport() {
+        StubPlayer from = pickIdle();
+        StubPlayer to = pickIdle();
+        if (from == null || to == null || from == to) {
+            return;
+        }
+        boolean here = random.nextInt(5) == 0;
+        command(from, (here ? "tpahere " : "tp ") + to.getName());
+        count("teleport requests");
+        if (plugin.getTeleportRequests().get(to.getUniqueId(), from.getUniqueId()) == null) {
+            count("teleport requests refused");
+            return;
+        }
+        int roll = random.nextInt(100);
+        long delay = 20L + random.nextInt(100);
+        if (roll < 70) {
+            later(delay, () -> answer(to, "tpaccept " + from.getName(), "teleports accepted"));
+        } else if (roll < 85) {
+            later(delay, () -> answer(to, "tpdeny " + from.getName(), "teleports denied"));
+        } else {
+            // Left to expire
+            count("teleport requests ignored");
+        }
+    }
+
+    private void answer(StubPlayer player, String line, String what) {
+        if (isOnline(player)) {
+            command(player, line);
+            count(what);
+        }
+    }
+
+    private void home() {
+        StubPlayer player = pickIdle();
+        if (player == null) {
+            return;
+        }
+        if (!plugin.getHomeStore().hasHome(player.getUniqueId(), HomeStore.DEFAULT_HOME)) {
+            command(player, "sethome");
+        } else {
+            command(player, random.nextInt(4) == 0 ? "homes" : "home");
+        }
+        count("home commands");
+    }
+
+    private void startTrade() {
+        StubPlayer first = pickIdle();
+        if (first == null) {
+            return;
+        }
+        busy.add(first.getUniqueId());
+        StubPlayer second = pickIdle();
+        if (second == null) {
+            busy.remove(first.getUniqueId());
+            return;
+        }
+        busy.add(second.getUniqueId());
+        new Trade(first, second).request();
+    }
+
+    /** One trade from request to outcome; every step first checks the trade is still on. */
+    private final class Trade {
+        final StubPlayer first;
+        final StubPlayer second;
+        TradeManager.TradeSession session;
+        Fate fate;
+        int firstItems;
+        int secondItems;
+        int attempts;
+        long lastChange;
+
+        Trade(StubPlayer first, StubPlayer second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        TradeManager trades() {
+            return plugin.getTradeManager();
+        }
+
+        boolean active() {
+            return session != null && !session.isFinished() && trades().getTradeSession(first.getUniqueId()) == session;
+        }
+
+        void request() {
+            command(first, "trade " + second.getName());
+            count("trade requests");
+            if (!first.getUniqueId().equals(trades().getTradeRequest(second.getUniqueId()))) {
+                count("trade requests refused");
+                end();
+                return;
+            }
+            if (random.nextInt(10) == 0) {
+                // Nobody answers; both stay out of other trades until the request has expired
+                count("trade requests ignored");
+                later(requestTimeoutTicks + 20L, this::end);
+                return;
+            }
+            later(20L + random.nextInt(80), this::accept);
+        }
+
+        void accept() {
+            if (!isOnline(first) || !isOnline(second)) {
+                end();
+                return;
+            }
+            command(second, "trade accept");
+            session = trades().getTradeSession(first.getUniqueId());
+            if (session == null || session != trades().getTradeSession(second.getUniqueId())) {
+                count("trade accepts failed");
+                session = null;
+                end();
+                return;
+            }
+            count("trades opened");
+            firstItems = 1 + random.nextInt(4);
+            secondItems = random.nextInt(4);
+            int roll = random.nextInt(100);
+            fate = roll < 6 ? Fate.CLOSE : roll < 9 ? Fate.QUIT : roll < 14 ? Fate.CANCEL : Fate.FINISH;
+            later(5L + random.nextInt(20), this::fill);
+        }
+
+        void fill() {
+            if (!active()) {
+                finish();
+                return;
+            }
+            if (firstItems == 0 && secondItems == 0) {
+                if (fate == Fate.FINISH) {
+                    ready();
+                } else {
+                    abandon();
+                }
+                return;
+            }
+            boolean right = firstItems == 0 || (secondItems > 0 && random.nextBoolean());
+            if (right) {
+                secondItems--;
+            } else {
+                firstItems--;
+            }
+            place(right ? second : first, right);
+            later(2L + random.nextInt(10), this::fill);
+        }
+
+        // Takes a stack from the player's inventory and puts it on a side of the window
+        void place(StubPlayer player, boolean right) {
+            InventoryView view = player.getOpenView();
+            if (view == null || view.getTopInventory() != session.getTradeInventory()) {
+                return;
+            }
+            int from = storageSlot(player, view.getTopInventory().getSize());
+            if (from < 0) {
+                return;
+            }
+            click(player, from, InventoryAction.PICKUP_ALL);
+            int roll = random.nextInt(100);
+            if (roll < 5) {
+                // The wrong side; the plugin refuses it
+                click(player, freeSlot(!right), InventoryAction.PLACE_ALL);
+            } else if (roll < 20) {
+                drag(player, right);
+            } else {
+                click(player, freeSlot(right), InventoryAction.PLACE_ALL);
+            }
+            // Whatever is still on the cursor goes back where it came from
+            if (player.getCursor() != null) {
+                click(player, from, InventoryAction.PLACE_ALL);
+            }
+            lastChange = tick;
+        }
+
+        int freeSlot(boolean right) {
+            for (int slot : session.getLayout().slots(right)) {
+                ItemStack item = session.getTradeInventory().getItem(slot);
+                if (item == null || item.getType() == Material.AIR) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        // Spreads the cursor stack evenly over up to three free slots of one side
+        void drag(StubPlayer player, boolean right) {
+            InventoryView view = player.getOpenView();
+            ItemStack cursor = player.getCursor();
+            if (view == null || cursor == null) {
+                return;
+            }
+            List<Integer> free = new ArrayList<>();
+            for (int slot : session.getLayout().slots(right)) {
+                ItemStack item = session.getTradeInventory().getItem(slot);
+                if ((item == null || item.getType() == Material.AIR) && free.size() < 3) {
+                    free.add(slot);
+                }
+            }
+            int spread = Math.min(free.size(), cursor.getAmount());
+            if (spread < 2) {
+                click(player, free.isEmpty() ? -1 : free.get(0), InventoryAction.PLACE_ALL);
+                return;
+            }
+            int each = cursor.getAmount() / spread;
+            Map<Integer, ItemStack> slots = new HashMap<>();
+            for (int i = 0; i < spread; i++) {
+                ItemStack part = cursor.clone();
+                part.setAmount(each);
+                slots.put(free.get(i), part);
+            }
+            int rest = cursor.getAmount() - each * spread;
+            ItemStack newCursor = null;
+            if (rest > 0) {
+                newCursor = cursor.clone();
+                newCursor.setAmount(rest);
+            }
+            InventoryDragEvent event = server.getPluginManager().callEvent(
+                new InventoryDragEvent(view, newCursor, cursor.clone(), false, slots));
+            count("drags");
+            if (!event.isCancelled() && player.getOpenView() == view) {
+                for (Map.Entry<Integer, ItemStack> entry : slots.entrySet()) {
+                    view.setItem(entry.getKey(), entry.getValue());
+                }
+                player.setCursor(newCursor);
+            }
+        }
+
+        void ready() {
+            if (!active()) {
+                finish();
+                return;
+            }
+            long waited = tick - lastChange;
+            if (waited < READY_DELAY_TICKS) {
+                later(READY_DELAY_TICKS - waited, this::ready);
+                return;
+            }
+            attempts++;
+            // Ready, then confirm, the two players taking turns
+            TradeLayout layout = session.getLayout();
+            later(2L, () -> click(first, layout.readySlot(false), InventoryAction.PICKUP_ALL));
+            later(4L, () -> click(second, layout.readySlot(true), InventoryAction.PICKUP_ALL));
+            later(6L, () -> click(first, layout.readySlot(false), InventoryAction.PICKUP_ALL));
+            later(8L, () -> click(second, layout.readySlot(true), InventoryAction.PICKUP_ALL));
+            later(10L, this::check);
+        }
+
+        void check() {
+            if (!active()) {
+                finish();
+                return;
+            }
+            // Unreadied by a change or a full inventory; anything else means the clicks crossed
+            if (attempts < READY_ATTEMPTS && session.getState() == TradeManager.TradeSession.State.OPEN) {
+                later(READY_DELAY_TICKS, this::ready);
+                return;
+            }
+            count("trades given up");
+            click(first, session.getLayout().cancelSlot(), InventoryAction.PICKUP_ALL);
+            later(1L, this::finish);
+        }
+
+        void abandon() {
+            switch (fate) {
+                case CLOSE:
+                    first.getPlayer().closeInventory();
+                    count("trade windows closed");
+                    if (random.nextBoolean()) {
+                        later(20L + random.nextInt((int) Math.max(1L, closeGraceTicks - 40L)), () -> {
+                            if (active()) {
+                                command(first, "trade reopen");
+                                count("trade windows reopened");
+                                fate = Fate.FINISH;
+                                ready();
+                            } else {
+                                finish();
+                            }
+                        });
+                    } else {
+                        later(closeGraceTicks + 20L, this::finish);
+                    }
+                    break;
+                case QUIT:
+                    quit(second);
+                    count("reconnects");
+                    later(100L + random.nextInt(500), () -> join(second.getName(), second.getUniqueId()));
+                    finish();
+                    break;
+                default:
+                    click(second, session.getLayout().cancelSlot(), InventoryAction.PICKUP_ALL);
+                    later(1L, this::finish);
+                    break;
+            }
+        }
+
+        void finish() {
+            if (session != null) {
+                TradeManager.TradeSession.State state = session.getState();
+                count(state == TradeManager.TradeSession.State.CANCELLED ? "trades cancelled"
+                    : state == TradeManager.TradeSession.State.OPEN || state == TradeManager.TradeSession.State.READY
+                    ? "trades left open" : "trades completed");
+            }
+            end();
+        }
+
+        void end() {
+            busy.remove(first.getUniqueId());
+            busy.remove(second.getUniqueId());
+        }
+    }
+
+    // Raw slot of a random non-empty storage slot, or -1; raw slots after the window run rows 1-3, then the hotbar
+    private int storageSlot(StubPlayer player, int topSize) {
+        ItemStack[] storage = player.getInventory().getStorageContents();
+        int start = random.nextInt(storage.length);
+        for (int i = 0; i < storage.length; i++) {
+            int slot = (start + i) % storage.length;
+            if (storage[slot] != null && storage[slot].getType() != Material.AIR) {
+                return topSize + (slot < 9 ? slot + 27 : slot - 9);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A left click at a raw slot, then what the server does if nobody
+     * cancelled it: a pickup moves the slot to the cursor, a place moves the
+     * cursor into an empty slot. Slot -1 does nothing.
+     */
+    private void click(StubPlayer player, int rawSlot, InventoryAction action) {
+        InventoryView view = player.getOpenView();
+        if (view == null || rawSlot < 0) {
+            return;
+        }
+        InventoryClickEvent event = server.getPluginManager().callEvent(
+            new InventoryClickEvent(view, view.getSlotType(rawSlot), rawSlot, ClickType.LEFT, action));
+        count("clicks");
+        if (event.isCancelled() || player.getOpenView() != view) {
+            return;
+        }
+        ItemStack current = view.getItem(rawSlot);
+        boolean empty = current == null || current.getType() == Material.AIR;
+        if (action == InventoryAction.PICKUP_ALL && !empty && player.getCursor() == null) {
+            player.setCursor(current);
+            view.setItem(rawSlot, null);
+        } else if (action == InventoryAction.PLACE_ALL && empty && player.getCursor() != null) {
+            view.setItem(rawSlot, player.getCursor());
+            player.setCursor(null);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Server;
+import org.bukkit.plugin.InvalidDescriptionException;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPluginLoader;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * TeleportPlugin set up by hand rather than by a server's plugin loader: the
+ * description is read from the plugin's own plugin.yml and the data folder is
+ * the one the harness hands in.
+ */
+final class SimulatedPlugin extends TeleportPlugin {
+    private SimulatedPlugin(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder) {
+        super(loader, description, dataFolder, new File(dataFolder, "TeleportPlugin.jar"));
+    }
+
+    @SuppressWarnings("deprecation")
+    static SimulatedPlugin load(Server server, File dataFolder) throws IOException, InvalidDescriptionException {
+        PluginDescriptionFile description;
+        try (InputStream in = TeleportPlugin.class.getResourceAsStream("/plugin.yml")) {
+            if (in == null) {
+                throw new FileNotFoundException("plugin.yml is not on the class path");
+            }
+            description = new PluginDescriptionFile(in);
+        }
+        return new SimulatedPlugin(new JavaPluginLoader(server), description, dataFolder);
+    }
+
+    // What the plugin loader does on enable and disable: runs onEnable or onDisable and flips isEnabled
+    void enable(boolean enabled) {
+        setEnabled(enabled);
+    }
+}
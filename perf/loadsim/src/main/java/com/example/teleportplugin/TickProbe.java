@@ -0,0 +1,93 @@
+package com.example.teleportplugin;
+
+import com.example.teleportplugin.testkit.StubServer;
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Adds up the main thread's time and allocations inside plugin code per tick:
+ * every task, event dispatch and command the stub server runs. Nested calls,
+ * like the close event of a window the plugin closes, count once.
+ */
+final class TickProbe implements StubServer.Probe {
+    private final ThreadMXBean threads;
+    private final long budgetNanos;
+    private final LatencyHistogram ticks = new LatencyHistogram();
+    private int depth;
+    private long enteredAt;
+    private long allocatedAt;
+    private long tickNanos;
+    private long tickBytes;
+    private long totalBytes;
+    private long maxTickBytes;
+    private long calls;
+    private long overBudget;
+
+    TickProbe(long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof ThreadMXBean && ((ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threads = (ThreadMXBean) bean;
+            threads.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            threads = null;
+        }
+    }
+
+    boolean measuresAllocation() {
+        return threads != null;
+    }
+
+    private long allocated() {
+        return threads != null ? threads.getCurrentThreadAllocatedBytes() : 0L;
+    }
+
+    @Override
+    public void enter() {
+        if (depth++ == 0) {
+            allocatedAt = allocated();
+            enteredAt = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void exit() {
+        if (--depth == 0) {
+            tickNanos += System.nanoTime() - enteredAt;
+            tickBytes += allocated() - allocatedAt;
+            calls++;
+        }
+    }
+
+    void endTick() {
+        ticks.record(tickNanos);
+        if (tickNanos > budgetNanos) {
+            overBudget++;
+        }
+        totalBytes += tickBytes;
+        maxTickBytes = Math.max(maxTickBytes, tickBytes);
+        tickNanos = 0L;
+        tickBytes = 0L;
+    }
+
+    LatencyHistogram.Snapshot snapshot() {
+        return ticks.snapshot();
+    }
+
+    long getTotalBytes() {
+        return totalBytes;
+    }
+
+    long getMaxTickBytes() {
+        return maxTickBytes;
+    }
+
+    long getCalls() {
+        return calls;
+    }
+
+    long getOverBudget() {
+        return overBudget;
+    }
+}
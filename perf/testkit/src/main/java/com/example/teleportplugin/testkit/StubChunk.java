@@ -0,0 +1,58 @@
+package com.example.teleportplugin.testkit;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+
+/**
+ * {@link ChunkSnapshot} generated from a {@link Terrain}. Every block is
+ * evaluated once up front into a flat array, so reads during a benchmark cost
+ * an index computation plus the proxy call, not the terrain function.
+ */
+public final class StubChunk {
+    private StubChunk() {
+    }
+
+    /** Block at world coordinates; called once per block when a chunk is built. */
+    public interface Terrain {
+        Material at(int x, int y, int z);
+    }
+
+    public static ChunkSnapshot create(String worldName, int chunkX, int chunkZ, int minY, int maxY, Terrain terrain) {
+        int height = maxY - minY;
+        Material[] blocks = new Material[16 * 16 * height];
+        int[] highest = new int[16 * 16];
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                highest[x << 4 | z] = minY;
+                for (int y = minY; y < maxY; y++) {
+                    Material material = terrain.at(chunkX << 4 | x, y, chunkZ << 4 | z);
+                    blocks[((y - minY) << 8) | x << 4 | z] = material;
+                    if (!material.isAir()) {
+                        highest[x << 4 | z] = y;
+                    }
+                }
+            }
+        }
+        return Stubs.create(ChunkSnapshot.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getBlockType": {
+                    int y = (Integer) args[1];
+                    if (y < minY || y >= maxY) {
+                        return Material.VOID_AIR;
+                    }
+                    return blocks[((y - minY) << 8) | ((Integer) args[0] & 15) << 4 | ((Integer) args[2] & 15)];
+                }
+                case "getHighestBlockYAt":
+                    return highest[((Integer) args[0] & 15) << 4 | ((Integer) args[1] & 15)];
+                case "getX":
+                    return chunkX;
+                case "getZ":
+                    return chunkZ;
+                case "getWorldName":
+                    return worldName;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+    }
+}
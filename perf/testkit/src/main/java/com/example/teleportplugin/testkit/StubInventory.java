@@ -0,0 +1,161 @@
+package com.example.teleportplugin.testkit;
+
+import org.bukkit.Material;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+
+import java.util.*;
+
+/**
+ * Array-backed {@link Inventory} answering the slot reads and writes plugin
+ * code makes: size, get and set item, contents, clear, firstEmpty and addItem.
+ * Stacks are stored as given, without the copy a real server makes, so a
+ * stack read from a slot changes the slot, as a server's mirror stack does.
+ */
+public final class StubInventory {
+    // Player inventories: 36 storage slots, then boots to helmet, then the offhand
+    static final int PLAYER_STORAGE = 36;
+    static final int PLAYER_SIZE = 41;
+    private static final int OFFHAND = 40;
+
+    // Window titles live on the view; kept here for the views opened on these inventories
+    private static final Map<Inventory, String> titles = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private StubInventory() {
+    }
+
+    public static Inventory create(int size) {
+        return create(size, InventoryType.CHEST, null, "Chest");
+    }
+
+    public static Inventory create(int size, InventoryType type, InventoryHolder holder, String title) {
+        ItemStack[] slots = new ItemStack[size];
+        Inventory inventory = Stubs.create(Inventory.class, (method, args) -> answer(slots, size, type, holder, method.getName(), args));
+        titles.put(inventory, title);
+        return inventory;
+    }
+
+    /** The 41-slot inventory of a player; addItem and firstEmpty only use the 36 storage slots. */
+    public static PlayerInventory createPlayer(InventoryHolder holder) {
+        ItemStack[] slots = new ItemStack[PLAYER_SIZE];
+        return Stubs.create(PlayerInventory.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getItemInMainHand":
+                    return slots[0] != null ? slots[0] : new ItemStack(Material.AIR);
+                case "getItemInOffHand":
+                    return slots[OFFHAND] != null ? slots[OFFHAND] : new ItemStack(Material.AIR);
+                case "getHeldItemSlot":
+                    return 0;
+                case "getArmorContents":
+                    return Arrays.copyOfRange(slots, PLAYER_STORAGE, OFFHAND);
+                case "getExtraContents":
+                    return new ItemStack[] {slots[OFFHAND]};
+                default:
+                    return answer(slots, PLAYER_STORAGE, InventoryType.PLAYER, holder, method.getName(), args);
+            }
+        });
+    }
+
+    static String titleOf(Inventory inventory) {
+        String title = titles.get(inventory);
+        return title != null ? title : "Inventory";
+    }
+
+    private static Object answer(ItemStack[] slots, int storage, InventoryType type, InventoryHolder holder,
+                                 String method, Object[] args) {
+        switch (method) {
+            case "getSize":
+                return slots.length;
+            case "getType":
+                return type;
+            case "getHolder":
+                return holder;
+            case "getItem":
+                return slots[(Integer) args[0]];
+            case "setItem":
+                slots[(Integer) args[0]] = (ItemStack) args[1];
+                return null;
+            case "getContents":
+                return slots.clone();
+            case "getStorageContents":
+                return Arrays.copyOf(slots, storage);
+            case "setContents":
+            case "setStorageContents": {
+                ItemStack[] contents = (ItemStack[]) args[0];
+                Arrays.fill(slots, 0, method.equals("setContents") ? slots.length : storage, null);
+                System.arraycopy(contents, 0, slots, 0, Math.min(contents.length, slots.length));
+                return null;
+            }
+            case "clear":
+                if (args.length == 0) {
+                    Arrays.fill(slots, null);
+                } else {
+                    slots[(Integer) args[0]] = null;
+                }
+                return null;
+            case "firstEmpty":
+                return firstEmpty(slots, storage);
+            case "isEmpty":
+                for (ItemStack item : slots) {
+                    if (!isEmpty(item)) {
+                        return false;
+                    }
+                }
+                return true;
+            case "addItem":
+                return addItem(slots, storage, (ItemStack[]) args[0]);
+            case "getMaxStackSize":
+                return 64;
+            default:
+                return Stubs.DEFAULT;
+        }
+    }
+
+    private static boolean isEmpty(ItemStack item) {
+        return item == null || item.getType() == Material.AIR;
+    }
+
+    private static int firstEmpty(ItemStack[] slots, int storage) {
+        for (int i = 0; i < storage; i++) {
+            if (isEmpty(slots[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // As CraftInventory.addItem: top up similar stacks, then take empty slots; returns what did not fit
+    private static HashMap<Integer, ItemStack> addItem(ItemStack[] slots, int storage, ItemStack[] items) {
+        HashMap<Integer, ItemStack> leftover = new HashMap<>();
+        for (int i = 0; i < items.length; i++) {
+            ItemStack item = items[i];
+            int remaining = item.getAmount();
+            int max = Math.max(1, item.getMaxStackSize());
+            for (int slot = 0; slot < storage && remaining > 0; slot++) {
+                ItemStack stack = slots[slot];
+                if (!isEmpty(stack) && stack.getAmount() < max && stack.isSimilar(item)) {
+                    int moved = Math.min(remaining, max - stack.getAmount());
+                    stack.setAmount(stack.getAmount() + moved);
+                    remaining -= moved;
+                }
+            }
+            while (remaining > 0) {
+                int slot = firstEmpty(slots, storage);
+                if (slot < 0) {
+                    ItemStack rest = item.clone();
+                    rest.setAmount(remaining);
+                    leftover.put(i, rest);
+                    break;
+                }
+                ItemStack stack = item.clone();
+                stack.setAmount(Math.min(remaining, max));
+                slots[slot] = stack;
+                remaining -= stack.getAmount();
+            }
+        }
+        return leftover;
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.teleportplugin.testkit;
+
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.inventory.ItemFactory;
+import org.bukkit.inventory.meta.Damageable;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.inventory.meta.SkullMeta;
+import org.bukkit.persistence.PersistentDataContainer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+/**
+ * Item meta without a server: every meta is a property map behind a proxy.
+ * {@code setX(value)} stores a property, {@code getX()}, {@code hasX()} and
+ * {@code isX()} read it back, and two metas are equal when their maps are.
+ * Enough for display names, lore, custom model data and persistent data;
+ * enchantments and attributes are not modelled.
+ */
+public final class StubItems {
+    static final ItemFactory FACTORY = Stubs.create(ItemFactory.class, (method, args) -> {
+        switch (method.getName()) {
+            case "getItemMeta":
+                return ((Material) args[0]).isAir() ? null : newMeta(new HashMap<>());
+            case "isApplicable":
+                return true;
+            case "asMetaFor":
+                return args[0];
+            case "updateMaterial":
+                return args[1];
+            case "equals":
+                return args.length == 2 && Objects.equals(properties(args[0]), properties(args[1]));
+            default:
+                return Stubs.DEFAULT;
+        }
+    });
+
+    private static final Class<?>[] META_TYPES = {ItemMeta.class, Damageable.class, SkullMeta.class};
+
+    private StubItems() {
+    }
+
+    private static final class MetaHandler implements InvocationHandler {
+        final HashMap<String, Object> properties;
+
+        MetaHandler(HashMap<String, Object> properties) {
+            this.properties = properties;
+        }
+
+        @Override
+        public Object invoke(Object self, Method method, Object[] args) {
+            String name = method.getName();
+            int arity = args != null ? args.length : 0;
+            if (method.getDeclaringClass() == Object.class) {
+                switch (name) {
+                    case "equals":
+                        return properties.equals(properties(args[0]));
+                    case "hashCode":
+                        return properties.hashCode();
+                    default:
+                        return "ItemMeta" + properties;
+                }
+            }
+            switch (name) {
+                case "clone":
+                    return newMeta(new HashMap<>(properties));
+                case "getAsString":
+                case "getAsComponentString":
+                    return properties.toString();
+                case "serialize":
+                    return new LinkedHashMap<String, Object>(properties);
+                case "getPersistentDataContainer":
+                    return properties.computeIfAbsent("PersistentDataContainer", k -> newContainer());
+                case "hasPersistentDataContainer":
+                    return properties.containsKey("PersistentDataContainer");
+                default:
+                    break;
+            }
+            if (name.startsWith("set") && arity == 1) {
+                String key = name.substring(3);
+                if (args[0] != null) {
+                    properties.put(key, args[0]);
+                } else {
+                    properties.remove(key);
+                }
+                return method.getReturnType() == boolean.class ? Boolean.TRUE : null;
+            }
+            if (arity == 0) {
+                if (name.startsWith("has")) {
+                    return properties.containsKey(name.substring(3));
+                }
+                if (name.startsWith("is")) {
+                    return Boolean.TRUE.equals(properties.get(name.substring(2)));
+                }
+                if (name.startsWith("get") && properties.containsKey(name.substring(3))) {
+                    return properties.get(name.substring(3));
+                }
+                if (Map.class.isAssignableFrom(method.getReturnType())) {
+                    return Collections.emptyMap();
+                }
+                if (Set.class.isAssignableFrom(method.getReturnType())) {
+                    return Collections.emptySet();
+                }
+            }
+            return Stubs.defaultValue(method.getReturnType());
+        }
+    }
+
+    private static ItemMeta newMeta(HashMap<String, Object> properties) {
+        return (ItemMeta) Proxy.newProxyInstance(ItemMeta.class.getClassLoader(), META_TYPES, new MetaHandler(properties));
+    }
+
+    // No meta counts as an empty meta, as on a real server
+    private static Map<String, Object> properties(Object meta) {
+        if (meta == null) {
+            return Collections.emptyMap();
+        }
+        if (Proxy.isProxyClass(meta.getClass()) && Proxy.getInvocationHandler(meta) instanceof MetaHandler) {
+            return ((MetaHandler) Proxy.getInvocationHandler(meta)).properties;
+        }
+        return null;
+    }
+
+    private static PersistentDataContainer newContainer() {
+        LinkedHashMap<NamespacedKey, Object> values = new LinkedHashMap<>();
+        return Stubs.create(PersistentDataContainer.class, (method, args) -> {
+            switch (method.getName()) {
+                case "set":
+                    values.put((NamespacedKey) args[0], args[2]);
+                    return null;
+                case "get":
+                    return values.get(args[0]);
+                case "getOrDefault":
+                    return values.getOrDefault(args[0], args[2]);
+                case "has":
+                    return values.containsKey(args[0]);
+                case "remove":
+                    values.remove(args[0]);
+                    return null;
+                case "getKeys":
+                    return new LinkedHashSet<>(values.keySet());
+                case "isEmpty":
+                    return values.isEmpty();
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+    }
+}
@@ -0,0 +1,270 @@
+package com.example.teleportplugin.testkit;
+
+import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryView;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * An online player: location, inventory, the window it has open and the
+ * stack on its cursor. Opening a window over another one closes the old one
+ * first and closing fires {@link InventoryCloseEvent}, as on a server.
+ * Messages are counted, not kept.
+ */
+public final class StubPlayer {
+    private final StubServer server;
+    private final String name;
+    private final UUID uuid;
+    private final Player player;
+    private final Set<String> permissions = new HashSet<>();
+    // Both point back at the player, so they are made right after it
+    private PlayerInventory inventory;
+    // The 2x2 crafting grid every player has open when no other window is
+    private InventoryView craftingView;
+    private Location location;
+    private InventoryView openView;
+    private ItemStack cursor;
+    private boolean online = true;
+    private boolean sleeping;
+    private long messages;
+    private String lastMessage;
+
+    StubPlayer(StubServer server, String name, UUID uuid, Location location) {
+        this.server = server;
+        this.name = name;
+        this.uuid = uuid;
+        this.location = location.clone();
+        this.player = Stubs.create(Player.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getUniqueId":
+                    return uuid;
+                case "getName":
+                case "getDisplayName":
+                case "getPlayerListName":
+                    return name;
+                case "getType":
+                    return EntityType.PLAYER;
+                case "getLocation":
+                    if (args.length == 1 && args[0] != null) {
+                        Location target = (Location) args[0];
+                        target.setWorld(this.location.getWorld());
+                        target.setX(this.location.getX());
+                        target.setY(this.location.getY());
+                        target.setZ(this.location.getZ());
+                        return target;
+                    }
+                    return this.location.clone();
+                case "getEyeLocation":
+                    return this.location.clone().add(0, 1.62, 0);
+                case "getWorld":
+                    return this.location.getWorld();
+                case "teleport":
+                    if (args[0] instanceof Location) {
+                        this.location = ((Location) args[0]).clone();
+                        return true;
+                    }
+                    return false;
+                case "isOnline":
+                case "isValid":
+                    return online;
+                case "sendMessage":
+                    messages++;
+                    lastMessage = args[0] instanceof String ? (String) args[0] : String.valueOf(args[args.length - 1]);
+                    return null;
+                case "hasPermission":
+                    return args[0] instanceof String && permissions.contains(args[0]);
+                case "getInventory":
+                    return inventory;
+                case "getOpenInventory":
+                    return openView != null ? openView : craftingView;
+                case "openInventory":
+                    return args[0] instanceof Inventory ? openInventory((Inventory) args[0]) : Stubs.DEFAULT;
+                case "closeInventory":
+                    closeInventory();
+                    return null;
+                case "getItemOnCursor":
+                    return cursor != null ? cursor : new ItemStack(Material.AIR);
+                case "setItemOnCursor":
+                    cursor = (ItemStack) args[0];
+                    return null;
+                case "getGameMode":
+                    return GameMode.SURVIVAL;
+                case "isSleeping":
+                    return sleeping;
+                case "getHealth":
+                case "getMaxHealth":
+                    return 20.0;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+        this.inventory = StubInventory.createPlayer(player);
+        this.craftingView = view(StubInventory.create(5, InventoryType.CRAFTING, player, "Crafting"));
+    }
+
+    public Player getPlayer() {
+        return player;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public UUID getUniqueId() {
+        return uuid;
+    }
+
+    public Location getLocation() {
+        return location.clone();
+    }
+
+    public void setLocation(Location location) {
+        this.location = location.clone();
+    }
+
+    public PlayerInventory getInventory() {
+        return inventory;
+    }
+
+    /** The window the player has open, or null for its own inventory. */
+    public InventoryView getOpenView() {
+        return openView;
+    }
+
+    public ItemStack getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(ItemStack cursor) {
+        this.cursor = cursor;
+    }
+
+    public boolean isSleeping() {
+        return sleeping;
+    }
+
+    public void setSleeping(boolean sleeping) {
+        this.sleeping = sleeping;
+    }
+
+    public void addPermission(String permission) {
+        permissions.add(permission);
+    }
+
+    public long getMessageCount() {
+        return messages;
+    }
+
+    public String getLastMessage() {
+        return lastMessage;
+    }
+
+    void setOnline(boolean online) {
+        this.online = online;
+    }
+
+    private InventoryView openInventory(Inventory top) {
+        if (openView != null) {
+            closeInventory();
+        }
+        openView = view(top);
+        return openView;
+    }
+
+    // The server fires the close event first; the cursor stack then goes back into the inventory
+    private void closeInventory() {
+        InventoryView view = openView;
+        if (view == null) {
+            return;
+        }
+        server.getPluginManager().callEvent(new InventoryCloseEvent(view));
+        if (openView == view) {
+            openView = null;
+        }
+        if (cursor != null && cursor.getType() != Material.AIR) {
+            for (ItemStack rest : inventory.addItem(cursor).values()) {
+                location.getWorld().dropItem(location, rest);
+            }
+        }
+        cursor = null;
+    }
+
+    /**
+     * A view of the given window over this player's inventory. Raw slots count
+     * the window's slots first, then the player's storage rows, then the
+     * hotbar, so raw slot {@code top.getSize()} is inventory slot 9.
+     */
+    private InventoryView view(Inventory top) {
+        return Stubs.create(InventoryView.class, (method, args) -> {
+            int topSize = top.getSize();
+            switch (method.getName()) {
+                case "getTopInventory":
+                    return top;
+                case "getBottomInventory":
+                    return inventory;
+                case "getPlayer":
+                    return player;
+                case "getType":
+                    return top.getType();
+                case "getTitle":
+                case "getOriginalTitle":
+                    return StubInventory.titleOf(top);
+                case "getCursor":
+                    return cursor;
+                case "setCursor":
+                    cursor = (ItemStack) args[0];
+                    return null;
+                case "countSlots":
+                    return topSize + StubInventory.PLAYER_STORAGE;
+                case "convertSlot":
+                    return convertSlot((Integer) args[0], topSize);
+                case "getInventory": {
+                    int raw = (Integer) args[0];
+                    return raw < 0 ? null : raw < topSize ? top : raw < topSize + StubInventory.PLAYER_STORAGE ? inventory : null;
+                }
+                case "getSlotType": {
+                    int raw = (Integer) args[0];
+                    return raw < 0 ? InventoryType.SlotType.OUTSIDE : raw < topSize ? InventoryType.SlotType.CONTAINER
+                        : raw >= topSize + 27 ? InventoryType.SlotType.QUICKBAR : InventoryType.SlotType.CONTAINER;
+                }
+                case "getItem": {
+                    int raw = (Integer) args[0];
+                    return raw < 0 ? null : raw < topSize ? top.getItem(raw) : inventory.getItem(convertSlot(raw, topSize));
+                }
+                case "setItem": {
+                    int raw = (Integer) args[0];
+                    if (raw < topSize) {
+                        top.setItem(raw, (ItemStack) args[1]);
+                    } else {
+                        inventory.setItem(convertSlot(raw, topSize), (ItemStack) args[1]);
+                    }
+                    return null;
+                }
+                case "close":
+                    closeInventory();
+                    return null;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+    }
+
+    private static int convertSlot(int raw, int topSize) {
+        if (raw < topSize) {
+            return raw;
+        }
+        int slot = raw - topSize;
+        return slot >= 27 ? slot - 27 : slot + 9;
+    }
+}
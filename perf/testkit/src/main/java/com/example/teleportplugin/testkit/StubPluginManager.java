@@ -0,0 +1,160 @@
+package com.example.teleportplugin.testkit;
+
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * {@link PluginManager} that keeps the plugins and listeners registered with
+ * it and dispatches events to them in priority order, honouring
+ * {@code ignoreCancelled}. Handlers see events of exactly the class they were
+ * registered for, which is how Bukkit delivers the concrete events a server
+ * fires. Main thread only.
+ */
+public final class StubPluginManager {
+    private final StubServer server;
+    private final PluginManager pluginManager;
+    private final LinkedHashMap<String, Plugin> plugins = new LinkedHashMap<>();
+    private final HashMap<Class<?>, List<Handler>> handlers = new HashMap<>();
+
+    private static final class Handler {
+        final String name;
+        final Listener listener;
+        final Plugin plugin;
+        final EventPriority priority;
+        final boolean ignoreCancelled;
+        final EventExecutor executor;
+
+        Handler(String name, Listener listener, Plugin plugin, EventPriority priority, boolean ignoreCancelled,
+                EventExecutor executor) {
+            this.name = name;
+            this.listener = listener;
+            this.plugin = plugin;
+            this.priority = priority;
+            this.ignoreCancelled = ignoreCancelled;
+            this.executor = executor;
+        }
+    }
+
+    StubPluginManager(StubServer server) {
+        this.server = server;
+        this.pluginManager = Stubs.create(PluginManager.class, (method, args) -> {
+            switch (method.getName()) {
+                case "registerEvents":
+                    registerEvents((Listener) args[0], (Plugin) args[1]);
+                    return null;
+                case "registerEvent": {
+                    @SuppressWarnings("unchecked")
+                    Class<? extends Event> type = (Class<? extends Event>) args[0];
+                    Listener listener = (Listener) args[1];
+                    register(type, new Handler(listener.getClass().getSimpleName() + " " + type.getSimpleName(), listener,
+                        (Plugin) args[4], (EventPriority) args[2], args.length > 5 && (Boolean) args[5], (EventExecutor) args[3]));
+                    return null;
+                }
+                case "callEvent":
+                    callEvent((Event) args[0]);
+                    return null;
+                case "getPlugin":
+                    return plugins.get(args[0]);
+                case "getPlugins":
+                    return plugins.values().toArray(new Plugin[0]);
+                case "isPluginEnabled": {
+                    Plugin plugin = args[0] instanceof Plugin ? (Plugin) args[0] : plugins.get(args[0]);
+                    return plugin != null && plugin.isEnabled();
+                }
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+    }
+
+    public PluginManager getPluginManager() {
+        return pluginManager;
+    }
+
+    public void addPlugin(Plugin plugin) {
+        plugins.put(plugin.getName(), plugin);
+    }
+
+    /** What the server does after a plugin's onDisable: its tasks are cancelled and its listeners dropped. */
+    public void disabled(Plugin plugin) {
+        server.getScheduler().getScheduler().cancelTasks(plugin);
+        for (List<Handler> list : handlers.values()) {
+            list.removeIf(handler -> handler.plugin == plugin);
+        }
+    }
+
+    // Public @EventHandler methods, inherited ones included, plus the listener class's own private ones
+    private void registerEvents(Listener listener, Plugin plugin) {
+        Set<Method> methods = new LinkedHashSet<>(Arrays.asList(listener.getClass().getMethods()));
+        methods.addAll(Arrays.asList(listener.getClass().getDeclaredMethods()));
+        for (Method method : methods) {
+            EventHandler annotation = method.getAnnotation(EventHandler.class);
+            if (annotation == null || method.isBridge() || method.isSynthetic() || method.getParameterCount() != 1
+                || !Event.class.isAssignableFrom(method.getParameterTypes()[0])) {
+                continue;
+            }
+            Class<? extends Event> type = method.getParameterTypes()[0].asSubclass(Event.class);
+            method.setAccessible(true);
+            EventExecutor executor = (target, event) -> {
+                if (!type.isInstance(event)) {
+                    return;
+                }
+                try {
+                    method.invoke(target, event);
+                } catch (InvocationTargetException e) {
+                    throw new EventException(e.getCause());
+                } catch (IllegalAccessException e) {
+                    throw new EventException(e);
+                }
+            };
+            register(type, new Handler(listener.getClass().getSimpleName() + "." + method.getName(), listener, plugin,
+                annotation.priority(), annotation.ignoreCancelled(), executor));
+        }
+    }
+
+    private void register(Class<? extends Event> type, Handler handler) {
+        List<Handler> list = handlers.computeIfAbsent(type, k -> new ArrayList<>());
+        list.add(handler);
+        // Stable: handlers of one priority keep their registration order
+        list.sort(Comparator.comparingInt(h -> h.priority.getSlot()));
+    }
+
+    /** Fires the event at its handlers and returns it, so callers can read its outcome. */
+    public <T extends Event> T callEvent(T event) {
+        List<Handler> list = handlers.get(event.getClass());
+        if (list == null || list.isEmpty()) {
+            return event;
+        }
+        StubServer.Probe probe = server.probe();
+        probe.enter();
+        try {
+            // A handler may register or drop listeners; the dispatch works on this moment's list
+            for (Handler handler : list.toArray(new Handler[0])) {
+                if (handler.ignoreCancelled && event instanceof Cancellable && ((Cancellable) event).isCancelled()) {
+                    continue;
+                }
+                try {
+                    handler.executor.execute(handler.listener, event);
+                } catch (EventException e) {
+                    server.fail(handler.name, e.getCause() != null ? e.getCause() : e);
+                } catch (RuntimeException | LinkageError e) {
+                    server.fail(handler.name, e);
+                }
+            }
+        } finally {
+            probe.exit();
+        }
+        return event;
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.teleportplugin.testkit;
+
+import org.bukkit.plugin.IllegalPluginAccessException;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Tick-driven {@link BukkitScheduler}. Sync tasks run on the main thread when
+ * {@link StubServer#tick()} reaches them, in the order they became due; async
+ * tasks are handed to a small thread pool at their tick. Tasks may be
+ * submitted from any thread, as plugins do from I/O callbacks.
+ */
+public final class StubScheduler {
+    private final StubServer server;
+    private final BukkitScheduler scheduler;
+    private final AtomicInteger ids = new AtomicInteger();
+    private final AtomicInteger asyncThreads = new AtomicInteger();
+    // Submitted since the last tick, from any thread; drained into the due queue by the main thread
+    private final ConcurrentLinkedQueue<Task> submitted = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Task> due = new PriorityQueue<>(
+        Comparator.<Task>comparingLong(task -> task.nextRun).thenComparingInt(task -> task.id));
+    private final ExecutorService async = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "Stub Scheduler Async #" + asyncThreads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile long currentTick;
+
+    private final class Task {
+        final int id = ids.incrementAndGet();
+        final Plugin plugin;
+        final Runnable runnable;
+        final boolean sync;
+        final long period;
+        final BukkitTask handle;
+        long nextRun;
+        volatile boolean cancelled;
+
+        Task(Plugin plugin, Runnable runnable, boolean sync, long delay, long period) {
+            this.plugin = plugin;
+            this.runnable = runnable;
+            this.sync = sync;
+            this.period = period;
+            this.nextRun = currentTick + Math.max(1L, delay);
+            this.handle = Stubs.create(BukkitTask.class, (method, args) -> {
+                switch (method.getName()) {
+                    case "getTaskId":
+                        return id;
+                    case "getOwner":
+                        return plugin;
+                    case "isSync":
+                        return sync;
+                    case "isCancelled":
+                        return cancelled;
+                    case "cancel":
+                        cancelled = true;
+                        return null;
+                    default:
+                        return Stubs.DEFAULT;
+                }
+            });
+        }
+    }
+
+    StubScheduler(StubServer server) {
+        this.server = server;
+        this.scheduler = Stubs.create(BukkitScheduler.class, (method, args) -> {
+            String name = method.getName();
+            switch (name) {
+                case "runTask":
+                case "runTaskAsynchronously":
+                    return submit(method.getReturnType(), args, 0L, -1L, !name.endsWith("Asynchronously"));
+                case "runTaskLater":
+                case "runTaskLaterAsynchronously":
+                    return submit(method.getReturnType(), args, (Long) args[2], -1L, !name.endsWith("Asynchronously"));
+                case "runTaskTimer":
+                case "runTaskTimerAsynchronously":
+                    return submit(method.getReturnType(), args, (Long) args[2], Math.max(1L, (Long) args[3]),
+                        !name.endsWith("Asynchronously"));
+                case "scheduleSyncDelayedTask":
+                    return schedule((Plugin) args[0], (Runnable) args[1], true, args.length > 2 ? (Long) args[2] : 0L, -1L).id;
+                case "scheduleSyncRepeatingTask":
+                    return schedule((Plugin) args[0], (Runnable) args[1], true, (Long) args[2], Math.max(1L, (Long) args[3])).id;
+                case "callSyncMethod": {
+                    FutureTask<?> future = new FutureTask<>((Callable<?>) args[1]);
+                    schedule((Plugin) args[0], future, true, 0L, -1L);
+                    return future;
+                }
+                case "getMainThreadExecutor": {
+                    Plugin plugin = (Plugin) args[0];
+                    return (Executor) command -> schedule(plugin, command, true, 0L, -1L);
+                }
+                case "cancelTask":
+                    cancel(task -> task.id == (Integer) args[0]);
+                    return null;
+                case "cancelTasks":
+                    cancel(task -> task.plugin == args[0]);
+                    return null;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+    }
+
+    public BukkitScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /** Ticks run so far. */
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    // The Runnable overloads return the task; the Consumer<BukkitTask> ones hand it to the consumer
+    @SuppressWarnings("unchecked")
+    private Object submit(Class<?> returnType, Object[] args, long delay, long period, boolean sync) {
+        Plugin plugin = (Plugin) args[0];
+        if (args[1] instanceof Runnable) {
+            return schedule(plugin, (Runnable) args[1], sync, delay, period).handle;
+        }
+        Consumer<BukkitTask> consumer = (Consumer<BukkitTask>) args[1];
+        Task[] task = new Task[1];
+        task[0] = schedule(plugin, () -> consumer.accept(task[0].handle), sync, delay, period);
+        return returnType == void.class ? null : task[0].handle;
+    }
+
+    private Task schedule(Plugin plugin, Runnable runnable, boolean sync, long delay, long period) {
+        if (!plugin.isEnabled()) {
+            throw new IllegalPluginAccessException("Plugin attempted to register task while disabled");
+        }
+        Task task = new Task(plugin, runnable, sync, delay, period);
+        submitted.add(task);
+        return task;
+    }
+
+    private void cancel(Predicate<Task> filter) {
+        for (Task task : submitted) {
+            if (filter.test(task)) {
+                task.cancelled = true;
+            }
+        }
+        for (Task task : due) {
+            if (filter.test(task)) {
+                task.cancelled = true;
+            }
+        }
+    }
+
+    /** Tasks submitted or waiting for their tick, cancelled ones excluded. */
+    public int getPendingCount() {
+        int pending = 0;
+        for (Task task : submitted) {
+            pending += task.cancelled ? 0 : 1;
+        }
+        for (Task task : due) {
+            pending += task.cancelled ? 0 : 1;
+        }
+        return pending;
+    }
+
+    void tick() {
+        long tick = ++currentTick;
+        for (Task task; (task = submitted.poll()) != null; ) {
+            due.add(task);
+        }
+        // Tasks submitted while this tick runs wait for the next one, as on a server
+        while (!due.isEmpty() && due.peek().nextRun <= tick) {
+            Task task = due.poll();
+            if (task.cancelled) {
+                continue;
+            }
+            if (task.sync) {
+                run(task);
+            } else {
+                async.execute(() -> runAsync(task));
+            }
+            if (task.period > 0L && !task.cancelled) {
+                task.nextRun = tick + task.period;
+                submitted.add(task);
+            }
+        }
+    }
+
+    private void run(Task task) {
+        StubServer.Probe probe = server.probe();
+        probe.enter();
+        try {
+            task.runnable.run();
+        } catch (RuntimeException | LinkageError e) {
+            server.fail("task " + task.runnable.getClass().getName(), e);
+        } finally {
+            probe.exit();
+        }
+    }
+
+    private void runAsync(Task task) {
+        try {
+            task.runnable.run();
+        } catch (RuntimeException | LinkageError e) {
+            server.fail("async task " + task.runnable.getClass().getName(), e);
+        }
+    }
+
+    /** Stops the async pool, waiting for running tasks; queued sync tasks are dropped. */
+    public void shutdown(long timeoutMillis) throws InterruptedException {
+        async.shutdown();
+        async.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        submitted.clear();
+        due.clear();
+    }
+}
@@ -0,0 +1,369 @@
+package com.example.teleportplugin.testkit;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.UnsafeValues;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.ConsoleCommandSender;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.entity.Player;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.plugin.Plugin;
+
+import java.lang.reflect.Constructor;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A stub {@link Server} installed as the Bukkit singleton, so API classes that
+ * reach for {@code Bukkit.getServer()} work offline. On its own it only
+ * answers what item stacks need; a harness that runs a whole plugin adds
+ * worlds and players, ticks the {@link StubScheduler} and fires events through
+ * the {@link StubPluginManager}. Everything runs on the thread that calls
+ * {@link #tick()}, which is the server's main thread.
+ */
+public final class StubServer {
+    public static final String VERSION = "1.21-R0.1-SNAPSHOT";
+    // 1.21
+    static final int DATA_VERSION = 3953;
+
+    private static StubServer instance;
+
+    private final Server server;
+    private final Logger logger = Logger.getLogger("StubServer");
+    private final StubScheduler scheduler;
+    private final StubPluginManager pluginManager;
+    private final LinkedHashMap<String, StubWorld> worlds = new LinkedHashMap<>();
+    private final LinkedHashMap<UUID, StubPlayer> players = new LinkedHashMap<>();
+    private final Collection<Player> onlinePlayers;
+    private final HashMap<String, PluginCommand> commands = new HashMap<>();
+    private final TreeMap<String, Integer> failures = new TreeMap<>();
+    private volatile Thread mainThread;
+    private Probe probe = Probe.NONE;
+
+    /**
+     * Told when the main thread enters and leaves plugin code: a task, an event
+     * dispatch or a command. Calls nest when plugin code fires an event of its
+     * own, such as the close event of a window it closes.
+     */
+    public interface Probe {
+        Probe NONE = new Probe() {
+            @Override
+            public void enter() {
+            }
+
+            @Override
+            public void exit() {
+            }
+        };
+
+        void enter();
+
+        void exit();
+    }
+
+    private StubServer() {
+        this.scheduler = new StubScheduler(this);
+        this.pluginManager = new StubPluginManager(this);
+        this.onlinePlayers = new AbstractCollection<Player>() {
+            @Override
+            public Iterator<Player> iterator() {
+                Iterator<StubPlayer> iterator = players.values().iterator();
+                return new Iterator<Player>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Player next() {
+                        return iterator.next().getPlayer();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return players.size();
+            }
+        };
+        UnsafeValues unsafe = Stubs.create(UnsafeValues.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getDataVersion":
+                    return DATA_VERSION;
+                case "getMaterial":
+                    return args.length == 2 && args[0] instanceof String ? Material.getMaterial((String) args[0]) : Stubs.DEFAULT;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+        ConsoleCommandSender console = Stubs.create(ConsoleCommandSender.class, (method, args) -> {
+            switch (method.getName()) {
+                case "sendMessage":
+                    if (args.length == 1 && args[0] instanceof String) {
+                        logger.info((String) args[0]);
+                    }
+                    return null;
+                case "getName":
+                    return "CONSOLE";
+                case "hasPermission":
+                case "isOp":
+                    return true;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+        this.server = Stubs.create(Server.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getLogger":
+                    return logger;
+                case "getName":
+                    return "StubServer";
+                case "getVersion":
+                case "getBukkitVersion":
+                    return VERSION;
+                case "getItemFactory":
+                    return StubItems.FACTORY;
+                case "getUnsafe":
+                    return unsafe;
+                case "isPrimaryThread":
+                    return isPrimaryThread();
+                case "getScheduler":
+                    return scheduler.getScheduler();
+                case "getPluginManager":
+                    return pluginManager.getPluginManager();
+                case "getConsoleSender":
+                    return console;
+                case "getPluginCommand":
+                    return commands.get(((String) args[0]).toLowerCase(Locale.ROOT));
+                case "dispatchCommand":
+                    return dispatchCommand((CommandSender) args[0], (String) args[1]);
+                case "getWorlds": {
+                    List<World> list = new ArrayList<>();
+                    for (StubWorld world : worlds.values()) {
+                        list.add(world.getWorld());
+                    }
+                    return list;
+                }
+                case "getWorld":
+                    return findWorld(args[0]);
+                case "getOnlinePlayers":
+                    return Collections.unmodifiableCollection(onlinePlayers);
+                case "getPlayer":
+                    return args[0] instanceof UUID ? playerOf(players.get(args[0])) : findPlayer((String) args[0], false);
+                case "getPlayerExact":
+                    return findPlayer((String) args[0], true);
+                case "createInventory":
+                    return createInventory(args);
+                case "createBlockData":
+                    return args[0] instanceof Material ? StubWorld.blockData((Material) args[0])
+                        : parseBlockData((String) args[0]);
+                case "getMaxPlayers":
+                    return Integer.MAX_VALUE;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+    }
+
+    /** The JVM-wide stub, installed as the Bukkit server on first use. */
+    public static synchronized StubServer get() {
+        if (instance == null) {
+            instance = new StubServer();
+            Bukkit.setServer(instance.server);
+        }
+        return instance;
+    }
+
+    /** Installs the stub once per JVM and returns it; Bukkit refuses to replace its server. */
+    public static Server install() {
+        return get().getServer();
+    }
+
+    public Server getServer() {
+        return server;
+    }
+
+    public Logger getLogger() {
+        return logger;
+    }
+
+    public StubScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public StubPluginManager getPluginManager() {
+        return pluginManager;
+    }
+
+    /**
+     * Makes the calling thread the main thread. Until then every thread counts
+     * as the main thread, which is what single-threaded benchmarks want.
+     */
+    public void claimMainThread() {
+        mainThread = Thread.currentThread();
+    }
+
+    public boolean isPrimaryThread() {
+        Thread main = mainThread;
+        return main == null || main == Thread.currentThread();
+    }
+
+    public void setProbe(Probe probe) {
+        this.probe = probe != null ? probe : Probe.NONE;
+    }
+
+    Probe probe() {
+        return probe;
+    }
+
+    /** Advances every world by one tick, then runs the tasks due in it. */
+    public void tick() {
+        for (StubWorld world : worlds.values()) {
+            world.tick();
+        }
+        scheduler.tick();
+    }
+
+    public StubWorld createWorld(String name, long seed, StubChunk.Terrain terrain) {
+        StubWorld world = new StubWorld(this, name, seed, terrain);
+        worlds.put(name, world);
+        return world;
+    }
+
+    public Collection<StubWorld> getWorlds() {
+        return Collections.unmodifiableCollection(worlds.values());
+    }
+
+    private World findWorld(Object key) {
+        for (StubWorld world : worlds.values()) {
+            if (key.equals(world.getName()) || key.equals(world.getUID())) {
+                return world.getWorld();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Registers the plugin's commands from its description, the way the server
+     * does when it loads a plugin; until a plugin sets an executor, the plugin
+     * itself handles them.
+     */
+    public void registerCommands(Plugin plugin) {
+        try {
+            Constructor<PluginCommand> constructor = PluginCommand.class.getDeclaredConstructor(String.class, Plugin.class);
+            constructor.setAccessible(true);
+            for (String name : plugin.getDescription().getCommands().keySet()) {
+                commands.put(name.toLowerCase(Locale.ROOT), constructor.newInstance(name, plugin));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create plugin commands", e);
+        }
+    }
+
+    private boolean dispatchCommand(CommandSender sender, String line) {
+        String[] parts = line.trim().split(" +");
+        PluginCommand command = commands.get(parts[0].toLowerCase(Locale.ROOT));
+        if (command == null) {
+            return false;
+        }
+        Probe current = probe;
+        current.enter();
+        try {
+            command.execute(sender, parts[0], Arrays.copyOfRange(parts, 1, parts.length));
+        } catch (RuntimeException e) {
+            fail("command:" + command.getName(), e);
+        } finally {
+            current.exit();
+        }
+        return true;
+    }
+
+    /** Joins a new player: online at once, then PlayerJoinEvent. */
+    public StubPlayer join(String name, UUID uuid, StubWorld world) {
+        StubPlayer player = new StubPlayer(this, name, uuid, world.getSpawnLocation());
+        players.put(uuid, player);
+        pluginManager.callEvent(new PlayerJoinEvent(player.getPlayer(), name + " joined the game"));
+        return player;
+    }
+
+    /**
+     * Disconnects a player the way the server does: the open window is closed,
+     * PlayerQuitEvent fires while the player is still online, then it is gone.
+     */
+    public void quit(StubPlayer player) {
+        player.getPlayer().closeInventory();
+        pluginManager.callEvent(new PlayerQuitEvent(player.getPlayer(), player.getName() + " left the game"));
+        players.remove(player.getUniqueId());
+        player.setOnline(false);
+    }
+
+    public Collection<StubPlayer> getPlayers() {
+        return Collections.unmodifiableCollection(players.values());
+    }
+
+    public StubPlayer getPlayer(UUID uuid) {
+        return players.get(uuid);
+    }
+
+    private static Player playerOf(StubPlayer player) {
+        return player != null ? player.getPlayer() : null;
+    }
+
+    // Bukkit.getPlayer(String) takes a unique name prefix too
+    private Player findPlayer(String name, boolean exact) {
+        StubPlayer match = null;
+        for (StubPlayer player : players.values()) {
+            if (player.getName().equalsIgnoreCase(name)) {
+                return player.getPlayer();
+            }
+            if (!exact && player.getName().toLowerCase(Locale.ROOT).startsWith(name.toLowerCase(Locale.ROOT))) {
+                match = match == null ? player : match;
+            }
+        }
+        return playerOf(match);
+    }
+
+    private Object createInventory(Object[] args) {
+        InventoryHolder holder = (InventoryHolder) args[0];
+        String title = args.length > 2 ? (String) args[2] : null;
+        if (args[1] instanceof InventoryType) {
+            InventoryType type = (InventoryType) args[1];
+            return StubInventory.create(type.getDefaultSize(), type, holder, title != null ? title : type.getDefaultTitle());
+        }
+        return StubInventory.create((Integer) args[1], InventoryType.CHEST, holder, title != null ? title : "Chest");
+    }
+
+    // "minecraft:chest[facing=north]" and the like; only the material is kept
+    private static BlockData parseBlockData(String data) {
+        int state = data.indexOf('[');
+        Material material = Material.matchMaterial(state >= 0 ? data.substring(0, state) : data);
+        if (material == null) {
+            throw new IllegalArgumentException("Could not parse data: " + data);
+        }
+        return StubWorld.blockData(material);
+    }
+
+    /**
+     * Records an exception thrown by plugin code instead of letting it end the
+     * run; the first one from each place is logged with its stack trace.
+     */
+    synchronized void fail(String where, Throwable error) {
+        Integer count = failures.merge(where, 1, Integer::sum);
+        if (count == 1) {
+            logger.log(Level.SEVERE, "Plugin code failed in " + where, error);
+        }
+    }
+
+    /** Exceptions thrown by plugin code so far, by where they were thrown. */
+    public synchronized Map<String, Integer> getFailures() {
+        return new TreeMap<>(failures);
+    }
+}
@@ -0,0 +1,372 @@
+package com.example.teleportplugin.testkit;
+
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Chest;
+import org.bukkit.block.Skull;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.Player;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link World} whose blocks come from a {@link StubChunk.Terrain} with the
+ * blocks plugin code placed laid over it. Every chunk counts as loaded, time
+ * advances one tick per server tick, and chests keep their inventory. Chunk
+ * snapshots read the world live rather than copying it, so capturing one costs
+ * nothing; changes made after the capture show through, which a search running
+ * for a moment on another thread does not notice.
+ */
+public final class StubWorld {
+    private static final int MIN_Y = -64;
+    private static final int MAX_Y = 320;
+
+    private final StubServer server;
+    private final String name;
+    private final UUID uid;
+    private final StubChunk.Terrain terrain;
+    private final World world;
+    // Blocks set by plugin code, read by snapshots on other threads
+    private final ConcurrentHashMap<Long, Material> placed = new ConcurrentHashMap<>();
+    private final HashMap<Long, Inventory> containers = new HashMap<>();
+    private final HashMap<Long, Integer> tickets = new HashMap<>();
+    private long fullTime;
+    private boolean storm;
+    private boolean thundering;
+    private long droppedItems;
+
+    StubWorld(StubServer server, String name, long seed, StubChunk.Terrain terrain) {
+        this.server = server;
+        this.name = name;
+        this.uid = new UUID(seed, name.hashCode());
+        this.terrain = terrain;
+        this.world = Stubs.create(World.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getName":
+                    return name;
+                case "getUID":
+                    return uid;
+                case "getEnvironment":
+                    return World.Environment.NORMAL;
+                case "getMinHeight":
+                    return MIN_Y;
+                case "getMaxHeight":
+                    return MAX_Y;
+                case "getSeaLevel":
+                    return 63;
+                case "isChunkLoaded":
+                case "isChunkGenerated":
+                case "loadChunk":
+                    return true;
+                case "getChunkAt":
+                    if (args[0] instanceof Location) {
+                        Location location = (Location) args[0];
+                        return chunk(location.getBlockX() >> 4, location.getBlockZ() >> 4);
+                    }
+                    if (args[0] instanceof Block) {
+                        Block block = (Block) args[0];
+                        return chunk(block.getX() >> 4, block.getZ() >> 4);
+                    }
+                    return chunk((Integer) args[0], (Integer) args[1]);
+                case "getLoadedChunks":
+                    return new Chunk[0];
+                case "getBlockAt":
+                    if (args[0] instanceof Location) {
+                        Location location = (Location) args[0];
+                        return block(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+                    }
+                    return block((Integer) args[0], (Integer) args[1], (Integer) args[2]);
+                case "getHighestBlockYAt":
+                    if (args[0] instanceof Location) {
+                        Location location = (Location) args[0];
+                        return highestY(location.getBlockX(), location.getBlockZ());
+                    }
+                    return highestY((Integer) args[0], (Integer) args[1]);
+                case "getSpawnLocation":
+                    return getSpawnLocation();
+                case "getTime":
+                    return fullTime % 24000L;
+                case "setTime": {
+                    long margin = ((Long) args[0] - fullTime) % 24000L;
+                    fullTime += margin < 0 ? margin + 24000L : margin;
+                    return null;
+                }
+                case "getFullTime":
+                case "getGameTime":
+                    return fullTime;
+                case "setFullTime":
+                    fullTime = (Long) args[0];
+                    return null;
+                case "hasStorm":
+                    return storm;
+                case "setStorm":
+                    storm = (Boolean) args[0];
+                    return null;
+                case "isThundering":
+                    return thundering;
+                case "setThundering":
+                    thundering = (Boolean) args[0];
+                    return null;
+                case "isClearWeather":
+                    return !storm && !thundering;
+                case "getPlayers":
+                    return getPlayers();
+                case "addPluginChunkTicket":
+                    tickets.merge(chunkKey((Integer) args[0], (Integer) args[1]), 1, Integer::sum);
+                    return true;
+                case "removePluginChunkTicket":
+                    tickets.computeIfPresent(chunkKey((Integer) args[0], (Integer) args[1]), (k, n) -> n > 1 ? n - 1 : null);
+                    return true;
+                case "dropItem":
+                case "dropItemNaturally":
+                    droppedItems++;
+                    return null;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public UUID getUID() {
+        return uid;
+    }
+
+    public Location getSpawnLocation() {
+        return new Location(world, 0.5, highestY(0, 0) + 1, 0.5);
+    }
+
+    public long getFullTime() {
+        return fullTime;
+    }
+
+    public void setFullTime(long fullTime) {
+        this.fullTime = fullTime;
+    }
+
+    void tick() {
+        fullTime++;
+    }
+
+    /** Chunks holding at least one plugin chunk ticket. */
+    public int getTicketedChunks() {
+        return tickets.size();
+    }
+
+    /** Items plugin code dropped on the ground. */
+    public long getDroppedItems() {
+        return droppedItems;
+    }
+
+    /** Blocks plugin code changed from what the terrain has there. */
+    public int getPlacedBlocks() {
+        return placed.size();
+    }
+
+    private List<Player> getPlayers() {
+        List<Player> players = new ArrayList<>();
+        for (StubPlayer player : server.getPlayers()) {
+            if (player.getLocation().getWorld() == world) {
+                players.add(player.getPlayer());
+            }
+        }
+        return players;
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return (long) chunkX << 32 | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    private static long blockKey(int x, int y, int z) {
+        return ((long) x & 0x3FFFFFFL) << 38 | ((long) z & 0x3FFFFFFL) << 12 | (y & 0xFFFL);
+    }
+
+    Material typeAt(int x, int y, int z) {
+        if (y < MIN_Y || y >= MAX_Y) {
+            return Material.VOID_AIR;
+        }
+        Material material = placed.get(blockKey(x, y, z));
+        return material != null ? material : terrain.at(x, y, z);
+    }
+
+    private void setType(int x, int y, int z, Material material) {
+        long key = blockKey(x, y, z);
+        if (material == terrain.at(x, y, z)) {
+            placed.remove(key);
+        } else {
+            placed.put(key, material);
+        }
+        if (material != Material.CHEST) {
+            containers.remove(key);
+        }
+    }
+
+    private int highestY(int x, int z) {
+        for (int y = MAX_Y - 1; y > MIN_Y; y--) {
+            if (!typeAt(x, y, z).isAir()) {
+                return y;
+            }
+        }
+        return MIN_Y;
+    }
+
+    static BlockData blockData(Material material) {
+        return Stubs.create(BlockData.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getMaterial":
+                    return material;
+                case "getAsString":
+                    return material.getKey().toString();
+                case "clone":
+                    return blockData(material);
+                case "matches":
+                    return args[0] instanceof BlockData && ((BlockData) args[0]).getMaterial() == material;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+    }
+
+    private Chunk chunk(int chunkX, int chunkZ) {
+        return Stubs.create(Chunk.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getX":
+                    return chunkX;
+                case "getZ":
+                    return chunkZ;
+                case "getWorld":
+                    return world;
+                case "isLoaded":
+                case "load":
+                    return true;
+                case "getBlock":
+                    return block(chunkX << 4 | (Integer) args[0], (Integer) args[1], chunkZ << 4 | (Integer) args[2]);
+                case "getChunkSnapshot":
+                    return snapshot(chunkX, chunkZ);
+                case "addPluginChunkTicket":
+                    tickets.merge(chunkKey(chunkX, chunkZ), 1, Integer::sum);
+                    return true;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+    }
+
+    private ChunkSnapshot snapshot(int chunkX, int chunkZ) {
+        return Stubs.create(ChunkSnapshot.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getBlockType":
+                    return typeAt(chunkX << 4 | (Integer) args[0], (Integer) args[1], chunkZ << 4 | (Integer) args[2]);
+                case "getHighestBlockYAt":
+                    return highestY(chunkX << 4 | (Integer) args[0], chunkZ << 4 | (Integer) args[1]);
+                case "getX":
+                    return chunkX;
+                case "getZ":
+                    return chunkZ;
+                case "getWorldName":
+                    return name;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+    }
+
+    Block block(int x, int y, int z) {
+        return Stubs.create(Block.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getX":
+                    return x;
+                case "getY":
+                    return y;
+                case "getZ":
+                    return z;
+                case "getWorld":
+                    return world;
+                case "getLocation":
+                    return new Location(world, x, y, z);
+                case "getChunk":
+                    return chunk(x >> 4, z >> 4);
+                case "getType":
+                    return typeAt(x, y, z);
+                case "getBlockData":
+                    return blockData(typeAt(x, y, z));
+                case "setType":
+                    setType(x, y, z, (Material) args[0]);
+                    return null;
+                case "setBlockData":
+                    setType(x, y, z, ((BlockData) args[0]).getMaterial());
+                    return null;
+                case "isEmpty":
+                    return typeAt(x, y, z).isAir();
+                case "isLiquid": {
+                    Material type = typeAt(x, y, z);
+                    return type == Material.WATER || type == Material.LAVA;
+                }
+                case "getRelative":
+                    if (args[0] instanceof BlockFace) {
+                        BlockFace face = (BlockFace) args[0];
+                        int distance = args.length > 1 ? (Integer) args[1] : 1;
+                        return block(x + face.getModX() * distance, y + face.getModY() * distance, z + face.getModZ() * distance);
+                    }
+                    return block(x + (Integer) args[0], y + (Integer) args[1], z + (Integer) args[2]);
+                case "getState":
+                    return state(x, y, z);
+                case "breakNaturally":
+                    setType(x, y, z, Material.AIR);
+                    return true;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+    }
+
+    // Chests get a Chest state over the inventory kept for their position, heads a Skull state
+    private BlockState state(int x, int y, int z) {
+        Material type = typeAt(x, y, z);
+        Class<? extends BlockState> kind = type == Material.CHEST ? Chest.class
+            : type == Material.PLAYER_HEAD || type == Material.PLAYER_WALL_HEAD ? Skull.class : BlockState.class;
+        return Stubs.create(kind, (method, args) -> {
+            switch (method.getName()) {
+                case "getType":
+                    return type;
+                case "getBlock":
+                    return block(x, y, z);
+                case "getLocation":
+                    return new Location(world, x, y, z);
+                case "getWorld":
+                    return world;
+                case "getX":
+                    return x;
+                case "getY":
+                    return y;
+                case "getZ":
+                    return z;
+                case "getInventory":
+                case "getBlockInventory":
+                case "getSnapshotInventory":
+                    return containers.computeIfAbsent(blockKey(x, y, z),
+                        k -> StubInventory.create(27, InventoryType.CHEST, null, "Chest"));
+                case "update":
+                    return true;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+    }
+}
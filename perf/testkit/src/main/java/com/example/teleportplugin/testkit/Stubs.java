@@ -0,0 +1,71 @@
+package com.example.teleportplugin.testkit;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Interface stubs built on {@link Proxy}. Only the methods a harness needs
+ * get an answer; every other method returns null, zero or false. Bukkit's
+ * interfaces have hundreds of methods that change between releases, so a
+ * proxy keeps the stubs compiling against any 1.21 API build.
+ */
+public final class Stubs {
+    /** Returned by an {@link Answer} to fall back to the default value. */
+    public static final Object DEFAULT = new Object();
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private Stubs() {
+    }
+
+    public interface Answer {
+        Object answer(Method method, Object[] args) throws Throwable;
+    }
+
+    public static <T> T create(Class<T> type, Answer answer) {
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (self, method, args) -> {
+            Object[] arguments = args != null ? args : NO_ARGS;
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return self == arguments[0];
+                    case "hashCode":
+                        return System.identityHashCode(self);
+                    default:
+                        return type.getSimpleName() + " stub";
+                }
+            }
+            Object result = answer.answer(method, arguments);
+            return result != DEFAULT ? result : defaultValue(method.getReturnType());
+        });
+        return type.cast(proxy);
+    }
+
+    static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == float.class) {
+            return 0.0f;
+        }
+        if (type == double.class) {
+            return 0.0;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        return 0;
+    }
+}
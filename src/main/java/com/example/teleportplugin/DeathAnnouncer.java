@@ -0,0 +1,238 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.scoreboard.Team;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Announces where players died. Who hears about a death is set by
+ * {@code death-announcements.scope}: everyone, the same world, players within
+ * a radius, or the victim's scoreboard team; players who opted out with
+ * /deathmessages are skipped, the victim always gets their own coordinates.
+ * The message is rendered from the template once per death, and delivery
+ * shares a budget of {@code messages-per-tick} messages, so a burst of deaths
+ * is spread over the following ticks instead of flooding the network in one.
+ * Main thread only.
+ */
+public class DeathAnnouncer {
+    enum Scope { GLOBAL, WORLD, RADIUS, TEAM, NONE }
+
+    private final TeleportPlugin plugin;
+    private final IoThread io;
+    private final File optOutFile;
+    private final Scope scope;
+    private final double radiusSquared;
+    private final String template;
+    private final int messagesPerTick;
+    private final long maxDelayTicks;
+    private final ArrayDeque<Delivery> queue = new ArrayDeque<>();
+    private final Set<UUID> optedOut = new HashSet<>();
+    private int sentThisTick;
+    private long tick;
+    private BukkitTask tickTask;
+
+    public DeathAnnouncer(TeleportPlugin plugin, IoThread io) {
+        this.plugin = plugin;
+        this.io = io;
+        this.optOutFile = new File(plugin.getDataFolder(), "death-opt-out.txt");
+        this.scope = parseScope(plugin);
+        double radius = plugin.getConfig().getDouble("death-announcements.radius", 200.0);
+        this.radiusSquared = radius * radius;
+        this.template = ChatColor.translateAlternateColorCodes('&', plugin.getConfig().getString(
+            "death-announcements.message", "&c{player} died at: &eWorld: {world}, X: {x}, Y: {y}, Z: {z}"));
+        this.messagesPerTick = Math.max(1, plugin.getConfig().getInt("death-announcements.messages-per-tick", 200));
+        this.maxDelayTicks = Math.max(1L, plugin.getConfig().getLong("death-announcements.max-delay-ticks", 100L));
+    }
+
+    private static Scope parseScope(TeleportPlugin plugin) {
+        String name = plugin.getConfig().getString("death-announcements.scope", "global");
+        try {
+            return Scope.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            plugin.getLogger().warning("Unknown death-announcements.scope '" + name + "'; using global");
+            return Scope.GLOBAL;
+        }
+    }
+
+    public void start() {
+        if (optOutFile.isFile()) {
+            try {
+                List<String> lines = Files.readAllLines(optOutFile.toPath(), StandardCharsets.UTF_8);
+                for (int i = 0; i < lines.size(); i++) {
+                    String line = lines.get(i).trim();
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    // One bad line must not opt everyone after it back in on the next save
+                    try {
+                        optedOut.add(UUID.fromString(line));
+                    } catch (IllegalArgumentException e) {
+                        plugin.getLogger().warning("Skipping invalid UUID on line " + (i + 1) + " of " + optOutFile.getName() + ": " + line);
+                    }
+                }
+            } catch (IOException e) {
+                plugin.getLogger().warning("Could not read " + optOutFile.getName() + ": " + e.getMessage());
+            }
+        }
+        tickTask = plugin.getServer().getScheduler().runTaskTimer(plugin, plugin.getMetrics().timed("death-announcer", this::tick), 1L, 1L);
+    }
+
+    // Queued announcements are dropped; they would only arrive as stale news after a restart
+    public void shutdown() {
+        if (tickTask != null) {
+            tickTask.cancel();
+            tickTask = null;
+        }
+        queue.clear();
+    }
+
+    /** Renders the announcement for this death and queues it for everyone in scope. */
+    public void announce(Player victim, Location location, String deathMessage) {
+        String message = template
+            .replace("{player}", victim.getName())
+            .replace("{world}", location.getWorld().getName())
+            .replace("{x}", Long.toString(Math.round(location.getX())))
+            .replace("{y}", Long.toString(Math.round(location.getY())))
+            .replace("{z}", Long.toString(Math.round(location.getZ())))
+            .replace("{cause}", deathMessage != null ? deathMessage : "");
+
+        // broadcastMessage used to put this in the console too
+        plugin.getLogger().info(ChatColor.stripColor(message));
+
+        List<UUID> recipients = new ArrayList<>();
+        recipients.add(victim.getUniqueId());
+        for (Player player : audience(victim, location)) {
+            if (player != victim && !optedOut.contains(player.getUniqueId())) {
+                recipients.add(player.getUniqueId());
+            }
+        }
+        Delivery delivery = new Delivery(message, recipients.toArray(new UUID[0]), tick);
+        if (queue.isEmpty()) {
+            send(delivery);
+            if (delivery.next < delivery.recipients.length) {
+                queue.add(delivery);
+            }
+        } else {
+            queue.add(delivery);
+        }
+    }
+
+    private Collection<? extends Player> audience(Player victim, Location location) {
+        switch (scope) {
+            case GLOBAL:
+                return Bukkit.getOnlinePlayers();
+            case WORLD:
+                return location.getWorld().getPlayers();
+            case RADIUS: {
+                List<Player> near = new ArrayList<>();
+                World world = location.getWorld();
+                for (Player player : world.getPlayers()) {
+                    if (player.getLocation().distanceSquared(location) <= radiusSquared) {
+                        near.add(player);
+                    }
+                }
+                return near;
+            }
+            case TEAM: {
+                Team team = Bukkit.getScoreboardManager().getMainScoreboard().getEntryTeam(victim.getName());
+                if (team == null) {
+                    return Collections.emptyList();
+                }
+                List<Player> members = new ArrayList<>();
+                for (String entry : team.getEntries()) {
+                    Player player = Bukkit.getPlayerExact(entry);
+                    if (player != null) {
+                        members.add(player);
+                    }
+                }
+                return members;
+            }
+            default:
+                return Collections.emptyList();
+        }
+    }
+
+    private void tick() {
+        tick++;
+        sentThisTick = 0;
+        while (!queue.isEmpty() && sentThisTick < messagesPerTick) {
+            Delivery delivery = queue.peek();
+            // Far behind: newer deaths matter more than finishing an old one
+            if (tick - delivery.queuedAt > maxDelayTicks) {
+                queue.poll();
+                continue;
+            }
+            send(delivery);
+            if (delivery.next >= delivery.recipients.length) {
+                queue.poll();
+            }
+        }
+    }
+
+    private void send(Delivery delivery) {
+        int end = Math.min(delivery.recipients.length, delivery.next + messagesPerTick - sentThisTick);
+        for (; delivery.next < end; delivery.next++) {
+            Player player = Bukkit.getPlayer(delivery.recipients[delivery.next]);
+            if (player != null) {
+                player.sendMessage(delivery.message);
+            }
+            sentThisTick++;
+        }
+    }
+
+    /** /deathmessages; returns true if the player now receives announcements. */
+    public boolean toggle(UUID player) {
+        boolean enabled = optedOut.remove(player);
+        if (!enabled) {
+            optedOut.add(player);
+        }
+        saveOptOuts();
+        return enabled;
+    }
+
+    private void saveOptOuts() {
+        List<String> lines = new ArrayList<>(optedOut.size());
+        for (UUID id : optedOut) {
+            lines.add(id.toString());
+        }
+        io.execute(() -> {
+            File temp = new File(optOutFile.getParentFile(), optOutFile.getName() + ".tmp");
+            try {
+                Files.createDirectories(optOutFile.getParentFile().toPath());
+                Files.write(temp.toPath(), lines, StandardCharsets.UTF_8);
+                try {
+                    Files.move(temp.toPath(), optOutFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp.toPath(), optOutFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                plugin.getLogger().warning("Could not save " + optOutFile.getName() + ": " + e.getMessage());
+            }
+        });
+    }
+
+    private static class Delivery {
+        final String message;
+        final UUID[] recipients;
+        final long queuedAt;
+        int next;
+
+        Delivery(String message, UUID[] recipients, long queuedAt) {
+            this.message = message;
+            this.recipients = recipients;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
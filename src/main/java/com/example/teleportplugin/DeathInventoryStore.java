@@ -0,0 +1,280 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Items of virtual graves, kept on disk as one gzip-compressed blob per grave
+ * under graves/items/. Nothing is held in memory until the owner opens the
+ * grave; the blob is then read on the I/O thread and shown as a chest GUI
+ * shared by everyone viewing that grave. What is left when the last viewer
+ * closes it is written back. Main thread only, apart from file access.
+ */
+public class DeathInventoryStore {
+    private static final int MAGIC = 0x54504449; // "TPDI"
+    private static final int MAX_GUI_SIZE = 54;
+
+    private final TeleportPlugin plugin;
+    private final IoThread io;
+    private final File directory;
+    private final HashMap<UUID, GraveView> open = new HashMap<>();
+    private final HashSet<UUID> loading = new HashSet<>();
+
+    public DeathInventoryStore(TeleportPlugin plugin, IoThread io) {
+        this.plugin = plugin;
+        this.io = io;
+        this.directory = new File(new File(plugin.getDataFolder(), "graves"), "items");
+    }
+
+    /** Writes the grave's items; serialized here, compressed bytes written on the I/O thread. */
+    public void save(UUID graveId, List<ItemStack> items) throws IOException {
+        byte[] blob = serialize(items);
+        File file = blobFile(graveId);
+        io.execute(() -> {
+            try {
+                write(file, blob);
+            } catch (IOException e) {
+                plugin.getLogger().warning("Could not save grave items to " + file + ": " + e.getMessage());
+            }
+        });
+    }
+
+    public void delete(UUID graveId) {
+        File file = blobFile(graveId);
+        io.execute(() -> {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                plugin.getLogger().warning("Could not delete " + file + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /** Shows the grave's items to the player, reading them from disk unless someone already has them open. */
+    public void open(Player player, Grave grave) {
+        GraveView view = open.get(grave.id);
+        if (view != null) {
+            player.openInventory(view.inventory);
+            return;
+        }
+        if (!loading.add(grave.id)) {
+            return; // already on its way
+        }
+        UUID playerId = player.getUniqueId();
+        read(grave.id, items -> {
+            loading.remove(grave.id);
+            Player viewer = Bukkit.getPlayer(playerId);
+            // The grave may have expired while the blob was being read
+            if (grave.removed || viewer == null) {
+                return;
+            }
+            GraveView created = new GraveView(grave, items);
+            open.put(grave.id, created);
+            viewer.openInventory(created.inventory);
+        }, () -> {
+            loading.remove(grave.id);
+            Player viewer = Bukkit.getPlayer(playerId);
+            if (viewer != null) {
+                viewer.sendMessage(ChatColor.RED + "Could not open this grave, please try again later.");
+            }
+        });
+    }
+
+    /**
+     * Called when a player closes a grave GUI. Once the last viewer has left,
+     * the remaining items are written back; returns the grave if it is now empty.
+     */
+    public Grave close(Inventory inventory) {
+        if (!(inventory.getHolder() instanceof GraveView)) {
+            return null;
+        }
+        GraveView view = (GraveView) inventory.getHolder();
+        // The closing player is still counted as a viewer during the close event
+        if (open.get(view.grave.id) != view || inventory.getViewers().size() > 1) {
+            return null;
+        }
+        open.remove(view.grave.id);
+        List<ItemStack> remaining = view.remaining();
+        if (remaining.isEmpty()) {
+            delete(view.grave.id);
+            return view.grave;
+        }
+        try {
+            save(view.grave.id, remaining);
+        } catch (IOException e) {
+            plugin.getLogger().warning("Could not save grave " + view.grave.id + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /** Expiry: drops the grave's items at the location and deletes the blob. */
+    public void dropAndDelete(Grave grave, Location location) {
+        GraveView view = open.remove(grave.id);
+        if (view != null) {
+            List<ItemStack> items = view.remaining();
+            view.inventory.clear();
+            closeViewers(view);
+            drop(items, location);
+            delete(grave.id);
+            return;
+        }
+        read(grave.id, items -> drop(items, location), () -> { });
+        delete(grave.id);
+    }
+
+    /** Expiry without drops: closes any open GUI and deletes the blob. */
+    public void discard(Grave grave) {
+        GraveView view = open.remove(grave.id);
+        if (view != null) {
+            view.inventory.clear();
+            closeViewers(view);
+        }
+        delete(grave.id);
+    }
+
+    // Writes back every open grave; the I/O thread must still be running
+    public void shutdown() {
+        for (GraveView view : new ArrayList<>(open.values())) {
+            open.remove(view.grave.id);
+            List<ItemStack> remaining = view.remaining();
+            view.inventory.clear();
+            closeViewers(view);
+            try {
+                if (remaining.isEmpty()) {
+                    delete(view.grave.id);
+                } else {
+                    save(view.grave.id, remaining);
+                }
+            } catch (IOException e) {
+                plugin.getLogger().warning("Could not save grave " + view.grave.id + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void closeViewers(GraveView view) {
+        for (HumanEntity viewer : new ArrayList<>(view.inventory.getViewers())) {
+            viewer.closeInventory();
+        }
+    }
+
+    private static void drop(List<ItemStack> items, Location location) {
+        for (ItemStack item : items) {
+            location.getWorld().dropItemNaturally(location, item);
+        }
+    }
+
+    // Reads the blob on the I/O thread and deserializes it back on the main thread
+    private void read(UUID graveId, Consumer<List<ItemStack>> callback, Runnable onError) {
+        File file = blobFile(graveId);
+        io.execute(() -> {
+            byte[] blob;
+            try {
+                blob = file.isFile() ? Files.readAllBytes(file.toPath()) : null;
+            } catch (IOException e) {
+                plugin.getLogger().warning("Could not read grave items from " + file + ": " + e.getMessage());
+                if (plugin.isEnabled()) {
+                    plugin.getServer().getScheduler().runTask(plugin, onError);
+                }
+                return;
+            }
+            byte[] result = blob;
+            if (plugin.isEnabled()) {
+                plugin.getServer().getScheduler().runTask(plugin, () -> {
+                    try {
+                        callback.accept(result != null ? deserialize(result) : new ArrayList<>());
+                    } catch (IOException e) {
+                        plugin.getLogger().warning("Corrupt grave items in " + file + ": " + e.getMessage());
+                        onError.run();
+                    }
+                });
+            }
+        });
+    }
+
+    private File blobFile(UUID graveId) {
+        String name = graveId.toString();
+        return new File(new File(directory, name.substring(0, 2)), name + ".bin");
+    }
+
+    private static byte[] serialize(List<ItemStack> items) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        ItemCodec.write(header, items);
+        return bytes.toByteArray();
+    }
+
+    private static List<ItemStack> deserialize(byte[] blob) throws IOException {
+        DataInputStream header = new DataInputStream(new ByteArrayInputStream(blob));
+        if (header.readInt() != MAGIC) {
+            throw new IOException("bad header");
+        }
+        return ItemCodec.read(header);
+    }
+
+    private static void write(File file, byte[] blob) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("could not create " + parent);
+        }
+        File temp = new File(parent, file.getName() + ".tmp");
+        Files.write(temp.toPath(), blob);
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** Holder of a grave GUI; items that do not fit the GUI wait in {@code overflow}. */
+    private static class GraveView implements InventoryHolder {
+        final Grave grave;
+        final Inventory inventory;
+        final List<ItemStack> overflow = new ArrayList<>();
+
+        GraveView(Grave grave, List<ItemStack> items) {
+            this.grave = grave;
+            int size = Math.max(9, Math.min(MAX_GUI_SIZE, (items.size() + 8) / 9 * 9));
+            this.inventory = Bukkit.createInventory(this, size, ChatColor.DARK_GRAY + grave.ownerName + "'s grave");
+            for (int i = 0; i < items.size(); i++) {
+                if (i < size) {
+                    inventory.setItem(i, items.get(i));
+                } else {
+                    overflow.add(items.get(i));
+                }
+            }
+        }
+
+        // Everything still in the grave, with empty slots dropped
+        List<ItemStack> remaining() {
+            List<ItemStack> items = new ArrayList<>();
+            for (ItemStack item : inventory.getContents()) {
+                if (item != null && item.getType() != Material.AIR) {
+                    items.add(item);
+                }
+            }
+            items.addAll(overflow);
+            overflow.clear();
+            return items;
+        }
+
+        @Override
+        public Inventory getInventory() {
+            return inventory;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.teleportplugin;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+public class DeathMessagesCommand implements CommandExecutor {
+    private final TeleportPlugin plugin;
+
+    public DeathMessagesCommand(TeleportPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (!(sender instanceof Player)) {
+            sender.sendMessage("Only players can use this command.");
+            return true;
+        }
+        Player player = (Player) sender;
+        if (plugin.getDeathAnnouncer().toggle(player.getUniqueId())) {
+            player.sendMessage(ChatColor.GREEN + "You will see death announcements again.");
+        } else {
+            player.sendMessage(ChatColor.YELLOW + "You will no longer see other players' death announcements.");
+        }
+        return true;
+    }
+}
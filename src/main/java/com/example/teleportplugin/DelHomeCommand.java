@@ -0,0 +1,45 @@
+package com.example.teleportplugin;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.bukkit.entity.Player;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+public class DelHomeCommand implements TabExecutor {
+    private final TeleportPlugin plugin;
+    public DelHomeCommand(TeleportPlugin plugin) {
+        this.plugin = plugin;
+    }
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (!(sender instanceof Player)) {
+            sender.sendMessage("Only players can use this command.");
+            return true;
+        }
+        Player player = (Player) sender;
+        UUID uuid = player.getUniqueId();
+        PlayerHomes homes = plugin.getHomeStore().getHomes(uuid);
+        if (homes == null) {
+            player.sendMessage("Your homes are still loading, try again in a moment.");
+            return true;
+        }
+        String name = args.length > 0 ? args[0] : (homes.size() == 1 ? homes.name(0) : HomeStore.DEFAULT_HOME);
+        if (!plugin.getHomeStore().deleteHome(uuid, name)) {
+            player.sendMessage("No home named '" + name + "'.");
+            return true;
+        }
+        player.sendMessage("Home '" + name + "' deleted.");
+        return true;
+    }
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        if (!(sender instanceof Player) || args.length != 1) {
+            return Collections.emptyList();
+        }
+        return plugin.getHomeStore().completeHome(((Player) sender).getUniqueId(), args[0]);
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.teleportplugin;
+
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Shared deadline scheduler for everything in the plugin that expires: one
+ * repeating task advances a single {@link TimingWheel} once per tick, instead
+ * of one Bukkit task per pending request. Main thread only.
+ */
+public class ExpiryService {
+    private final Plugin plugin;
+    private final TimingWheel wheel = new TimingWheel(1024);
+    private BukkitTask tickTask;
+
+    public ExpiryService(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    public void start() {
+        tickTask = plugin.getServer().getScheduler().runTaskTimer(plugin, wheel::advance, 1L, 1L);
+    }
+
+    public void shutdown() {
+        if (tickTask != null) {
+            tickTask.cancel();
+            tickTask = null;
+        }
+    }
+
+    public TimingWheel.Timeout schedule(long delayTicks, Runnable task) {
+        return wheel.schedule(delayTicks, task);
+    }
+
+    // Ticks since the service was created; a cheap monotonic clock for tick-based logic
+    public long currentTick() {
+        return wheel.currentTick();
+    }
+
+    public int pending() {
+        return wheel.size();
+    }
+}
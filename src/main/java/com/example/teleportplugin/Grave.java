@@ -0,0 +1,91 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Material;
+
+import java.util.UUID;
+
+/**
+ * A death chest and the blocks placed around it. Positions are packed into
+ * longs with {@link #pack}; times are epoch milliseconds so they survive
+ * restarts. A virtual grave has no chest: its items are kept by the
+ * {@link DeathInventoryStore} and x, y, z is the gravestone base.
+ */
+public class Grave {
+    public final UUID id;
+    public final UUID owner;
+    public final String ownerName;
+    public final String world;
+    public final int x, y, z;
+    public final long createdAt;
+    public final long unlockAt;
+    public final long expiresAt;
+    public final boolean virtual;
+    // Every block the grave placed, including the chest, with the type placed there.
+    // Replaced, never mutated, when the gravestone is attached after placement
+    long[] blocks;
+    Material[] types;
+
+    // Set when the grave is gone; queued references skip it instead of being searched for
+    boolean removed;
+    // Set when the chest was broken; the rest is cleaned up without dropping anything
+    boolean looted;
+
+    public Grave(UUID id, UUID owner, String ownerName, String world, int x, int y, int z,
+                 long createdAt, long unlockAt, long expiresAt, boolean virtual, long[] blocks, Material[] types) {
+        this.id = id;
+        this.owner = owner;
+        this.ownerName = ownerName;
+        this.world = world;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.createdAt = createdAt;
+        this.unlockAt = unlockAt;
+        this.expiresAt = expiresAt;
+        this.virtual = virtual;
+        this.blocks = blocks;
+        this.types = types;
+    }
+
+    public int chunkX() {
+        return x >> 4;
+    }
+
+    public int chunkZ() {
+        return z >> 4;
+    }
+
+    public boolean isChest(int blockX, int blockY, int blockZ) {
+        return !virtual && x == blockX && y == blockY && z == blockZ;
+    }
+
+    public boolean contains(int blockX, int blockY, int blockZ) {
+        long packed = pack(blockX, blockY, blockZ);
+        for (long block : blocks) {
+            if (block == packed) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isLockedFor(UUID player, long now) {
+        return !owner.equals(player) && now < unlockAt;
+    }
+
+    public static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    public static int unpackX(long packed) {
+        return (int) (packed >> 38);
+    }
+
+    public static int unpackY(long packed) {
+        return (int) (packed << 52 >> 52);
+    }
+
+    public static int unpackZ(long packed) {
+        return (int) (packed << 26 >> 38);
+    }
+}
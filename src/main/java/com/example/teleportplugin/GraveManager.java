@@ -0,0 +1,345 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.Chest;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.inventory.EquipmentSlot;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.IllegalPluginAccessException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Places death chests and gravestones and registers them with the
+ * {@link GraveRegistry}. Until a grave unlocks only its owner can open or
+ * break it; explosions never destroy grave blocks.
+ *
+ * With {@code graves.virtual-inventory} no chest is placed: the items go to
+ * the {@link DeathInventoryStore} and right-clicking the gravestone opens
+ * them in a GUI.
+ */
+public class GraveManager implements Listener {
+    private final TeleportPlugin plugin;
+    private final GraveRegistry registry;
+    private final DeathInventoryStore inventories;
+    private final SafeSpotFinder safeSpotFinder;
+    private final StructurePlacer structures;
+    private final StructureTemplate chestTemplate;
+    private final StructureTemplate virtualTemplate;
+    private final boolean virtualInventories;
+    private final long unlockMillis;
+    private final long expireMillis;
+    // Deaths whose chest spot is still being searched for; their items are dropped if the plugin stops first
+    private final Set<PendingDeath> pendingDeaths = ConcurrentHashMap.newKeySet();
+
+    public GraveManager(TeleportPlugin plugin, GraveRegistry registry, DeathInventoryStore inventories,
+                        SafeSpotFinder safeSpotFinder, StructurePlacer structures) {
+        this.plugin = plugin;
+        this.registry = registry;
+        this.inventories = inventories;
+        this.safeSpotFinder = safeSpotFinder;
+        this.structures = structures;
+        // Placed relative to the chest, and to the gravestone base for virtual graves
+        this.chestTemplate = StructureTemplate.fromConfig("grave",
+            plugin.getConfig().getMapList("structures.grave"), plugin.getLogger());
+        this.virtualTemplate = StructureTemplate.fromConfig("virtual-grave",
+            plugin.getConfig().getMapList("structures.virtual-grave"), plugin.getLogger());
+        this.virtualInventories = plugin.getConfig().getBoolean("graves.virtual-inventory", false);
+        this.unlockMillis = Math.max(0L, plugin.getConfig().getLong("graves.unlock-minutes", 15L)) * 60000L;
+        this.expireMillis = Math.max(1L, plugin.getConfig().getLong("graves.expire-minutes", 120L)) * 60000L;
+    }
+
+    public void createDeathChest(Location location, List<ItemStack> items, Player player) {
+        World world = location.getWorld();
+        UUID playerId = player.getUniqueId();
+        String playerName = player.getName();
+
+        // The drops are already cleared, so from here on the items exist only in this list
+        PendingDeath pending = new PendingDeath(location, items);
+        pendingDeaths.add(pending);
+        try {
+            // Snapshot the surrounding chunks here, search them off the main thread,
+            // then come back to the main thread only to place the chest
+            SafeSpotFinder.SearchArea area = safeSpotFinder.capture(location);
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+                SafeSpotFinder.Spot spot = safeSpotFinder.find(area);
+                if (plugin.isEnabled()) {
+                    try {
+                        plugin.getServer().getScheduler().runTask(plugin, plugin.getMetrics().timed("grave-placement",
+                            () -> placeDeathChest(pending, world, spot, playerId, playerName)));
+                    } catch (IllegalPluginAccessException e) {
+                        // Disabled meanwhile; shutdown() has dropped the items
+                    }
+                }
+            });
+        } catch (Exception e) {
+            plugin.getLogger().warning("Error creating death chest for " + playerId + ": " + e.getMessage());
+            if (pendingDeaths.remove(pending)) {
+                returnItems(player, items, location, "Error creating death chest, your items will be returned.");
+            }
+        }
+    }
+
+    /** Drops the items of deaths whose chest was never placed where those players died. */
+    public void shutdown() {
+        for (PendingDeath pending : pendingDeaths) {
+            for (ItemStack item : pending.items) {
+                if (item != null && item.getType() != Material.AIR) {
+                    pending.location.getWorld().dropItemNaturally(pending.location, item);
+                }
+            }
+        }
+        pendingDeaths.clear();
+    }
+
+    private void placeDeathChest(PendingDeath pending, World world, SafeSpotFinder.Spot spot, UUID playerId,
+                                 String playerName) {
+        // Already dropped by shutdown()
+        if (!pendingDeaths.remove(pending)) {
+            return;
+        }
+        List<ItemStack> items = pending.items;
+        Location deathLocation = pending.location;
+        Player player = Bukkit.getPlayer(playerId);
+        if (spot == null) {
+            // Fell into the void with no ground nearby: straight back to the player, or to the world spawn
+            returnItems(player, items, world.getSpawnLocation(),
+                "You died in the void, so no death chest was placed. Your items will be returned.");
+            return;
+        }
+        try {
+            Block chestBlock = world.getBlockAt(spot.x, spot.y, spot.z);
+            List<Block> placed = new ArrayList<>();
+
+            // The world may have changed during the search; never overwrite a solid block
+            if (chestBlock.getType().isSolid()) {
+                throw new IllegalStateException("no free spot near your death location");
+            }
+            if (spot.needsSupport) {
+                Block below = chestBlock.getRelative(0, -1, 0);
+                if (!below.getType().isSolid()) {
+                    below.setType(Material.COBBLESTONE);
+                    placed.add(below);
+                }
+            }
+
+            if (virtualInventories) {
+                placeVirtualGrave(chestBlock, items, playerId, playerName, placed);
+                if (player != null) {
+                    player.sendMessage(ChatColor.GREEN + "Your items are kept in your grave. Right-click the gravestone to collect them.");
+                    player.sendMessage(ChatColor.GRAY + "Coordinates: X: " + spot.x + ", Y: " + spot.y + ", Z: " + spot.z);
+                }
+                return;
+            }
+
+            // Place chest
+            chestBlock.setType(Material.CHEST);
+            placed.add(chestBlock);
+
+            // Fill chest with items
+            if (chestBlock.getState() instanceof Chest) {
+                Chest chest = (Chest) chestBlock.getState();
+
+                for (ItemStack item : items) {
+                    if (item != null && item.getType() != Material.AIR) {
+                        // A single chest holds 27 stacks; drop the rest next to it instead of losing them
+                        for (ItemStack overflow : chest.getInventory().addItem(item).values()) {
+                            world.dropItemNaturally(chestBlock.getLocation().add(0.5, 1, 0.5), overflow);
+                        }
+                    }
+                }
+
+                chest.update();
+            }
+
+            // The gravestone and decorations are placed in a batch and attached to the grave afterwards
+            Grave grave = registerGrave(UUID.randomUUID(), playerId, playerName, chestBlock, false, placed);
+            placeGravestone(grave, chestBlock, chestTemplate);
+
+            // Send message to player
+            if (player != null) {
+                player.sendMessage(ChatColor.GREEN + "Your items have been stored in a death chest at your death location!");
+                player.sendMessage(ChatColor.GRAY + "Coordinates: X: " + spot.x +
+                                  ", Y: " + spot.y +
+                                  ", Z: " + spot.z);
+                if (unlockMillis > 0L) {
+                    player.sendMessage(ChatColor.GRAY + "Only you can open it for the next " + (unlockMillis / 60000L) + " minutes.");
+                }
+            }
+        } catch (Exception e) {
+            plugin.getLogger().warning("Error creating death chest for " + playerId + ": " + e.getMessage());
+            returnItems(player, items, deathLocation, "Error creating death chest, your items will be returned.");
+        }
+    }
+
+    // The gravestone goes where the chest would have been; the items never touch the world
+    private void placeVirtualGrave(Block baseBlock, List<ItemStack> items, UUID owner, String ownerName,
+                                   List<Block> placed) throws IOException {
+        List<ItemStack> stored = new ArrayList<>(items.size());
+        for (ItemStack item : items) {
+            if (item != null && item.getType() != Material.AIR) {
+                stored.add(item);
+            }
+        }
+        // Saved first so a serialization failure leaves nothing in the world
+        UUID graveId = UUID.randomUUID();
+        if (!stored.isEmpty()) {
+            inventories.save(graveId, stored);
+        }
+        // The base is what players click, so it is placed right away
+        baseBlock.setType(Material.COBBLESTONE, false);
+        placed.add(baseBlock);
+        Grave grave = registerGrave(graveId, owner, ownerName, baseBlock, true, placed);
+        placeGravestone(grave, baseBlock, virtualTemplate);
+    }
+
+    private void placeGravestone(Grave grave, Block origin, StructureTemplate template) {
+        structures.place(origin.getWorld(), origin.getX(), origin.getY(), origin.getZ(), template,
+            blocks -> registry.attach(grave, blocks));
+    }
+
+    private Grave registerGrave(UUID graveId, UUID owner, String ownerName, Block anchor, boolean virtual, List<Block> placed) {
+        long[] blocks = new long[placed.size()];
+        Material[] types = new Material[placed.size()];
+        for (int i = 0; i < placed.size(); i++) {
+            Block block = placed.get(i);
+            blocks[i] = Grave.pack(block.getX(), block.getY(), block.getZ());
+            types[i] = block.getType();
+        }
+        long now = System.currentTimeMillis();
+        Grave grave = new Grave(graveId, owner, ownerName, anchor.getWorld().getName(),
+            anchor.getX(), anchor.getY(), anchor.getZ(), now, now + unlockMillis, now + expireMillis,
+            virtual, blocks, types);
+        registry.add(grave);
+        return grave;
+    }
+
+    private void returnItems(Player player, List<ItemStack> items, Location dropLocation, String notice) {
+        if (items.isEmpty()) {
+            return;
+        }
+        if (player == null) {
+            // Owner left: drop the items where they died (or at the spawn, for the void) rather than losing them
+            for (ItemStack item : items) {
+                if (item != null && item.getType() != Material.AIR) {
+                    dropLocation.getWorld().dropItemNaturally(dropLocation, item);
+                }
+            }
+            return;
+        }
+        player.sendMessage(ChatColor.RED + notice);
+
+        // Fallback: give items back to player when they respawn
+        plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
+            for (ItemStack item : items) {
+                if (item != null && item.getType() != Material.AIR) {
+                    for (ItemStack overflow : player.getInventory().addItem(item).values()) {
+                        player.getWorld().dropItemNaturally(player.getLocation(), overflow);
+                    }
+                }
+            }
+            player.sendMessage(ChatColor.YELLOW + "Your items have been returned to your inventory.");
+        }, 20L);
+    }
+
+    private static class PendingDeath {
+        final Location location;
+        final List<ItemStack> items;
+
+        PendingDeath(Location location, List<ItemStack> items) {
+            this.location = location;
+            this.items = items;
+        }
+    }
+
+    private boolean canAccess(Player player, Grave grave) {
+        return !grave.isLockedFor(player.getUniqueId(), System.currentTimeMillis())
+            || player.hasPermission("teleportplugin.graves.bypass");
+    }
+
+    private static void sendLocked(Player player, Grave grave) {
+        long minutes = Math.max(1L, (grave.unlockAt - System.currentTimeMillis() + 59999L) / 60000L);
+        player.sendMessage(ChatColor.RED + "This is " + grave.ownerName + "'s grave. It unlocks in "
+            + minutes + " minute" + (minutes == 1L ? "" : "s") + ".");
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onPlayerInteract(PlayerInteractEvent event) {
+        Block block = event.getClickedBlock();
+        if (event.getAction() != Action.RIGHT_CLICK_BLOCK || block == null) {
+            return;
+        }
+        Grave grave = registry.getAt(block);
+        if (grave == null || !(grave.virtual || grave.isChest(block.getX(), block.getY(), block.getZ()))) {
+            return;
+        }
+        Player player = event.getPlayer();
+        if (!canAccess(player, grave)) {
+            event.setCancelled(true);
+            sendLocked(player, grave);
+        } else if (grave.virtual) {
+            event.setCancelled(true);
+            // Both hands fire the event; open once
+            if (event.getHand() == EquipmentSlot.HAND) {
+                inventories.open(player, grave);
+            }
+        }
+    }
+
+    @EventHandler
+    public void onInventoryClose(InventoryCloseEvent event) {
+        Grave emptied = inventories.close(event.getInventory());
+        if (emptied != null) {
+            registry.clear(emptied);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        Block block = event.getBlock();
+        Grave grave = registry.getAt(block);
+        if (grave == null) {
+            return;
+        }
+        if (!canAccess(event.getPlayer(), grave)) {
+            event.setCancelled(true);
+            sendLocked(event.getPlayer(), grave);
+        } else if (grave.virtual && !event.getPlayer().hasPermission("teleportplugin.graves.bypass")) {
+            // Breaking the gravestone would strand the items; it goes away once emptied
+            event.setCancelled(true);
+            event.getPlayer().sendMessage(ChatColor.YELLOW + "Right-click the grave to collect the items.");
+        } else if (grave.isChest(block.getX(), block.getY(), block.getZ())) {
+            // The chest drops its contents as usual; the gravestone is cleared away over the next ticks
+            registry.clearLooted(grave);
+        }
+    }
+
+    @EventHandler(ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        event.blockList().removeIf(block -> registry.getAt(block) != null);
+    }
+
+    @EventHandler(ignoreCancelled = true)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        event.blockList().removeIf(block -> registry.getAt(block) != null);
+    }
+}
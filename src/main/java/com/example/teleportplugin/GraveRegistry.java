@@ -0,0 +1,437 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.Chest;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Every grave the plugin has placed, indexed by world and by the packed key of
+ * each chunk its blocks are in. Graves are stored in one file per 32x32-chunk
+ * region, that of their anchor chunk, and a region is read the first time one
+ * of its chunks loads. Expired graves are cleaned up a few blocks per tick,
+ * and only while all their chunks are loaded; graves in unloaded chunks are
+ * picked up again on {@link ChunkLoadEvent}.
+ * Main thread only.
+ */
+public class GraveRegistry implements Listener {
+    private static final int MAGIC = 0x54504756; // "TPGV"
+    private static final byte VERSION = 2; // 1: no virtual flag
+    private static final long FLUSH_INTERVAL_TICKS = 100L; // 5 seconds
+
+    private final TeleportPlugin plugin;
+    private final IoThread io;
+    private final DeathInventoryStore inventories;
+    private final File directory;
+    private final HashMap<String, WorldGraves> worlds = new HashMap<>();
+    private final PriorityQueue<Grave> expiryQueue = new PriorityQueue<>(Comparator.comparingLong((Grave grave) -> grave.expiresAt));
+    private final ArrayDeque<Grave> cleanupQueue = new ArrayDeque<>();
+    private final int blocksPerTick;
+    private final boolean dropItemsOnExpire;
+    private BukkitTask tickTask;
+    private BukkitTask flushTask;
+
+    public GraveRegistry(TeleportPlugin plugin, IoThread io, DeathInventoryStore inventories) {
+        this.plugin = plugin;
+        this.io = io;
+        this.inventories = inventories;
+        this.directory = new File(plugin.getDataFolder(), "graves");
+        this.blocksPerTick = Math.max(1, plugin.getConfig().getInt("graves.cleanup-blocks-per-tick", 20));
+        this.dropItemsOnExpire = plugin.getConfig().getString("graves.expire-action", "DROP").equalsIgnoreCase("DROP");
+    }
+
+    public void start() {
+        // Chunks loaded before the plugin was enabled never fire ChunkLoadEvent for us
+        for (World world : Bukkit.getWorlds()) {
+            for (Chunk chunk : world.getLoadedChunks()) {
+                ensureRegionLoaded(world.getName(), chunk.getX() >> 5, chunk.getZ() >> 5);
+            }
+        }
+        tickTask = plugin.getServer().getScheduler().runTaskTimer(plugin, plugin.getMetrics().timed("grave-cleanup", this::tick), 20L, 1L);
+        flushTask = plugin.getServer().getScheduler().runTaskTimer(plugin, plugin.getMetrics().timed("grave-flush", this::flush),
+            FLUSH_INTERVAL_TICKS, FLUSH_INTERVAL_TICKS);
+    }
+
+    public void shutdown() {
+        if (tickTask != null) {
+            tickTask.cancel();
+            tickTask = null;
+        }
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+        flush();
+    }
+
+    static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    public void add(Grave grave) {
+        WorldGraves graves = worlds.computeIfAbsent(grave.world, k -> new WorldGraves());
+        graves.index(grave);
+        graves.dirtyRegions.add(chunkKey(grave.chunkX() >> 5, grave.chunkZ() >> 5));
+        expiryQueue.add(grave);
+    }
+
+    public void remove(Grave grave) {
+        if (grave.removed) {
+            return;
+        }
+        grave.removed = true;
+        WorldGraves graves = worlds.get(grave.world);
+        if (graves != null) {
+            graves.unindex(grave);
+            graves.dirtyRegions.add(chunkKey(grave.chunkX() >> 5, grave.chunkZ() >> 5));
+        }
+    }
+
+    /** Records blocks placed for a grave after it was registered, e.g. its gravestone structure. */
+    public void attach(Grave grave, List<Block> placed) {
+        if (grave.removed || placed.isEmpty()) {
+            return;
+        }
+        int size = grave.blocks.length;
+        long[] blocks = Arrays.copyOf(grave.blocks, size + placed.size());
+        Material[] types = Arrays.copyOf(grave.types, size + placed.size());
+        for (int i = 0; i < placed.size(); i++) {
+            Block block = placed.get(i);
+            blocks[size + i] = Grave.pack(block.getX(), block.getY(), block.getZ());
+            types[size + i] = block.getType();
+        }
+        // The new blocks may reach into neighbouring chunks
+        WorldGraves graves = worlds.get(grave.world);
+        graves.unindexChunks(grave);
+        grave.blocks = blocks;
+        grave.types = types;
+        graves.indexChunks(grave);
+        graves.dirtyRegions.add(chunkKey(grave.chunkX() >> 5, grave.chunkZ() >> 5));
+    }
+
+    /** The grave that placed this block, or null. */
+    public Grave getAt(Block block) {
+        WorldGraves graves = worlds.get(block.getWorld().getName());
+        if (graves == null) {
+            return null;
+        }
+        List<Grave> inChunk = graves.byChunk.get(chunkKey(block.getX() >> 4, block.getZ() >> 4));
+        if (inChunk == null) {
+            return null;
+        }
+        for (Grave grave : inChunk) {
+            if (grave.contains(block.getX(), block.getY(), block.getZ())) {
+                return grave;
+            }
+        }
+        return null;
+    }
+
+    /** Cleans up the rest of a grave whose chest was broken, within the per-tick budget and dropping nothing. */
+    public void clearLooted(Grave grave) {
+        if (!grave.removed && !grave.looted) {
+            grave.looted = true;
+            cleanupQueue.add(grave);
+        }
+    }
+
+    @EventHandler
+    public void onChunkLoad(ChunkLoadEvent event) {
+        Chunk chunk = event.getChunk();
+        String world = chunk.getWorld().getName();
+        ensureRegionLoaded(world, chunk.getX() >> 5, chunk.getZ() >> 5);
+        // Graves that expired or were looted while this chunk was unloaded
+        WorldGraves graves = worlds.get(world);
+        List<Grave> inChunk = graves != null ? graves.byChunk.get(chunkKey(chunk.getX(), chunk.getZ())) : null;
+        if (inChunk != null) {
+            long now = System.currentTimeMillis();
+            for (Grave grave : inChunk) {
+                if (grave.expiresAt <= now || grave.looted) {
+                    cleanupQueue.add(grave);
+                }
+            }
+        }
+    }
+
+    private void tick() {
+        long now = System.currentTimeMillis();
+        int budget = blocksPerTick;
+        while (!expiryQueue.isEmpty() && expiryQueue.peek().expiresAt <= now && budget > 0) {
+            Grave grave = expiryQueue.poll();
+            if (!grave.removed) {
+                cleanupQueue.add(grave);
+            }
+            budget--;
+        }
+        budget = blocksPerTick;
+        while (!cleanupQueue.isEmpty() && budget > 0) {
+            Grave grave = cleanupQueue.poll();
+            if (!grave.removed) {
+                budget -= despawn(grave, dropItemsOnExpire && !grave.looted);
+            }
+        }
+    }
+
+    /** Removes an emptied grave and its blocks without dropping anything. */
+    public void clear(Grave grave) {
+        if (despawn(grave, false) == 0) {
+            remove(grave); // chunk unloaded: the blocks stay behind as decoration
+        }
+    }
+
+    // Removes the grave's blocks if all their chunks are loaded; returns the number of blocks touched
+    private int despawn(Grave grave, boolean dropItems) {
+        World world = Bukkit.getWorld(grave.world);
+        if (world == null) {
+            return 0;
+        }
+        for (long chunk : chunksOf(grave)) {
+            if (!world.isChunkLoaded((int) (chunk >> 32), (int) chunk)) {
+                return 0; // handled again when that chunk loads
+            }
+        }
+        for (int i = 0; i < grave.blocks.length; i++) {
+            long packed = grave.blocks[i];
+            // A looted grave's chest is gone already; whatever stands there now is not ours
+            if (grave.looted && grave.isChest(Grave.unpackX(packed), Grave.unpackY(packed), Grave.unpackZ(packed))) {
+                continue;
+            }
+            Block block = world.getBlockAt(Grave.unpackX(packed), Grave.unpackY(packed), Grave.unpackZ(packed));
+            // Leave blocks that players have replaced since
+            if (block.getType() != grave.types[i]) {
+                continue;
+            }
+            if (dropItems && block.getState() instanceof Chest) {
+                Chest chest = (Chest) block.getState();
+                for (ItemStack item : chest.getInventory().getContents()) {
+                    if (item != null && item.getType() != Material.AIR) {
+                        world.dropItemNaturally(block.getLocation().add(0.5, 0.5, 0.5), item);
+                    }
+                }
+                chest.getInventory().clear();
+            }
+            block.setType(Material.AIR, false);
+        }
+        if (grave.virtual) {
+            if (dropItems) {
+                inventories.dropAndDelete(grave, new Location(world, grave.x + 0.5, grave.y + 0.5, grave.z + 0.5));
+            } else {
+                inventories.discard(grave);
+            }
+        }
+        remove(grave);
+        return grave.blocks.length;
+    }
+
+    private void ensureRegionLoaded(String world, int regionX, int regionZ) {
+        WorldGraves graves = worlds.computeIfAbsent(world, k -> new WorldGraves());
+        long region = chunkKey(regionX, regionZ);
+        if (graves.loadedRegions.contains(region) || !graves.loadingRegions.add(region)) {
+            return;
+        }
+        File file = regionFile(world, regionX, regionZ);
+        io.execute(() -> {
+            List<Grave> stored = Collections.emptyList();
+            try {
+                stored = read(file, world);
+            } catch (IOException e) {
+                plugin.getLogger().warning("Could not read graves from " + file + ": " + e.getMessage());
+            }
+            List<Grave> result = stored;
+            if (plugin.isEnabled()) {
+                plugin.getServer().getScheduler().runTask(plugin, () -> finishRegionLoad(graves, region, result));
+            }
+        });
+    }
+
+    private void finishRegionLoad(WorldGraves graves, long region, List<Grave> stored) {
+        graves.loadingRegions.remove(region);
+        graves.loadedRegions.add(region);
+        // Graves created while the file was being read are already indexed; merge the stored ones in
+        for (Grave grave : stored) {
+            graves.index(grave);
+            expiryQueue.add(grave);
+        }
+    }
+
+    // Encodes dirty regions on the main thread, where graves are mutated, and writes them on the I/O thread
+    public void flush() {
+        for (Map.Entry<String, WorldGraves> entry : worlds.entrySet()) {
+            WorldGraves graves = entry.getValue();
+            Iterator<Long> dirty = graves.dirtyRegions.iterator();
+            while (dirty.hasNext()) {
+                long region = dirty.next();
+                // Writing before the region's file has been read would drop the stored graves
+                if (!graves.loadedRegions.contains(region)) {
+                    continue;
+                }
+                dirty.remove();
+                List<Grave> inRegion = graves.byRegion.get(region);
+                byte[] encoded = inRegion != null ? encode(inRegion) : null;
+                File file = regionFile(entry.getKey(), (int) (region >> 32), (int) region);
+                io.execute(() -> {
+                    try {
+                        write(file, encoded);
+                    } catch (IOException e) {
+                        plugin.getLogger().warning("Could not save graves to " + file + ": " + e.getMessage());
+                    }
+                });
+            }
+        }
+    }
+
+    private File regionFile(String world, int regionX, int regionZ) {
+        return new File(new File(directory, world), "r." + regionX + "." + regionZ + ".dat");
+    }
+
+    private static List<Grave> read(File file, String world) throws IOException {
+        if (!file.isFile()) {
+            return Collections.emptyList();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("bad header");
+            }
+            byte version = in.readByte();
+            if (version != 1 && version != VERSION) {
+                throw new IOException("unsupported version " + version);
+            }
+            int count = in.readInt();
+            List<Grave> graves = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                UUID id = new UUID(in.readLong(), in.readLong());
+                UUID owner = new UUID(in.readLong(), in.readLong());
+                String ownerName = in.readUTF();
+                int x = in.readInt();
+                int y = in.readInt();
+                int z = in.readInt();
+                long createdAt = in.readLong();
+                long unlockAt = in.readLong();
+                long expiresAt = in.readLong();
+                boolean virtual = version >= 2 && in.readBoolean();
+                int blockCount = in.readUnsignedShort();
+                long[] blocks = new long[blockCount];
+                Material[] types = new Material[blockCount];
+                for (int b = 0; b < blockCount; b++) {
+                    blocks[b] = in.readLong();
+                    Material type = Material.matchMaterial(in.readUTF());
+                    types[b] = type != null ? type : Material.AIR;
+                }
+                graves.add(new Grave(id, owner, ownerName, world, x, y, z, createdAt, unlockAt, expiresAt, virtual, blocks, types));
+            }
+            return graves;
+        }
+    }
+
+    private static byte[] encode(List<Grave> graves) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + graves.size() * 160);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(graves.size());
+            for (Grave grave : graves) {
+                out.writeLong(grave.id.getMostSignificantBits());
+                out.writeLong(grave.id.getLeastSignificantBits());
+                out.writeLong(grave.owner.getMostSignificantBits());
+                out.writeLong(grave.owner.getLeastSignificantBits());
+                out.writeUTF(grave.ownerName);
+                out.writeInt(grave.x);
+                out.writeInt(grave.y);
+                out.writeInt(grave.z);
+                out.writeLong(grave.createdAt);
+                out.writeLong(grave.unlockAt);
+                out.writeLong(grave.expiresAt);
+                out.writeBoolean(grave.virtual);
+                out.writeShort(grave.blocks.length);
+                for (int b = 0; b < grave.blocks.length; b++) {
+                    out.writeLong(grave.blocks[b]);
+                    out.writeUTF(grave.types[b].name());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not thrown by in-memory streams
+        }
+        return bytes.toByteArray();
+    }
+
+    // A null region is empty and its file is deleted
+    private static void write(File file, byte[] encoded) throws IOException {
+        if (encoded == null) {
+            Files.deleteIfExists(file.toPath());
+            return;
+        }
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("could not create " + parent);
+        }
+        File temp = new File(parent, file.getName() + ".tmp");
+        Files.write(temp.toPath(), encoded);
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Chunks holding any of the grave's blocks, its anchor first
+    private static Set<Long> chunksOf(Grave grave) {
+        Set<Long> chunks = new LinkedHashSet<>();
+        chunks.add(chunkKey(grave.chunkX(), grave.chunkZ()));
+        for (long packed : grave.blocks) {
+            chunks.add(chunkKey(Grave.unpackX(packed) >> 4, Grave.unpackZ(packed) >> 4));
+        }
+        return chunks;
+    }
+
+    private static class WorldGraves {
+        final HashMap<Long, ArrayList<Grave>> byChunk = new HashMap<>();
+        final HashMap<Long, ArrayList<Grave>> byRegion = new HashMap<>();
+        final HashSet<Long> loadedRegions = new HashSet<>();
+        final HashSet<Long> loadingRegions = new HashSet<>();
+        final HashSet<Long> dirtyRegions = new HashSet<>();
+
+        // Stored in the anchor chunk's region, but found from every chunk it has blocks in
+        void index(Grave grave) {
+            indexChunks(grave);
+            byRegion.computeIfAbsent(chunkKey(grave.chunkX() >> 5, grave.chunkZ() >> 5), k -> new ArrayList<>()).add(grave);
+        }
+
+        void unindex(Grave grave) {
+            unindexChunks(grave);
+            removeFrom(byRegion, chunkKey(grave.chunkX() >> 5, grave.chunkZ() >> 5), grave);
+        }
+
+        void indexChunks(Grave grave) {
+            for (long chunk : chunksOf(grave)) {
+                byChunk.computeIfAbsent(chunk, k -> new ArrayList<>(2)).add(grave);
+            }
+        }
+
+        void unindexChunks(Grave grave) {
+            for (long chunk : chunksOf(grave)) {
+                removeFrom(byChunk, chunk, grave);
+            }
+        }
+
+        private static void removeFrom(HashMap<Long, ArrayList<Grave>> index, long key, Grave grave) {
+            ArrayList<Grave> list = index.get(key);
+            if (list != null && list.remove(grave) && list.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+}
@@ -2,13 +2,15 @@ package com.example.teleportplugin;
 
 import org.bukkit.Location;
 import org.bukkit.command.Command;
-import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
 import org.bukkit.entity.Player;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
-public class HomeCommand implements CommandExecutor {
+public class HomeCommand implements TabExecutor {
     private final TeleportPlugin plugin;
     public HomeCommand(TeleportPlugin plugin) {
         this.plugin = plugin;
@@ -21,13 +23,41 @@ public class HomeCommand implements CommandExecutor {
         }
         Player player = (Player) sender;
         UUID uuid = player.getUniqueId();
-        Location home = plugin.getHome(uuid);
-        if (home == null) {
+        PlayerHomes homes = plugin.getHomeStore().getHomes(uuid);
+        if (homes == null) {
+            player.sendMessage("Your homes are still loading, try again in a moment.");
+            return true;
+        }
+        if (homes.isEmpty()) {
             player.sendMessage("Home is not set.");
             return true;
         }
-        player.teleport(home);
-        player.sendMessage("Teleported to home!");
+        String name;
+        if (args.length > 0) {
+            name = args[0];
+        } else if (homes.size() == 1) {
+            // With a single home the name is optional
+            name = homes.name(0);
+        } else {
+            name = HomeStore.DEFAULT_HOME;
+        }
+        if (!plugin.getHomeStore().hasHome(uuid, name)) {
+            player.sendMessage("No home named '" + name + "'. Your homes: " + String.join(", ", homes.names()));
+            return true;
+        }
+        Location home = plugin.getHome(uuid, name);
+        if (home == null) {
+            player.sendMessage("The world your home is in is not loaded.");
+            return true;
+        }
+        plugin.getTeleportPipeline().teleport(player, home, "Teleported to home!");
         return true;
     }
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        if (!(sender instanceof Player) || args.length != 1) {
+            return Collections.emptyList();
+        }
+        return plugin.getHomeStore().completeHome(((Player) sender).getUniqueId(), args[0]);
+    }
 }
@@ -0,0 +1,507 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Persistent home storage. Each player's homes live in their own small binary
+ * file, loaded when the player joins and written back in batches on the I/O
+ * thread. In memory, homes are packed into a {@link HomeTable}; a Location is
+ * only built when someone asks for it. With {@link NetworkSync} on, each
+ * player's homes carry a {@link VectorTimestamp}: local changes go out to the
+ * other backends with every flush, and newer copies from them replace the
+ * cached ones, so reads stay local and never wait on the network. All public
+ * methods must be called from the main thread.
+ */
+public class HomeStore implements Listener {
+    public static final String DEFAULT_HOME = "home";
+
+    private static final int MAGIC = 0x54504831; // "TPH1"
+    private static final byte VERSION = 3;
+    private static final long FLUSH_INTERVAL_TICKS = 100L; // 5 seconds
+
+    private final TeleportPlugin plugin;
+    private final IoThread io;
+    private final File directory;
+
+    // A player is loaded once they have an entry here, even an empty one
+    private final HomeTable homes = new HomeTable();
+    private final WorldIndex worlds = new WorldIndex();
+    private final Set<UUID> loading = new HashSet<>();
+    private final Set<UUID> dirty = new LinkedHashSet<>();
+    private final Set<UUID> pendingUnload = new HashSet<>();
+    // Version of each loaded player's homes, saved with them and compared against other backends' copies
+    private final HashMap<UUID, VectorTimestamp> versions = new HashMap<>();
+    // Changed on this server since the last flush, so sent to the other backends with it
+    private final Set<UUID> published = new HashSet<>();
+    // Copies from other backends that arrived while the player's file was being read
+    private final HashMap<UUID, StoredRecord> pendingRemote = new HashMap<>();
+    private NetworkSync sync;
+    private final LinkedHashMap<String, Integer> limits = new LinkedHashMap<>();
+    private int defaultLimit = 1;
+    private BukkitTask flushTask;
+
+    public HomeStore(TeleportPlugin plugin, IoThread io) {
+        this.plugin = plugin;
+        this.io = io;
+        this.directory = new File(plugin.getDataFolder(), "homes");
+    }
+
+    /** Replicates homes through the given sync from now on; without one they stay on this server. */
+    public void setSync(NetworkSync sync) {
+        this.sync = sync;
+    }
+
+    public void start() {
+        loadLimits();
+        flushTask = plugin.getServer().getScheduler().runTaskTimer(plugin, plugin.getMetrics().timed("home-flush", this::flush),
+            FLUSH_INTERVAL_TICKS, FLUSH_INTERVAL_TICKS);
+        // Players already online after a reload never fire PlayerJoinEvent
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            load(player.getUniqueId());
+        }
+    }
+
+    public void shutdown() {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+        flush();
+    }
+
+    private void loadLimits() {
+        defaultLimit = plugin.getConfig().getInt("homes.default-limit", 1);
+        limits.clear();
+        ConfigurationSection section = plugin.getConfig().getConfigurationSection("homes.limits");
+        if (section != null) {
+            for (String key : section.getKeys(false)) {
+                limits.put("teleportplugin.homes." + key, section.getInt(key));
+            }
+        }
+    }
+
+    // Highest limit among the player's permissions; -1 means unlimited
+    public int getHomeLimit(Player player) {
+        if (player.hasPermission("teleportplugin.homes.unlimited")) {
+            return -1;
+        }
+        int limit = defaultLimit;
+        for (Map.Entry<String, Integer> entry : limits.entrySet()) {
+            if (entry.getValue() > limit && player.hasPermission(entry.getKey())) {
+                limit = entry.getValue();
+            }
+        }
+        return limit;
+    }
+
+    /** Players whose homes are in memory: everyone online, plus leavers until their homes are flushed. */
+    public int getLoadedCount() {
+        return homes.size();
+    }
+
+    public boolean isLoaded(UUID uuid) {
+        return homes.contains(uuid);
+    }
+
+    // Returns null if the player is not loaded
+    public PlayerHomes getHomes(UUID uuid) {
+        return homes.get(uuid);
+    }
+
+    public boolean hasHome(UUID uuid, String name) {
+        PlayerHomes playerHomes = homes.get(uuid);
+        return playerHomes != null && playerHomes.indexOf(name) >= 0;
+    }
+
+    // Builds a fresh Location; returns null if there is no such home or its world is not loaded
+    public Location getHome(UUID uuid, String name) {
+        PlayerHomes playerHomes = homes.get(uuid);
+        int index = playerHomes != null ? playerHomes.indexOf(name) : -1;
+        if (index < 0) {
+            return null;
+        }
+        World world = worlds.resolve(playerHomes.worldId(index));
+        if (world == null) {
+            return null;
+        }
+        return new Location(world, playerHomes.x(index), playerHomes.y(index), playerHomes.z(index),
+            playerHomes.yaw(index), playerHomes.pitch(index));
+    }
+
+    public void setHome(UUID uuid, String name, Location location) {
+        PlayerHomes playerHomes = homes.get(uuid);
+        if (playerHomes == null) {
+            playerHomes = new PlayerHomes();
+            homes.put(uuid, playerHomes);
+        }
+        playerHomes.put(name, worlds.idOf(location.getWorld().getName()), location.getX(), location.getY(),
+            location.getZ(), location.getYaw(), location.getPitch());
+        changed(uuid);
+    }
+
+    public boolean deleteHome(UUID uuid, String name) {
+        PlayerHomes playerHomes = homes.get(uuid);
+        if (playerHomes == null || !playerHomes.remove(name)) {
+            return false;
+        }
+        changed(uuid);
+        return true;
+    }
+
+    // A write made here: its version moves past everything this server has seen
+    private void changed(UUID uuid) {
+        dirty.add(uuid);
+        if (sync != null) {
+            versions.put(uuid, versions.getOrDefault(uuid, VectorTimestamp.ZERO).next(sync.getServerName()));
+            published.add(uuid);
+        }
+    }
+
+    // Tab completion for home names; a fresh, modifiable list
+    public List<String> completeHome(UUID uuid, String prefix) {
+        PlayerHomes playerHomes = homes.get(uuid);
+        return playerHomes != null ? playerHomes.complete(prefix) : new ArrayList<>();
+    }
+
+    @EventHandler
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        UUID uuid = event.getPlayer().getUniqueId();
+        pendingUnload.remove(uuid);
+        load(uuid);
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        UUID uuid = event.getPlayer().getUniqueId();
+        if (dirty.contains(uuid)) {
+            // Keep the entry until the next flush has captured it
+            pendingUnload.add(uuid);
+        } else {
+            unload(uuid);
+        }
+    }
+
+    private void load(UUID uuid) {
+        if (homes.contains(uuid) || !loading.add(uuid)) {
+            return;
+        }
+        io.execute(() -> {
+            StoredRecord stored = StoredRecord.EMPTY;
+            try {
+                stored = read(uuid);
+            } catch (IOException e) {
+                plugin.getLogger().warning("Could not read homes for " + uuid + ": " + e.getMessage());
+            }
+            StoredRecord result = stored;
+            if (plugin.isEnabled()) {
+                plugin.getServer().getScheduler().runTask(plugin, () -> finishLoad(uuid, result));
+            }
+        });
+    }
+
+    private void finishLoad(UUID uuid, StoredRecord stored) {
+        loading.remove(uuid);
+        StoredRecord remote = pendingRemote.remove(uuid);
+        if (homes.contains(uuid) || Bukkit.getPlayer(uuid) == null) {
+            if (remote != null) {
+                apply(uuid, remote);
+            }
+            return;
+        }
+        homes.put(uuid, toPlayerHomes(stored.homes));
+        versions.put(uuid, stored.version);
+        if (remote != null) {
+            apply(uuid, remote);
+        }
+        // Read-through: a backend with a newer copy than this server's file answers with it
+        if (sync != null) {
+            sync.queryHomes(uuid, versions.get(uuid));
+        }
+    }
+
+    private PlayerHomes toPlayerHomes(List<StoredHome> stored) {
+        PlayerHomes playerHomes = new PlayerHomes(Math.max(2, stored.size()));
+        for (StoredHome home : stored) {
+            playerHomes.put(home.name, worlds.idOf(home.world), home.x, home.y, home.z, home.yaw, home.pitch);
+        }
+        return playerHomes;
+    }
+
+    private void unload(UUID uuid) {
+        homes.remove(uuid);
+        versions.remove(uuid);
+        pendingUnload.remove(uuid);
+    }
+
+    /**
+     * A player's homes as another backend wrote them. They replace the cached
+     * copy if their version supersedes it; for a player who is not here, the
+     * saved file is updated on the I/O thread instead.
+     */
+    public void applyRemote(UUID uuid, byte[] data) {
+        try {
+            apply(uuid, decode(data));
+        } catch (IOException e) {
+            plugin.getLogger().warning("Dropped malformed homes of " + uuid + " from another server: " + e.getMessage());
+        }
+    }
+
+    private void apply(UUID uuid, StoredRecord remote) {
+        if (homes.contains(uuid)) {
+            VectorTimestamp current = versions.getOrDefault(uuid, VectorTimestamp.ZERO);
+            if (!remote.version.supersedes(current)) {
+                // Ours stays, but the next write here has to dominate theirs as well
+                versions.put(uuid, current.merge(remote.version));
+                return;
+            }
+            homes.put(uuid, toPlayerHomes(remote.homes));
+            versions.put(uuid, remote.version.merge(current));
+            // Saved here as well, but not sent on: the writer already sent it to everyone
+            dirty.add(uuid);
+            published.remove(uuid);
+        } else if (loading.contains(uuid)) {
+            pendingRemote.merge(uuid, remote, (kept, next) -> next.version.supersedes(kept.version) ? next : kept);
+        } else {
+            io.execute(() -> {
+                try {
+                    StoredRecord stored = read(uuid);
+                    if (remote.version.supersedes(stored.version)) {
+                        write(uuid, remote.withVersion(remote.version.merge(stored.version)));
+                    }
+                } catch (IOException e) {
+                    plugin.getLogger().warning("Could not save homes for " + uuid + " from another server: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Another backend loaded this player's homes at the given version. If this
+     * server has a newer copy, in memory or on disk, it goes back to that
+     * backend alone.
+     */
+    public void answerQuery(UUID uuid, VectorTimestamp theirs, String server) {
+        NetworkSync target = sync;
+        if (target == null || loading.contains(uuid)) {
+            return;
+        }
+        if (homes.contains(uuid)) {
+            StoredRecord record = snapshot(uuid);
+            if (record.version.supersedes(theirs)) {
+                target.publishHomes(uuid, encode(record), server);
+            }
+            return;
+        }
+        io.execute(() -> {
+            StoredRecord stored;
+            try {
+                stored = read(uuid);
+            } catch (IOException e) {
+                return;
+            }
+            if (stored.version.supersedes(theirs)) {
+                byte[] data = encode(stored);
+                if (plugin.isEnabled()) {
+                    plugin.getServer().getScheduler().runTask(plugin, () -> target.publishHomes(uuid, data, server));
+                }
+            }
+        });
+    }
+
+    // Snapshots every dirty entry on the main thread and writes the batch on the I/O thread
+    public void flush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        List<UUID> uuids = new ArrayList<>(dirty.size());
+        List<StoredRecord> batch = new ArrayList<>(dirty.size());
+        for (UUID uuid : dirty) {
+            StoredRecord record = snapshot(uuid);
+            uuids.add(uuid);
+            batch.add(record);
+            if (sync != null && published.contains(uuid)) {
+                sync.publishHomes(uuid, encode(record), null);
+            }
+        }
+        dirty.clear();
+        published.clear();
+        for (UUID uuid : new ArrayList<>(pendingUnload)) {
+            unload(uuid);
+        }
+
+        io.execute(() -> {
+            for (int i = 0; i < uuids.size(); i++) {
+                try {
+                    write(uuids.get(i), batch.get(i));
+                } catch (IOException e) {
+                    plugin.getLogger().warning("Could not save homes for " + uuids.get(i) + ": " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private StoredRecord snapshot(UUID uuid) {
+        VectorTimestamp version = versions.getOrDefault(uuid, VectorTimestamp.ZERO);
+        PlayerHomes playerHomes = homes.get(uuid);
+        if (playerHomes == null || playerHomes.isEmpty()) {
+            return new StoredRecord(version, Collections.emptyList());
+        }
+        List<StoredHome> stored = new ArrayList<>(playerHomes.size());
+        for (int i = 0; i < playerHomes.size(); i++) {
+            stored.add(new StoredHome(playerHomes.name(i), worlds.nameOf(playerHomes.worldId(i)),
+                playerHomes.x(i), playerHomes.y(i), playerHomes.z(i), playerHomes.yaw(i), playerHomes.pitch(i)));
+        }
+        return new StoredRecord(version, stored);
+    }
+
+    private File fileFor(UUID uuid) {
+        String name = uuid.toString();
+        return new File(new File(directory, name.substring(0, 2)), name + ".dat");
+    }
+
+    private StoredRecord read(UUID uuid) throws IOException {
+        File file = fileFor(uuid);
+        if (!file.isFile()) {
+            return StoredRecord.EMPTY;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("bad header in " + file.getName());
+            }
+            byte version = in.readByte();
+            if (version == 1) {
+                // Single unnamed home from before named homes existed
+                return new StoredRecord(VectorTimestamp.ZERO, Collections.singletonList(new StoredHome(DEFAULT_HOME,
+                    in.readUTF(), in.readDouble(), in.readDouble(), in.readDouble(), in.readFloat(), in.readFloat())));
+            }
+            if (version == 2) {
+                // Named homes from before they were versioned
+                return new StoredRecord(VectorTimestamp.ZERO, readHomes(in));
+            }
+            if (version != VERSION) {
+                throw new IOException("unsupported version " + version + " in " + file.getName());
+            }
+            return readRecord(in);
+        }
+    }
+
+    // The body of a version 3 file, which is also what goes over the network
+    private static StoredRecord readRecord(DataInput in) throws IOException {
+        VectorTimestamp version = VectorTimestamp.read(in);
+        return new StoredRecord(version, readHomes(in));
+    }
+
+    private static List<StoredHome> readHomes(DataInput in) throws IOException {
+        int count = in.readUnsignedShort();
+        List<StoredHome> stored = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            stored.add(new StoredHome(in.readUTF(), in.readUTF(), in.readDouble(), in.readDouble(),
+                in.readDouble(), in.readFloat(), in.readFloat()));
+        }
+        return stored;
+    }
+
+    private static void writeRecord(DataOutput out, StoredRecord record) throws IOException {
+        record.version.write(out);
+        out.writeShort(record.homes.size());
+        for (StoredHome home : record.homes) {
+            out.writeUTF(home.name);
+            out.writeUTF(home.world);
+            out.writeDouble(home.x);
+            out.writeDouble(home.y);
+            out.writeDouble(home.z);
+            out.writeFloat(home.yaw);
+            out.writeFloat(home.pitch);
+        }
+    }
+
+    private static byte[] encode(StoredRecord record) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + record.homes.size() * 48);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeRecord(out, record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static StoredRecord decode(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            return readRecord(in);
+        }
+    }
+
+    private void write(UUID uuid, StoredRecord stored) throws IOException {
+        File file = fileFor(uuid);
+        // With a version, an emptied record stays on disk so an older copy from another server cannot bring it back
+        if (stored.homes.isEmpty() && stored.version.isZero()) {
+            Files.deleteIfExists(file.toPath());
+            return;
+        }
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("could not create " + parent);
+        }
+        File temp = new File(parent, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            writeRecord(out, stored);
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // One player's homes with their version, as saved and as sent to other servers
+    private static class StoredRecord {
+        static final StoredRecord EMPTY = new StoredRecord(VectorTimestamp.ZERO, Collections.emptyList());
+
+        final VectorTimestamp version;
+        final List<StoredHome> homes;
+
+        StoredRecord(VectorTimestamp version, List<StoredHome> homes) {
+            this.version = version;
+            this.homes = homes;
+        }
+
+        StoredRecord withVersion(VectorTimestamp version) {
+            return new StoredRecord(version, homes);
+        }
+    }
+
+    // Immutable, world-free copy of a home that is safe to hand to the I/O thread
+    private static class StoredHome {
+        final String name;
+        final String world;
+        final double x, y, z;
+        final float yaw, pitch;
+
+        StoredHome(String name, String world, double x, double y, double z, float yaw, float pitch) {
+            this.name = name;
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.yaw = yaw;
+            this.pitch = pitch;
+        }
+    }
+}
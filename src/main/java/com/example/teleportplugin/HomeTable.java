@@ -0,0 +1,134 @@
+package com.example.teleportplugin;
+
+import java.util.UUID;
+
+/**
+ * Open-addressing hash table from player UUID (stored as two longs) to that
+ * player's {@link PlayerHomes}. Keys live in primitive arrays, so there is no
+ * UUID or map-entry object per player.
+ *
+ * Linear probing with backward-shift deletion, so there are no tombstones.
+ * Not thread-safe.
+ */
+public class HomeTable {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keyHigh;
+    private long[] keyLow;
+    private PlayerHomes[] values; // null marks a free slot
+    private int size;
+    private int mask;
+
+    public HomeTable() {
+        this(MIN_CAPACITY);
+    }
+
+    public HomeTable(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keyHigh = new long[capacity];
+        keyLow = new long[capacity];
+        values = new PlayerHomes[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int hash(long high, long low) {
+        long h = high * 0x9E3779B97F4A7C15L ^ low;
+        h ^= h >>> 32;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ h >>> 29);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int slotOf(long high, long low) {
+        int slot = hash(high, low) & mask;
+        while (values[slot] != null) {
+            if (keyHigh[slot] == high && keyLow[slot] == low) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public PlayerHomes get(UUID uuid) {
+        int slot = slotOf(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        return slot >= 0 ? values[slot] : null;
+    }
+
+    public boolean contains(UUID uuid) {
+        return get(uuid) != null;
+    }
+
+    public void put(UUID uuid, PlayerHomes homes) {
+        if ((size + 1) * 2 > values.length) {
+            resize(values.length << 1);
+        }
+        long high = uuid.getMostSignificantBits();
+        long low = uuid.getLeastSignificantBits();
+        int slot = hash(high, low) & mask;
+        while (values[slot] != null) {
+            if (keyHigh[slot] == high && keyLow[slot] == low) {
+                values[slot] = homes;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keyHigh[slot] = high;
+        keyLow[slot] = low;
+        values[slot] = homes;
+        size++;
+    }
+
+    public PlayerHomes remove(UUID uuid) {
+        int slot = slotOf(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        if (slot < 0) {
+            return null;
+        }
+        PlayerHomes removed = values[slot];
+        // Backward-shift the rest of the probe chain into the hole
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (values[next] != null) {
+            int home = hash(keyHigh[next], keyLow[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keyHigh[hole] = keyHigh[next];
+                keyLow[hole] = keyLow[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[hole] = null;
+        size--;
+        return removed;
+    }
+
+    private void resize(int capacity) {
+        long[] oldHigh = keyHigh;
+        long[] oldLow = keyLow;
+        PlayerHomes[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == null) {
+                continue;
+            }
+            int slot = hash(oldHigh[i], oldLow[i]) & mask;
+            while (values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keyHigh[slot] = oldHigh[i];
+            keyLow[slot] = oldLow[i];
+            values[slot] = oldValues[i];
+        }
+    }
+}
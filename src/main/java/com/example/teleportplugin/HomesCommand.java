@@ -0,0 +1,33 @@
+package com.example.teleportplugin;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+public class HomesCommand implements CommandExecutor {
+    private final TeleportPlugin plugin;
+    public HomesCommand(TeleportPlugin plugin) {
+        this.plugin = plugin;
+    }
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (!(sender instanceof Player)) {
+            sender.sendMessage("Only players can use this command.");
+            return true;
+        }
+        Player player = (Player) sender;
+        PlayerHomes homes = plugin.getHomeStore().getHomes(player.getUniqueId());
+        if (homes == null) {
+            player.sendMessage("Your homes are still loading, try again in a moment.");
+            return true;
+        }
+        if (homes.isEmpty()) {
+            player.sendMessage("You have no homes. Set one with /sethome [name].");
+            return true;
+        }
+        int limit = plugin.getHomeStore().getHomeLimit(player);
+        player.sendMessage("Homes (" + homes.size() + (limit >= 0 ? "/" + limit : "") + "): " + String.join(", ", homes.names()));
+        return true;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.teleportplugin;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Single background thread for all plugin disk I/O. Tasks run in submission
+ * order, so a load queued after a write for the same file always sees the
+ * written data.
+ */
+public class IoThread {
+    private final ExecutorService executor;
+    private final Logger logger;
+
+    public IoThread(String name, Logger logger) {
+        this.logger = logger;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void execute(Runnable task) {
+        executor.execute(() -> {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.log(Level.SEVERE, "Background I/O task failed", t);
+            }
+        });
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    // Called from onDisable: waits for queued writes so nothing is lost on shutdown
+    public void shutdown(long timeoutMillis) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                logger.warning("Background I/O did not finish within " + timeoutMillis + "ms, some data may not be saved");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+    }
+}
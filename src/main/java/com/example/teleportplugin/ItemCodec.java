@@ -0,0 +1,57 @@
+package com.example.teleportplugin;
+
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.util.io.BukkitObjectInputStream;
+import org.bukkit.util.io.BukkitObjectOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip-compressed item lists, written with Bukkit's object streams so item
+ * meta survives. Encode and decode on the main thread; the bytes themselves
+ * can go anywhere.
+ */
+final class ItemCodec {
+    private ItemCodec() {
+    }
+
+    static byte[] encode(List<ItemStack> items) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        write(bytes, items);
+        return bytes.toByteArray();
+    }
+
+    static void write(OutputStream target, List<ItemStack> items) throws IOException {
+        try (BukkitObjectOutputStream out = new BukkitObjectOutputStream(new GZIPOutputStream(target))) {
+            out.writeInt(items.size());
+            for (ItemStack item : items) {
+                out.writeObject(item);
+            }
+        }
+    }
+
+    static List<ItemStack> decode(byte[] blob) throws IOException {
+        return read(new ByteArrayInputStream(blob));
+    }
+
+    static List<ItemStack> read(InputStream source) throws IOException {
+        try (BukkitObjectInputStream in = new BukkitObjectInputStream(new GZIPInputStream(source))) {
+            int count = in.readInt();
+            List<ItemStack> items = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                items.add((ItemStack) in.readObject());
+            }
+            return items;
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("not an item list: " + e.getMessage(), e);
+        }
+    }
+}
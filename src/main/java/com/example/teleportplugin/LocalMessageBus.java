@@ -0,0 +1,66 @@
+package com.example.teleportplugin;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * In-memory stand-in for a real transport: every bus on the same channel in
+ * this JVM receives the others' frames. Delivery happens on a shared
+ * background thread, so receivers see frames arrive asynchronously as they
+ * would over a network, in publish order.
+ */
+public class LocalMessageBus implements MessageBus {
+    private static final ConcurrentHashMap<String, List<LocalMessageBus>> CHANNELS = new ConcurrentHashMap<>();
+    private static final ExecutorService DELIVERY = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "TeleportPlugin-LocalBus");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String channel;
+    private volatile Consumer<byte[]> receiver;
+
+    public LocalMessageBus(String channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void start(Consumer<byte[]> receiver) {
+        this.receiver = receiver;
+        CHANNELS.computeIfAbsent(channel, k -> new CopyOnWriteArrayList<>()).add(this);
+    }
+
+    @Override
+    public boolean publish(byte[] frame) {
+        for (LocalMessageBus bus : CHANNELS.getOrDefault(channel, Collections.emptyList())) {
+            if (bus != this) {
+                DELIVERY.execute(() -> {
+                    Consumer<byte[]> target = bus.receiver;
+                    if (target != null) {
+                        target.accept(frame);
+                    }
+                });
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int getMaxFrameSize() {
+        return 1 << 20;
+    }
+
+    @Override
+    public void shutdown() {
+        receiver = null;
+        List<LocalMessageBus> buses = CHANNELS.get(channel);
+        if (buses != null) {
+            buses.remove(this);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.teleportplugin;
+
+import java.util.function.Consumer;
+
+/**
+ * Transport that carries {@link NetworkSync} frames between the backends of a
+ * network. Every frame goes to every other backend; frames a transport echoes
+ * back to their sender are dropped by NetworkSync.
+ */
+public interface MessageBus {
+    /** Starts delivering frames from other backends to the receiver, on any thread. */
+    void start(Consumer<byte[]> receiver);
+
+    /**
+     * Sends a frame to the other backends. Called on the main thread and must
+     * not block. Returns false if the frame cannot go out right now and should
+     * be offered again later.
+     */
+    boolean publish(byte[] frame);
+
+    /** Largest frame the transport carries. */
+    int getMaxFrameSize();
+
+    void shutdown();
+}
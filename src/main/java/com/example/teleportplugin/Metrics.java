@@ -0,0 +1,226 @@
+package com.example.teleportplugin;
+
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Plugin-wide call counts and latency histograms. Listeners registered through
+ * {@link #registerEvents} get a {@link TimedEventExecutor} per
+ * {@code @EventHandler}, and {@link #timed} wraps command executors in a
+ * {@link TimedCommandExecutor}; both record into a histogram named after the
+ * handler. Scheduled work (per-tick loops, deferred placements and flushes)
+ * is wrapped with {@link #timed(String, Runnable)} and recorded as
+ * {@code task:<name>}, so work moved out of handlers is still counted.
+ * {@code /tpplugin stats} shows call rates and p50/p99/max, and every
+ * {@code metrics.dump-interval-seconds} a snapshot is written to the data
+ * folder as CSV or JSON. With {@code metrics.enabled: false} nothing is
+ * wrapped: listeners and executors are registered as they are, so disabled
+ * metrics cost nothing. Enabling takes a restart, since handlers are only
+ * wrapped at registration.
+ */
+public class Metrics {
+    private final TeleportPlugin plugin;
+    private final IoThread io;
+    private final boolean enabled;
+    private final long dumpIntervalTicks;
+    private final boolean json;
+    private final ConcurrentHashMap<String, LatencyHistogram> timers = new ConcurrentHashMap<>();
+    private volatile long resetAt = System.nanoTime();
+    private BukkitTask dumpTask;
+
+    public Metrics(TeleportPlugin plugin, IoThread io) {
+        this.plugin = plugin;
+        this.io = io;
+        this.enabled = plugin.getConfig().getBoolean("metrics.enabled", false);
+        this.dumpIntervalTicks = plugin.getConfig().getLong("metrics.dump-interval-seconds", 300L) * 20L;
+        this.json = "json".equalsIgnoreCase(plugin.getConfig().getString("metrics.dump-format", "csv"));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void start() {
+        if (enabled && dumpIntervalTicks > 0L) {
+            dumpTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::dump, dumpIntervalTicks, dumpIntervalTicks);
+        }
+    }
+
+    // Writes a last snapshot so the tail of the session is not lost; queued before the IoThread drains
+    public void shutdown() {
+        if (dumpTask != null) {
+            dumpTask.cancel();
+            dumpTask = null;
+            dump();
+        }
+    }
+
+    public LatencyHistogram timer(String name) {
+        return timers.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    /** Registers the listener's handlers, each timed as {@code event:<Listener>.<method>} when enabled. */
+    public void registerEvents(Listener listener) {
+        if (!enabled) {
+            plugin.getServer().getPluginManager().registerEvents(listener, plugin);
+            return;
+        }
+        // Same discovery as Bukkit: public methods, inherited ones included, plus the class's own
+        Set<Method> methods = new LinkedHashSet<>(Arrays.asList(listener.getClass().getMethods()));
+        methods.addAll(Arrays.asList(listener.getClass().getDeclaredMethods()));
+        for (Method method : methods) {
+            EventHandler handler = method.getAnnotation(EventHandler.class);
+            if (handler == null || method.isBridge() || method.isSynthetic()) {
+                continue;
+            }
+            if (method.getParameterCount() != 1 || !Event.class.isAssignableFrom(method.getParameterTypes()[0])) {
+                plugin.getLogger().severe("Invalid event handler " + listener.getClass().getSimpleName() + "." + method.getName());
+                continue;
+            }
+            Class<? extends Event> eventClass = method.getParameterTypes()[0].asSubclass(Event.class);
+            String name = "event:" + listener.getClass().getSimpleName() + "." + method.getName();
+            plugin.getServer().getPluginManager().registerEvent(eventClass, listener, handler.priority(),
+                new TimedEventExecutor(method, eventClass, timer(name)), plugin, handler.ignoreCancelled());
+        }
+    }
+
+    /** The executor itself when disabled, otherwise a decorator timing it as {@code command:<name>}. */
+    public CommandExecutor timed(String name, CommandExecutor executor) {
+        return enabled ? new TimedCommandExecutor(executor, timer("command:" + name)) : executor;
+    }
+
+    /** The task itself when disabled, otherwise a wrapper timing each run as {@code task:<name>}. */
+    public Runnable timed(String name, Runnable task) {
+        if (!enabled) {
+            return task;
+        }
+        LatencyHistogram histogram = timer("task:" + name);
+        return () -> {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                histogram.record(System.nanoTime() - start);
+            }
+        };
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : timers.values()) {
+            histogram.reset();
+        }
+        resetAt = System.nanoTime();
+    }
+
+    /** Snapshot of every timer with calls since the last reset, busiest first by total time. */
+    public List<Row> snapshot() {
+        double seconds = Math.max(1e-3, (System.nanoTime() - resetAt) / 1e9);
+        List<Row> rows = new ArrayList<>();
+        for (Map.Entry<String, LatencyHistogram> entry : timers.entrySet()) {
+            LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+            if (snapshot.count > 0L) {
+                rows.add(new Row(entry.getKey(), snapshot.count, snapshot.count / seconds, snapshot));
+            }
+        }
+        rows.sort(Comparator.comparingLong((Row row) -> row.latency.totalNanos).reversed());
+        return rows;
+    }
+
+    // Snapshot on the main thread, format and write on the IoThread
+    private void dump() {
+        List<Row> rows = snapshot();
+        if (rows.isEmpty()) {
+            return;
+        }
+        String time = Instant.now().toString();
+        File folder = new File(plugin.getDataFolder(), "metrics");
+        io.execute(() -> {
+            try {
+                Files.createDirectories(folder.toPath());
+                if (json) {
+                    writeJson(new File(folder, "metrics.json"), time, rows);
+                } else {
+                    appendCsv(new File(folder, "metrics.csv"), time, rows);
+                }
+            } catch (IOException e) {
+                plugin.getLogger().warning("Could not write metrics: " + e.getMessage());
+            }
+        });
+    }
+
+    // One row per metric per dump, so the file can be loaded into a spreadsheet as a time series
+    private static void appendCsv(File file, String time, List<Row> rows) throws IOException {
+        StringBuilder out = new StringBuilder();
+        if (!file.isFile()) {
+            out.append("time,name,count,rate_per_s,mean_us,p50_us,p99_us,max_us\n");
+        }
+        for (Row row : rows) {
+            out.append(time).append(',').append(row.name).append(',').append(row.count).append(',')
+                .append(String.format(Locale.ROOT, "%.3f", row.rate))
+                .append(',').append(micros(row.latency.meanNanos()))
+                .append(',').append(micros(row.latency.percentile(50.0)))
+                .append(',').append(micros(row.latency.percentile(99.0)))
+                .append(',').append(micros(row.latency.maxNanos)).append('\n');
+        }
+        Files.write(file.toPath(), out.toString().getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    // Latest snapshot only, replaced atomically so readers never see half a document
+    private static void writeJson(File file, String time, List<Row> rows) throws IOException {
+        StringBuilder out = new StringBuilder();
+        out.append("{\n  \"time\": \"").append(time).append("\",\n  \"metrics\": [");
+        for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            out.append(i == 0 ? "\n" : ",\n").append("    {\"name\": \"").append(row.name.replace("\\", "\\\\").replace("\"", "\\\""))
+                .append("\", \"count\": ").append(row.count)
+                .append(", \"ratePerSecond\": ").append(String.format(Locale.ROOT, "%.3f", row.rate))
+                .append(", \"meanMicros\": ").append(micros(row.latency.meanNanos()))
+                .append(", \"p50Micros\": ").append(micros(row.latency.percentile(50.0)))
+                .append(", \"p99Micros\": ").append(micros(row.latency.percentile(99.0)))
+                .append(", \"maxMicros\": ").append(micros(row.latency.maxNanos)).append('}');
+        }
+        out.append("\n  ]\n}\n");
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        Files.write(temp.toPath(), out.toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000.0);
+    }
+
+    /** One timer in a snapshot. */
+    public static class Row {
+        public final String name;
+        public final long count;
+        public final double rate;
+        public final LatencyHistogram.Snapshot latency;
+
+        Row(String name, long count, double rate, LatencyHistogram.Snapshot latency) {
+            this.name = name;
+            this.count = count;
+            this.rate = rate;
+            this.latency = latency;
+        }
+    }
+}
@@ -0,0 +1,576 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Keeps homes and teleport requests in step across the backends of a
+ * BungeeCord or Velocity network, over a {@link MessageBus}. Every backend
+ * tells the others who is online on it, so /tp and /tpahere can name a player
+ * anywhere on the network: the request is copied to that player's backend,
+ * and once accepted the traveller waits out the warmup, is moved there by the
+ * proxy and teleported on arrival. Home changes go out with each
+ * {@link HomeStore} flush. Messages are queued and sent once a tick, packed
+ * into as few frames as the transport allows; frames from other backends are
+ * handled on the next tick. Main thread only, apart from the bus delivering
+ * frames.
+ */
+public class NetworkSync implements Listener {
+    private static final int MAGIC = 0x54505331; // "TPS1"
+    private static final byte PROTOCOL = 1;
+
+    private static final byte HELLO = 0;
+    private static final byte ROSTER = 1;
+    private static final byte JOIN = 2;
+    private static final byte QUIT = 3;
+    private static final byte HOMES = 4;
+    private static final byte HOMES_QUERY = 5;
+    private static final byte REQUEST = 6;
+    private static final byte ANSWER = 7;
+    private static final byte CANCEL = 8;
+
+    // Players per roster message, which keeps one well inside a plugin message
+    private static final int ROSTER_CHUNK = 500;
+    // Frames kept while the transport cannot send, e.g. plugin messaging with nobody online
+    private static final int MAX_HELD_FRAMES = 256;
+    // How long a backend waits for a player it was told is on the way
+    private static final long ARRIVAL_TIMEOUT_MILLIS = 60000L;
+
+    private final TeleportPlugin plugin;
+    private final String serverName;
+    private final MessageBus bus;
+    private final long rosterIntervalTicks;
+    private final int frameHeaderSize;
+    private final ConcurrentLinkedQueue<byte[]> inbox = new ConcurrentLinkedQueue<>();
+    private final List<byte[]> outbox = new ArrayList<>();
+    private final ArrayDeque<byte[]> held = new ArrayDeque<>();
+    private final HashMap<UUID, RemotePlayer> remotePlayers = new HashMap<>();
+    // Tick each other backend was last heard from
+    private final HashMap<String, Long> lastHeard = new HashMap<>();
+    private final HashMap<UUID, Arrival> arrivals = new HashMap<>();
+    private BukkitTask tickTask;
+    private long tick;
+    private boolean rosterDue;
+    private boolean warnedProtocol;
+    private boolean warnedDropping;
+
+    public NetworkSync(TeleportPlugin plugin) {
+        this.plugin = plugin;
+        FileConfiguration config = plugin.getConfig();
+        this.serverName = config.getString("sync.server-name", "").trim();
+        if (serverName.isEmpty()) {
+            throw new IllegalArgumentException("sync.server-name must be set to this server's name in the proxy config");
+        }
+        String channel = config.getString("sync.channel", "teleportplugin:sync");
+        this.bus = createBus(channel);
+        this.rosterIntervalTicks = Math.max(1L, config.getLong("sync.roster-interval-seconds", 10L) * 20L);
+        this.frameHeaderSize = 4 + 1 + 2 + serverName.getBytes(StandardCharsets.UTF_8).length + 2;
+    }
+
+    private MessageBus createBus(String channel) {
+        FileConfiguration config = plugin.getConfig();
+        String transport = config.getString("sync.transport", "plugin-messaging").toLowerCase(Locale.ROOT);
+        switch (transport) {
+            case "plugin-messaging":
+                return new PluginMessageBus(plugin, channel);
+            case "redis":
+                return new RedisMessageBus(plugin.getLogger(), config.getString("sync.redis.host", "localhost"),
+                    config.getInt("sync.redis.port", 6379), config.getString("sync.redis.password", ""), channel);
+            case "local":
+                return new LocalMessageBus(channel);
+            default:
+                throw new IllegalArgumentException("unknown sync.transport '" + transport
+                    + "', expected plugin-messaging, redis or local");
+        }
+    }
+
+    public void start() {
+        // Server switches always go through the proxy, whatever carries the sync messages
+        plugin.getServer().getMessenger().registerOutgoingPluginChannel(plugin, PluginMessageBus.BUNGEE_CHANNEL);
+        bus.start(inbox::add);
+        tickTask = plugin.getServer().getScheduler().runTaskTimer(plugin, plugin.getMetrics().timed("network-sync", this::tick), 1L, 1L);
+        // Everyone answers with their roster; ours goes out with it
+        send(HELLO, null, out -> { });
+        rosterDue = true;
+    }
+
+    public void shutdown() {
+        if (tickTask != null) {
+            tickTask.cancel();
+            tickTask = null;
+        }
+        // The others drop this server's players at once instead of waiting for it to go quiet
+        sendRoster(Collections.emptyList());
+        flushOutbox();
+        bus.shutdown();
+        plugin.getServer().getMessenger().unregisterOutgoingPluginChannel(plugin, PluginMessageBus.BUNGEE_CHANNEL);
+    }
+
+    public String getServerName() {
+        return serverName;
+    }
+
+    /** Players online on other backends, as far as their last messages tell. */
+    public int getRemotePlayerCount() {
+        return remotePlayers.size();
+    }
+
+    // Name of a player on another backend, or null
+    public String getPlayerName(UUID uuid) {
+        RemotePlayer player = remotePlayers.get(uuid);
+        return player != null ? player.name : null;
+    }
+
+    /** A player on another backend by exact name, or else by a prefix only one of them has; null if none. */
+    public UUID findPlayerId(String name) {
+        RemotePlayer match = null;
+        boolean ambiguous = false;
+        for (RemotePlayer player : remotePlayers.values()) {
+            if (player.name.equalsIgnoreCase(name)) {
+                return player.uuid;
+            }
+            if (player.name.regionMatches(true, 0, name, 0, name.length())) {
+                ambiguous = match != null;
+                match = player;
+            }
+        }
+        return match != null && !ambiguous ? match.uuid : null;
+    }
+
+    private void tick() {
+        tick++;
+        for (byte[] frame; (frame = inbox.poll()) != null; ) {
+            receive(frame);
+        }
+        if (rosterDue || tick % rosterIntervalTicks == 0L) {
+            rosterDue = false;
+            sendRoster(new ArrayList<>(Bukkit.getOnlinePlayers()));
+            prune();
+        }
+        flushOutbox();
+    }
+
+    // Forgets backends that have gone quiet and arrivals that never came
+    private void prune() {
+        long now = System.currentTimeMillis();
+        arrivals.values().removeIf(arrival -> arrival.expiresAt <= now);
+        Iterator<Map.Entry<String, Long>> servers = lastHeard.entrySet().iterator();
+        while (servers.hasNext()) {
+            Map.Entry<String, Long> server = servers.next();
+            if (tick - server.getValue() > 3L * rosterIntervalTicks) {
+                remotePlayers.values().removeIf(player -> player.server.equals(server.getKey()));
+                servers.remove();
+            }
+        }
+    }
+
+    // --- Teleport requests ---
+
+    /**
+     * Sends a /tp (or, with here, /tpahere) request to a player on another
+     * backend. Returns false if no such player is online anywhere else.
+     */
+    public boolean request(Player from, String name, boolean here) {
+        UUID to = findPlayerId(name);
+        if (to == null) {
+            return false;
+        }
+        RemotePlayer target = remotePlayers.get(to);
+        plugin.getTeleportRequests().add(from.getUniqueId(), to, here, target.server);
+        send(REQUEST, target.server, out -> {
+            writeUuid(out, from.getUniqueId());
+            out.writeUTF(from.getName());
+            writeUuid(out, to);
+            out.writeBoolean(here);
+        });
+        from.sendMessage(here ? "Request sent to " + target.name + " on " + target.server + " to teleport to you."
+            : "Teleport request sent to " + target.name + " on " + target.server + ".");
+        return true;
+    }
+
+    /** Accepts a request from a player on another backend; the registry has already dropped it. */
+    public void accept(TeleportRequestRegistry.TeleportRequest request, Player target) {
+        RemotePlayer from = remotePlayers.get(request.from);
+        if (from == null) {
+            target.sendMessage("Requesting player is not online.");
+            return;
+        }
+        answer(request, true);
+        if (request.here) {
+            // The sender's backend teleports this player to them on arrival
+            plugin.getTeleportPipeline().depart(target, () -> connect(target, request.server),
+                ChatColor.GRAY + "Sending you to " + from.name + " on " + request.server + "...");
+        } else {
+            arrivals.put(request.from, new Arrival(target.getUniqueId(), System.currentTimeMillis() + ARRIVAL_TIMEOUT_MILLIS));
+            target.sendMessage("Teleport request accepted. " + from.name + " is on the way from " + request.server + ".");
+        }
+    }
+
+    public void deny(TeleportRequestRegistry.TeleportRequest request, Player target) {
+        answer(request, false);
+        target.sendMessage("Teleport request denied.");
+    }
+
+    /** Drops the other backend's copy of a request that was replaced or whose player left. */
+    public void cancel(TeleportRequestRegistry.TeleportRequest request) {
+        send(CANCEL, request.server, out -> {
+            writeUuid(out, request.from);
+            writeUuid(out, request.to);
+        });
+    }
+
+    private void answer(TeleportRequestRegistry.TeleportRequest request, boolean accepted) {
+        send(ANSWER, request.server, out -> {
+            writeUuid(out, request.from);
+            writeUuid(out, request.to);
+            out.writeBoolean(accepted);
+        });
+    }
+
+    // Asks the proxy to move the player; it stays here if the proxy does not know the server
+    private void connect(Player player, String server) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF("Connect");
+            out.writeUTF(server);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        player.sendPluginMessage(plugin, PluginMessageBus.BUNGEE_CHANNEL, bytes.toByteArray());
+    }
+
+    // --- Homes ---
+
+    /** Sends a player's homes record to one backend, or to all of them when server is null. */
+    public void publishHomes(UUID uuid, byte[] record, String server) {
+        send(HOMES, server, out -> {
+            writeUuid(out, uuid);
+            out.write(record);
+        });
+    }
+
+    /** Asks the other backends for a newer copy of a player's homes than the given version. */
+    public void queryHomes(UUID uuid, VectorTimestamp version) {
+        send(HOMES_QUERY, null, out -> {
+            writeUuid(out, uuid);
+            version.write(out);
+        });
+    }
+
+    // --- Players ---
+
+    @EventHandler
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        remotePlayers.remove(player.getUniqueId());
+        send(JOIN, null, out -> {
+            writeUuid(out, player.getUniqueId());
+            out.writeUTF(player.getName());
+        });
+        Arrival arrival = arrivals.remove(player.getUniqueId());
+        if (arrival == null || arrival.expiresAt <= System.currentTimeMillis()) {
+            return;
+        }
+        Player destination = Bukkit.getPlayer(arrival.follow);
+        if (destination == null) {
+            player.sendMessage(ChatColor.RED + "The player you were teleporting to has left.");
+            return;
+        }
+        // The warmup was served on the backend the player came from
+        plugin.getTeleportPipeline().teleportNow(player, destination.getLocation(), "Teleported to " + destination.getName() + "!");
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        UUID uuid = event.getPlayer().getUniqueId();
+        send(QUIT, null, out -> writeUuid(out, uuid));
+    }
+
+    private void sendRoster(List<? extends Player> players) {
+        for (int start = 0; start == 0 || start < players.size(); start += ROSTER_CHUNK) {
+            List<? extends Player> chunk = players.subList(start, Math.min(players.size(), start + ROSTER_CHUNK));
+            boolean first = start == 0;
+            send(ROSTER, null, out -> {
+                // The first chunk replaces everything the others know about this server
+                out.writeBoolean(first);
+                out.writeShort(chunk.size());
+                for (Player player : chunk) {
+                    writeUuid(out, player.getUniqueId());
+                    out.writeUTF(player.getName());
+                }
+            });
+        }
+    }
+
+    // --- Wire format ---
+
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Queues a message for the next frame: type, target server ("" for all),
+     * then the body with its length, so receivers can skip messages that are
+     * not for them or that they do not know.
+     */
+    private void send(byte type, String target, Body body) {
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(64);
+        ByteArrayOutputStream message = new ByteArrayOutputStream(96);
+        try (DataOutputStream out = new DataOutputStream(bodyBytes)) {
+            body.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try (DataOutputStream out = new DataOutputStream(message)) {
+            out.writeByte(type);
+            out.writeUTF(target != null ? target : "");
+            out.writeInt(bodyBytes.size());
+            bodyBytes.writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (message.size() + frameHeaderSize > bus.getMaxFrameSize()) {
+            plugin.getLogger().warning("Sync message of type " + type + " is too large for the transport ("
+                + message.size() + " bytes), not sent");
+            return;
+        }
+        outbox.add(message.toByteArray());
+    }
+
+    private void flushOutbox() {
+        // Frames held back earlier go first, so messages keep their order
+        while (!held.isEmpty() && bus.publish(held.peek())) {
+            held.poll();
+        }
+        if (outbox.isEmpty()) {
+            return;
+        }
+        int limit = bus.getMaxFrameSize();
+        List<byte[]> batch = new ArrayList<>();
+        int size = frameHeaderSize;
+        for (byte[] message : outbox) {
+            if (!batch.isEmpty() && (size + message.length > limit || batch.size() == 0xFFFF)) {
+                publish(frame(batch));
+                batch.clear();
+                size = frameHeaderSize;
+            }
+            batch.add(message);
+            size += message.length;
+        }
+        publish(frame(batch));
+        outbox.clear();
+    }
+
+    private void publish(byte[] frame) {
+        if (held.isEmpty() && bus.publish(frame)) {
+            return;
+        }
+        if (held.size() >= MAX_HELD_FRAMES) {
+            held.poll();
+            if (!warnedDropping) {
+                warnedDropping = true;
+                plugin.getLogger().warning("The sync transport has not taken messages for a while, dropping the oldest");
+            }
+        }
+        held.add(frame);
+    }
+
+    private byte[] frame(List<byte[]> messages) {
+        int size = frameHeaderSize;
+        for (byte[] message : messages) {
+            size += message.length;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(PROTOCOL);
+            out.writeUTF(serverName);
+            out.writeShort(messages.size());
+            for (byte[] message : messages) {
+                out.write(message);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void receive(byte[] frame) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame))) {
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            if (in.readByte() != PROTOCOL) {
+                if (!warnedProtocol) {
+                    warnedProtocol = true;
+                    plugin.getLogger().warning("Another server runs a TeleportPlugin with a different sync protocol; its messages are ignored");
+                }
+                return;
+            }
+            String origin = in.readUTF();
+            // Our own frame, echoed back by the transport
+            if (origin.equals(serverName)) {
+                return;
+            }
+            lastHeard.put(origin, tick);
+            int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                byte type = in.readByte();
+                String target = in.readUTF();
+                byte[] body = new byte[in.readInt()];
+                in.readFully(body);
+                if (target.isEmpty() || target.equals(serverName)) {
+                    handle(type, origin, new DataInputStream(new ByteArrayInputStream(body)));
+                }
+            }
+        } catch (IOException e) {
+            plugin.getLogger().warning("Dropped a malformed sync frame: " + e.getMessage());
+        }
+    }
+
+    private void handle(byte type, String origin, DataInputStream in) throws IOException {
+        switch (type) {
+            case HELLO:
+                rosterDue = true;
+                break;
+            case ROSTER: {
+                if (in.readBoolean()) {
+                    remotePlayers.values().removeIf(player -> player.server.equals(origin));
+                }
+                int count = in.readUnsignedShort();
+                for (int i = 0; i < count; i++) {
+                    addRemote(readUuid(in), in.readUTF(), origin);
+                }
+                break;
+            }
+            case JOIN:
+                addRemote(readUuid(in), in.readUTF(), origin);
+                break;
+            case QUIT: {
+                UUID uuid = readUuid(in);
+                RemotePlayer player = remotePlayers.get(uuid);
+                // A player switching servers may already have joined the next one
+                if (player != null && player.server.equals(origin)) {
+                    remotePlayers.remove(uuid);
+                }
+                break;
+            }
+            case HOMES: {
+                UUID uuid = readUuid(in);
+                plugin.getHomeStore().applyRemote(uuid, in.readAllBytes());
+                break;
+            }
+            case HOMES_QUERY:
+                plugin.getHomeStore().answerQuery(readUuid(in), VectorTimestamp.read(in), origin);
+                break;
+            case REQUEST:
+                receiveRequest(origin, readUuid(in), in.readUTF(), readUuid(in), in.readBoolean());
+                break;
+            case ANSWER:
+                receiveAnswer(origin, readUuid(in), readUuid(in), in.readBoolean());
+                break;
+            case CANCEL: {
+                TeleportRequestRegistry.TeleportRequest request = findRequest(origin, readUuid(in), readUuid(in));
+                if (request != null) {
+                    plugin.getTeleportRequests().remove(request);
+                }
+                break;
+            }
+            default:
+                // From a newer protocol revision; its length let us skip it
+                break;
+        }
+    }
+
+    private void addRemote(UUID uuid, String name, String server) {
+        // A stale roster can still list a player who has since come here
+        if (Bukkit.getPlayer(uuid) == null) {
+            remotePlayers.put(uuid, new RemotePlayer(uuid, name, server));
+        }
+    }
+
+    // This backend's copy of a request the given backend shares with us
+    private TeleportRequestRegistry.TeleportRequest findRequest(String origin, UUID from, UUID to) {
+        TeleportRequestRegistry.TeleportRequest request = plugin.getTeleportRequests().get(to, from);
+        return request != null && origin.equals(request.server) ? request : null;
+    }
+
+    private void receiveRequest(String origin, UUID from, String fromName, UUID to, boolean here) {
+        Player target = Bukkit.getPlayer(to);
+        if (target == null) {
+            // Gone before the request arrived; the sender's copy expires on its own
+            return;
+        }
+        addRemote(from, fromName, origin);
+        plugin.getTeleportRequests().add(from, to, here, origin);
+        target.sendMessage(fromName + " (on " + origin + ")" + (here ? " wants you to teleport to them." : " wants to teleport to you.")
+            + " Type /tpaccept to allow or /tpdeny to refuse.");
+    }
+
+    private void receiveAnswer(String origin, UUID from, UUID to, boolean accepted) {
+        TeleportRequestRegistry.TeleportRequest request = findRequest(origin, from, to);
+        if (request == null) {
+            return;
+        }
+        plugin.getTeleportRequests().remove(request);
+        Player sender = Bukkit.getPlayer(from);
+        if (sender == null) {
+            return;
+        }
+        String name = getPlayerName(to) != null ? getPlayerName(to) : "The player";
+        if (!accepted) {
+            sender.sendMessage(name + " denied your teleport request.");
+        } else if (request.here) {
+            arrivals.put(to, new Arrival(from, System.currentTimeMillis() + ARRIVAL_TIMEOUT_MILLIS));
+            sender.sendMessage(name + " accepted your request and is on the way.");
+        } else {
+            sender.sendMessage(name + " accepted your teleport request.");
+            plugin.getTeleportPipeline().depart(sender, () -> connect(sender, origin),
+                ChatColor.GRAY + "Sending you to " + name + " on " + origin + "...");
+        }
+    }
+
+    private static void writeUuid(DataOutput out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInput in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static class RemotePlayer {
+        final UUID uuid;
+        final String name;
+        final String server;
+
+        RemotePlayer(UUID uuid, String name, String server) {
+            this.uuid = uuid;
+            this.name = name;
+            this.server = server;
+        }
+    }
+
+    // A player another backend is sending here, to be teleported to the player they follow on joining
+    private static class Arrival {
+        final UUID follow;
+        final long expiresAt;
+
+        Arrival(UUID follow, long expiresAt) {
+            this.follow = follow;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
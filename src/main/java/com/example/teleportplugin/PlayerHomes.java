@@ -0,0 +1,208 @@
+package com.example.teleportplugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One player's named homes. Names are kept lower-case and sorted, so lookup is
+ * a binary search and every tab-completion prefix maps to a contiguous range
+ * of the array. Coordinates are packed into primitive arrays, as in
+ * {@link HomeTable}. Not thread-safe.
+ */
+public class PlayerHomes {
+    private String[] names;
+    private int[] world;
+    private double[] coords; // x, y, z per home
+    private float[] angles;  // yaw, pitch per home
+    private int size;
+    private List<String> nameView = Collections.emptyList();
+
+    public PlayerHomes() {
+        this(2);
+    }
+
+    public PlayerHomes(int capacity) {
+        names = new String[capacity];
+        world = new int[capacity];
+        coords = new double[capacity * 3];
+        angles = new float[capacity * 2];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Index of the home with this name (matched case-insensitively), or -1. */
+    public int indexOf(String name) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareIgnoreCase(names[mid], name, Integer.MAX_VALUE);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Adds or replaces a home. Returns true if a new name was added. */
+    public boolean put(String name, int worldId, double x, double y, double z, float yaw, float pitch) {
+        int index = indexOf(name);
+        boolean added = index < 0;
+        if (added) {
+            index = insertionPoint(name);
+            if (size == names.length) {
+                grow();
+            }
+            int tail = size - index;
+            System.arraycopy(names, index, names, index + 1, tail);
+            System.arraycopy(world, index, world, index + 1, tail);
+            System.arraycopy(coords, index * 3, coords, (index + 1) * 3, tail * 3);
+            System.arraycopy(angles, index * 2, angles, (index + 1) * 2, tail * 2);
+            names[index] = name.toLowerCase(java.util.Locale.ROOT);
+            size++;
+            refreshView();
+        }
+        world[index] = worldId;
+        coords[index * 3] = x;
+        coords[index * 3 + 1] = y;
+        coords[index * 3 + 2] = z;
+        angles[index * 2] = yaw;
+        angles[index * 2 + 1] = pitch;
+        return added;
+    }
+
+    public boolean remove(String name) {
+        int index = indexOf(name);
+        if (index < 0) {
+            return false;
+        }
+        int tail = size - index - 1;
+        System.arraycopy(names, index + 1, names, index, tail);
+        System.arraycopy(world, index + 1, world, index, tail);
+        System.arraycopy(coords, (index + 1) * 3, coords, index * 3, tail * 3);
+        System.arraycopy(angles, (index + 1) * 2, angles, index * 2, tail * 2);
+        names[--size] = null;
+        refreshView();
+        return true;
+    }
+
+    /** Sorted, read-only view of all home names. */
+    public List<String> names() {
+        return nameView;
+    }
+
+    /**
+     * Names starting with the given prefix (case-insensitive), sorted, in a new
+     * list: Bukkit hands it to TabCompleteEvent listeners, which may modify it.
+     * The prefix does not need to be lower-cased by the caller.
+     */
+    public List<String> complete(String prefix) {
+        if (prefix.isEmpty()) {
+            return new ArrayList<>(nameView);
+        }
+        int from = lowerBound(prefix);
+        int to = from;
+        while (to < size && compareIgnoreCase(names[to], prefix, prefix.length()) == 0) {
+            to++;
+        }
+        return new ArrayList<>(nameView.subList(from, to));
+    }
+
+    public String name(int index) {
+        return names[index];
+    }
+
+    public int worldId(int index) {
+        return world[index];
+    }
+
+    public double x(int index) {
+        return coords[index * 3];
+    }
+
+    public double y(int index) {
+        return coords[index * 3 + 1];
+    }
+
+    public double z(int index) {
+        return coords[index * 3 + 2];
+    }
+
+    public float yaw(int index) {
+        return angles[index * 2];
+    }
+
+    public float pitch(int index) {
+        return angles[index * 2 + 1];
+    }
+
+    private int insertionPoint(String name) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareIgnoreCase(names[mid], name, Integer.MAX_VALUE) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int lowerBound(String prefix) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareIgnoreCase(names[mid], prefix, prefix.length()) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Compares a stored (lower-case) name against the first `limit` chars of `other`, lower-casing on the fly
+    private static int compareIgnoreCase(String stored, String other, int limit) {
+        int otherLength = Math.min(other.length(), limit);
+        int length = Math.min(stored.length(), otherLength);
+        for (int i = 0; i < length; i++) {
+            char a = stored.charAt(i);
+            char b = Character.toLowerCase(other.charAt(i));
+            if (a != b) {
+                return a - b;
+            }
+        }
+        if (limit != Integer.MAX_VALUE && stored.length() >= otherLength) {
+            return 0; // stored name starts with the prefix
+        }
+        return stored.length() - otherLength;
+    }
+
+    private void grow() {
+        int capacity = names.length * 2;
+        names = Arrays.copyOf(names, capacity);
+        world = Arrays.copyOf(world, capacity);
+        coords = Arrays.copyOf(coords, capacity * 3);
+        angles = Arrays.copyOf(angles, capacity * 2);
+    }
+
+    private void refreshView() {
+        nameView = size == 0 ? Collections.emptyList()
+            : Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(names, size)));
+    }
+}
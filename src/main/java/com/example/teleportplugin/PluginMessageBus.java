@@ -0,0 +1,85 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.messaging.PluginMessageListener;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * Frames sent through the proxy on the BungeeCord plugin messaging channel
+ * (Velocity understands it too), wrapped in a Forward to all other servers.
+ * Plugin messages travel over player connections, so nothing goes out while
+ * this backend is empty; the proxy holds frames for empty backends until a
+ * player joins them.
+ */
+public class PluginMessageBus implements MessageBus, PluginMessageListener {
+    public static final String BUNGEE_CHANNEL = "BungeeCord";
+    // Messenger allows 32766 bytes; the Forward header takes the rest
+    private static final int MAX_FRAME_SIZE = 32000;
+
+    private final TeleportPlugin plugin;
+    private final String subchannel;
+    private Consumer<byte[]> receiver;
+
+    public PluginMessageBus(TeleportPlugin plugin, String subchannel) {
+        this.plugin = plugin;
+        this.subchannel = subchannel;
+    }
+
+    @Override
+    public void start(Consumer<byte[]> receiver) {
+        this.receiver = receiver;
+        plugin.getServer().getMessenger().registerIncomingPluginChannel(plugin, BUNGEE_CHANNEL, this);
+    }
+
+    @Override
+    public boolean publish(byte[] frame) {
+        Iterator<? extends Player> players = Bukkit.getOnlinePlayers().iterator();
+        if (!players.hasNext()) {
+            return false;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(frame.length + 32 + subchannel.length());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF("Forward");
+            out.writeUTF("ALL");
+            out.writeUTF(subchannel);
+            out.writeShort(frame.length);
+            out.write(frame);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        players.next().sendPluginMessage(plugin, BUNGEE_CHANNEL, bytes.toByteArray());
+        return true;
+    }
+
+    @Override
+    public int getMaxFrameSize() {
+        return MAX_FRAME_SIZE;
+    }
+
+    @Override
+    public void shutdown() {
+        plugin.getServer().getMessenger().unregisterIncomingPluginChannel(plugin, BUNGEE_CHANNEL, this);
+    }
+
+    @Override
+    public void onPluginMessageReceived(String channel, Player player, byte[] message) {
+        if (!BUNGEE_CHANNEL.equals(channel) || receiver == null) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(message))) {
+            // Replies to other BungeeCord requests share the channel
+            if (!subchannel.equals(in.readUTF())) {
+                return;
+            }
+            byte[] frame = new byte[in.readUnsignedShort()];
+            in.readFully(frame);
+            receiver.accept(frame);
+        } catch (IOException e) {
+            plugin.getLogger().warning("Dropped a malformed sync message from the proxy: " + e.getMessage());
+        }
+    }
+}
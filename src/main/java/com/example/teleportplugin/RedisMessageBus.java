@@ -0,0 +1,296 @@
+package com.example.teleportplugin;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Frames published on a Redis (or Redis-compatible: KeyDB, Valkey, Dragonfly)
+ * pub/sub channel. Speaks just enough of the wire protocol for AUTH, PUBLISH
+ * and SUBSCRIBE, so no client library is shaded in. One thread holds the
+ * subscription and reconnects with backoff when it drops; publishes go out in
+ * order on a second thread over their own connection. While the server is
+ * unreachable, or too many frames are still waiting to go out, publish
+ * refuses new frames so NetworkSync holds them (and drops the oldest) rather
+ * than this queue growing; a frame already taken is lost if it cannot be sent,
+ * but homes are still saved locally and the next change or join brings the
+ * other backends up to date.
+ */
+public class RedisMessageBus implements MessageBus {
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final long MAX_BACKOFF_MILLIS = 30000L;
+    // Frames handed to the publisher thread and not yet sent or given up
+    private static final int MAX_IN_FLIGHT = 16;
+
+    private final Logger logger;
+    private final String host;
+    private final int port;
+    private final String password;
+    private final byte[] channel;
+    private final ExecutorService publisher;
+    private volatile boolean running;
+    private volatile Connection subscription;
+    private Thread subscriber;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // Written by the publisher thread only
+    private volatile boolean publishFailing;
+    private Connection publishing;
+
+    public RedisMessageBus(Logger logger, String host, int port, String password, String channel) {
+        this.logger = logger;
+        this.host = host;
+        this.port = port;
+        this.password = password;
+        this.channel = channel.getBytes(StandardCharsets.UTF_8);
+        this.publisher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TeleportPlugin-Redis-Publish");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void start(Consumer<byte[]> receiver) {
+        running = true;
+        subscriber = new Thread(() -> subscribe(receiver), "TeleportPlugin-Redis-Subscribe");
+        subscriber.setDaemon(true);
+        subscriber.start();
+    }
+
+    @Override
+    public boolean publish(byte[] frame) {
+        // Tried again by the caller once a send gets through or the backlog clears
+        if (publishFailing && inFlight.get() > 0 || inFlight.get() >= MAX_IN_FLIGHT) {
+            return false;
+        }
+        inFlight.incrementAndGet();
+        publisher.execute(() -> {
+            try {
+                send(frame);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        });
+        return true;
+    }
+
+    // Publisher thread. While failing, only one frame at a time is let through, to find out when Redis is back
+    private void send(byte[] frame) {
+        // One retry on a fresh connection covers a server restart or an idle timeout
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                if (publishing == null) {
+                    publishing = connect();
+                }
+                publishing.command("PUBLISH".getBytes(StandardCharsets.US_ASCII), channel, frame);
+                publishing.read();
+                if (publishFailing) {
+                    publishFailing = false;
+                    logger.info("Publishing to Redis at " + host + ":" + port + " works again");
+                }
+                return;
+            } catch (IOException e) {
+                closeQuietly(publishing);
+                publishing = null;
+                if (attempt == 1 && !publishFailing) {
+                    publishFailing = true;
+                    logger.warning("Could not publish to Redis at " + host + ":" + port + ", sync messages are held back: "
+                        + e.getMessage());
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getMaxFrameSize() {
+        return 1 << 20;
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        closeQuietly(subscription);
+        if (subscriber != null) {
+            subscriber.interrupt();
+        }
+        publisher.shutdown();
+        try {
+            if (!publisher.awaitTermination(2L, TimeUnit.SECONDS)) {
+                publisher.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            publisher.shutdownNow();
+        }
+        closeQuietly(publishing);
+    }
+
+    private void subscribe(Consumer<byte[]> receiver) {
+        long backoff = 1000L;
+        boolean failing = false;
+        while (running) {
+            try (Connection connection = connect()) {
+                subscription = connection;
+                connection.command("SUBSCRIBE".getBytes(StandardCharsets.US_ASCII), channel);
+                connection.setReadTimeout(0);
+                if (failing) {
+                    failing = false;
+                    logger.info("Subscribed to Redis at " + host + ":" + port + " again");
+                }
+                backoff = 1000L;
+                while (running) {
+                    Object reply = connection.read();
+                    // ["message", channel, payload]; subscribe confirmations are skipped
+                    if (reply instanceof List && ((List<?>) reply).size() == 3
+                        && "message".equals(text(((List<?>) reply).get(0)))
+                        && ((List<?>) reply).get(2) instanceof byte[]) {
+                        receiver.accept((byte[]) ((List<?>) reply).get(2));
+                    }
+                }
+            } catch (IOException e) {
+                if (!running) {
+                    return;
+                }
+                if (!failing) {
+                    failing = true;
+                    logger.warning("Lost the Redis subscription at " + host + ":" + port + ", retrying: " + e.getMessage());
+                }
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(backoff * 2L, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    private Connection connect() throws IOException {
+        Connection connection = new Connection(host, port);
+        try {
+            if (!password.isEmpty()) {
+                connection.command("AUTH".getBytes(StandardCharsets.US_ASCII), password.getBytes(StandardCharsets.UTF_8));
+                connection.read();
+            }
+            return connection;
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private static String text(Object value) {
+        return value instanceof byte[] ? new String((byte[]) value, StandardCharsets.UTF_8) : String.valueOf(value);
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    /** One connection speaking RESP: commands are arrays of bulk strings, replies are parsed as they come. */
+    private static class Connection implements Closeable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final OutputStream out;
+
+        Connection(String host, int port) throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new BufferedOutputStream(socket.getOutputStream());
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        void setReadTimeout(int millis) throws IOException {
+            socket.setSoTimeout(millis);
+        }
+
+        void command(byte[]... args) throws IOException {
+            out.write(('*' + Integer.toString(args.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            for (byte[] arg : args) {
+                out.write(('$' + Integer.toString(arg.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(arg);
+                out.write('\r');
+                out.write('\n');
+            }
+            out.flush();
+        }
+
+        // Simple strings as String, integers as Long, bulk strings as byte[], arrays as List; errors throw
+        Object read() throws IOException {
+            int type = in.read();
+            if (type < 0) {
+                throw new EOFException("connection closed");
+            }
+            String line = readLine();
+            switch (type) {
+                case '+':
+                    return line;
+                case '-':
+                    throw new IOException("Redis replied: " + line);
+                case ':':
+                    return Long.parseLong(line);
+                case '$': {
+                    int length = Integer.parseInt(line);
+                    if (length < 0) {
+                        return null;
+                    }
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+                    readLine();
+                    return data;
+                }
+                case '*': {
+                    int count = Integer.parseInt(line);
+                    List<Object> items = new ArrayList<>(Math.max(0, count));
+                    for (int i = 0; i < count; i++) {
+                        items.add(read());
+                    }
+                    return items;
+                }
+                default:
+                    throw new IOException("unexpected reply type '" + (char) type + "'");
+            }
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int c = in.read(); c != '\r'; c = in.read()) {
+                if (c < 0) {
+                    throw new EOFException("connection closed");
+                }
+                line.append((char) c);
+            }
+            if (in.read() != '\n') {
+                throw new IOException("malformed reply line");
+            }
+            return line.toString();
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Already gone
+            }
+        }
+    }
+}
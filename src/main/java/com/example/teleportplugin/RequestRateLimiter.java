@@ -0,0 +1,65 @@
+package com.example.teleportplugin;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Per-sender token bucket measured in server ticks. A sender may burst up to
+ * {@code maxRequests}, after which one request is refilled every
+ * {@code windowTicks / maxRequests} ticks. Main thread only.
+ */
+public class RequestRateLimiter {
+    private final ExpiryService clock;
+    private final int maxRequests;
+    private final long ticksPerToken;
+    private final HashMap<UUID, Bucket> buckets = new HashMap<>();
+
+    public RequestRateLimiter(ExpiryService clock, int maxRequests, long windowTicks) {
+        this.clock = clock;
+        this.maxRequests = Math.max(1, maxRequests);
+        this.ticksPerToken = Math.max(1L, windowTicks / this.maxRequests);
+    }
+
+    public boolean tryAcquire(UUID sender) {
+        long now = clock.currentTick();
+        Bucket bucket = buckets.get(sender);
+        if (bucket == null) {
+            bucket = new Bucket(maxRequests, now);
+            buckets.put(sender, bucket);
+        } else {
+            long refilled = (now - bucket.lastRefill) / ticksPerToken;
+            if (refilled > 0) {
+                bucket.tokens = (int) Math.min(maxRequests, bucket.tokens + refilled);
+                bucket.lastRefill += refilled * ticksPerToken;
+            }
+        }
+        if (bucket.tokens == 0) {
+            return false;
+        }
+        bucket.tokens--;
+        return true;
+    }
+
+    // Ticks until the sender may send again; 0 if they can send now
+    public long ticksUntilNext(UUID sender) {
+        Bucket bucket = buckets.get(sender);
+        if (bucket == null || bucket.tokens > 0) {
+            return 0L;
+        }
+        return Math.max(0L, bucket.lastRefill + ticksPerToken - clock.currentTick());
+    }
+
+    public void forget(UUID sender) {
+        buckets.remove(sender);
+    }
+
+    private static class Bucket {
+        int tokens;
+        long lastRefill;
+
+        Bucket(int tokens, long lastRefill) {
+            this.tokens = tokens;
+            this.lastRefill = lastRefill;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.teleportplugin;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+
+import java.util.*;
+
+/**
+ * Finds a spot for a death chest. {@link #capture} takes chunk snapshots of
+ * the area around the death on the main thread; {@link #find} then searches
+ * them from any thread without touching the live world.
+ *
+ * A spot is safe when the block is air (or short grass), the block above is
+ * air and the block below is solid and not a hazard. Columns are searched in
+ * order of distance from the death location, and each column is scanned up and
+ * down from the death height. If no safe spot is found, a fallback spot is
+ * returned that never replaces a solid block and may need a support block,
+ * unless the player fell into the void over a column with no ground at all.
+ */
+public class SafeSpotFinder {
+    private static final Set<Material> REPLACEABLE = EnumSet.of(
+        Material.AIR, Material.CAVE_AIR, Material.SHORT_GRASS, Material.FERN, Material.SNOW);
+    private static final Set<Material> HAZARDS = EnumSet.of(
+        Material.MAGMA_BLOCK, Material.CACTUS, Material.FIRE, Material.SOUL_FIRE, Material.CAMPFIRE,
+        Material.SOUL_CAMPFIRE, Material.SWEET_BERRY_BUSH, Material.POWDER_SNOW, Material.WITHER_ROSE,
+        Material.POINTED_DRIPSTONE);
+
+    private final int radius;
+    private final int verticalRange;
+    private final int[] columnOffsets; // dx, dz pairs ordered by distance from the centre
+
+    public SafeSpotFinder(int radius, int verticalRange) {
+        this.radius = Math.max(0, radius);
+        this.verticalRange = Math.max(1, verticalRange);
+        this.columnOffsets = spiral(this.radius);
+    }
+
+    private static int[] spiral(int radius) {
+        List<int[]> columns = new ArrayList<>();
+        for (int dx = -radius; dx <= radius; dx++) {
+            for (int dz = -radius; dz <= radius; dz++) {
+                if (dx * dx + dz * dz <= radius * radius) {
+                    columns.add(new int[] {dx, dz});
+                }
+            }
+        }
+        columns.sort(Comparator.comparingInt(c -> c[0] * c[0] + c[1] * c[1]));
+        int[] offsets = new int[columns.size() * 2];
+        for (int i = 0; i < columns.size(); i++) {
+            offsets[i * 2] = columns.get(i)[0];
+            offsets[i * 2 + 1] = columns.get(i)[1];
+        }
+        return offsets;
+    }
+
+    /** Main thread: snapshots every loaded chunk within the search radius. */
+    public SearchArea capture(Location location) {
+        World world = location.getWorld();
+        int x = location.getBlockX();
+        int z = location.getBlockZ();
+        HashMap<Long, ChunkSnapshot> chunks = new HashMap<>();
+        for (int cx = (x - radius) >> 4; cx <= (x + radius) >> 4; cx++) {
+            for (int cz = (z - radius) >> 4; cz <= (z + radius) >> 4; cz++) {
+                if (world.isChunkLoaded(cx, cz)) {
+                    chunks.put(chunkKey(cx, cz), world.getChunkAt(cx, cz).getChunkSnapshot(true, false, false));
+                }
+            }
+        }
+        return new SearchArea(world.getName(), x, (int) Math.floor(location.getY()), z, world.getMinHeight(),
+            world.getMaxHeight(), world.getEnvironment() == World.Environment.NETHER, chunks);
+    }
+
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /** Any thread: searches the captured snapshots. Null only for a void death with no ground to build on. */
+    public Spot find(SearchArea area) {
+        int lowest = area.minY + 1;
+        int highest = area.maxY - 2;
+        // Deaths in the void start from the bottom of the world
+        int startY = Math.max(lowest, Math.min(highest, area.y));
+
+        for (int i = 0; i < columnOffsets.length; i += 2) {
+            int x = area.x + columnOffsets[i];
+            int z = area.z + columnOffsets[i + 1];
+            ChunkSnapshot chunk = area.chunkAt(x, z);
+            if (chunk == null) {
+                continue;
+            }
+            // Scan outwards from the death height: 0, +1, -1, +2, -2, ...
+            for (int step = 0; step <= verticalRange * 2; step++) {
+                int dy = (step & 1) == 0 ? -(step >> 1) : (step + 1) >> 1;
+                int y = startY + dy;
+                if (y >= lowest && y <= highest && isSafe(chunk, x, y, z)) {
+                    return new Spot(x, y, z, false);
+                }
+            }
+            // Deaths in mid-air or in the void: try the surface of the column,
+            // except in the nether where that would be the bedrock roof
+            if (!area.hasCeiling) {
+                int surface = chunk.getHighestBlockYAt(x & 15, z & 15) + 1;
+                if (surface >= lowest && surface <= highest && isSafe(chunk, x, surface, z)) {
+                    return new Spot(x, surface, z, false);
+                }
+            }
+        }
+        return fallback(area, lowest, highest, startY);
+    }
+
+    // No safe spot: use the death column, moving up past solid blocks so none is overwritten
+    private Spot fallback(SearchArea area, int lowest, int highest, int startY) {
+        ChunkSnapshot chunk = area.chunkAt(area.x, area.z);
+        int y = startY;
+        if (chunk != null) {
+            while (y < highest && !isReplaceableOrLiquid(chunk.getBlockType(area.x & 15, y, area.z & 15))) {
+                y++;
+            }
+        }
+        boolean needsSupport = chunk == null || y <= lowest
+            || !chunk.getBlockType(area.x & 15, y - 1, area.z & 15).isSolid();
+        // A chest at the bottom of an empty void column, like the End's outer void, could never be reached
+        if (needsSupport && area.y < area.minY) {
+            return null;
+        }
+        return new Spot(area.x, y, area.z, needsSupport);
+    }
+
+    private static boolean isSafe(ChunkSnapshot chunk, int x, int y, int z) {
+        int localX = x & 15;
+        int localZ = z & 15;
+        if (!REPLACEABLE.contains(chunk.getBlockType(localX, y, localZ))) {
+            return false;
+        }
+        Material above = chunk.getBlockType(localX, y + 1, localZ);
+        if (above != Material.AIR && above != Material.CAVE_AIR) {
+            return false;
+        }
+        Material below = chunk.getBlockType(localX, y - 1, localZ);
+        return below.isSolid() && !HAZARDS.contains(below);
+    }
+
+    private static boolean isReplaceableOrLiquid(Material material) {
+        return REPLACEABLE.contains(material) || material == Material.WATER || material == Material.LAVA
+            || material == Material.VOID_AIR;
+    }
+
+    /** Immutable snapshot of the blocks around a death; safe to pass between threads. */
+    public static class SearchArea {
+        final String worldName;
+        final int x, y, z;
+        final int minY, maxY;
+        final boolean hasCeiling;
+        private final Map<Long, ChunkSnapshot> chunks;
+
+        SearchArea(String worldName, int x, int y, int z, int minY, int maxY, boolean hasCeiling,
+                   Map<Long, ChunkSnapshot> chunks) {
+            this.worldName = worldName;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.minY = minY;
+            this.maxY = maxY;
+            this.hasCeiling = hasCeiling;
+            this.chunks = chunks;
+        }
+
+        ChunkSnapshot chunkAt(int blockX, int blockZ) {
+            return chunks.get(chunkKey(blockX >> 4, blockZ >> 4));
+        }
+    }
+
+    public static class Spot {
+        public final int x, y, z;
+        // True when the block below is not solid and a support block must be placed first
+        public final boolean needsSupport;
+
+        Spot(int x, int y, int z, boolean needsSupport) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.needsSupport = needsSupport;
+        }
+    }
+}
@@ -1,14 +1,18 @@
 package com.example.teleportplugin;
 
-import org.bukkit.Location;
 import org.bukkit.command.Command;
-import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
 import org.bukkit.entity.Player;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
+import java.util.regex.Pattern;
+
+public class SetHomeCommand implements TabExecutor {
+    private static final Pattern HOME_NAME = Pattern.compile("[A-Za-z0-9_-]{1,16}");
 
-public class SetHomeCommand implements CommandExecutor {
     private final TeleportPlugin plugin;
     public SetHomeCommand(TeleportPlugin plugin) {
         this.plugin = plugin;
@@ -21,8 +25,32 @@ public class SetHomeCommand implements CommandExecutor {
         }
         Player player = (Player) sender;
         UUID uuid = player.getUniqueId();
-        plugin.setHome(uuid, player.getLocation());
-        player.sendMessage("Home set!");
+        PlayerHomes homes = plugin.getHomeStore().getHomes(uuid);
+        if (homes == null) {
+            player.sendMessage("Your homes are still loading, try again in a moment.");
+            return true;
+        }
+        String name = args.length > 0 ? args[0] : HomeStore.DEFAULT_HOME;
+        if (!HOME_NAME.matcher(name).matches()) {
+            player.sendMessage("Home names may only use letters, digits, - and _ (max 16).");
+            return true;
+        }
+        if (homes.indexOf(name) < 0) {
+            int limit = plugin.getHomeStore().getHomeLimit(player);
+            if (limit >= 0 && homes.size() >= limit) {
+                player.sendMessage("You can only have " + limit + " home(s). Delete one with /delhome <name>.");
+                return true;
+            }
+        }
+        plugin.setHome(uuid, name, player.getLocation());
+        player.sendMessage(name.equalsIgnoreCase(HomeStore.DEFAULT_HOME) ? "Home set!" : "Home '" + name + "' set!");
         return true;
     }
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        if (!(sender instanceof Player) || args.length != 1) {
+            return Collections.emptyList();
+        }
+        return plugin.getHomeStore().completeHome(((Player) sender).getUniqueId(), args[0]);
+    }
 }
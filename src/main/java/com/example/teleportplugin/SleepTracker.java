@@ -0,0 +1,163 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.GameMode;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerBedEnterEvent;
+import org.bukkit.event.player.PlayerBedLeaveEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.*;
+
+/**
+ * Skips the night once {@code sleep.percentage} of a world's players are in
+ * bed. Sleepers are tracked per world as players enter and leave beds, quit
+ * or change worlds; a change only marks the world, and marked worlds are
+ * evaluated once at the next tick however many players moved. A skip then
+ * advances the clock by {@code sleep.skip-speed} per tick until morning.
+ * Spectators and players with sleeping ignored do not count.
+ */
+public class SleepTracker implements Listener {
+    private static final long DAY = 24000L;
+    private static final long NIGHT_START = 12542L; // earliest time beds can be used in clear weather
+
+    private final TeleportPlugin plugin;
+    private final double percentage;
+    private final long skipSpeed;
+    private final HashMap<UUID, WorldSleep> worlds = new HashMap<>();
+    private final LinkedHashSet<UUID> dirtyWorlds = new LinkedHashSet<>();
+    private BukkitTask tickTask;
+
+    public SleepTracker(TeleportPlugin plugin) {
+        this.plugin = plugin;
+        this.percentage = Math.max(0.0, Math.min(100.0, plugin.getConfig().getDouble("sleep.percentage", 50.0)));
+        this.skipSpeed = Math.max(1L, plugin.getConfig().getLong("sleep.skip-speed", 100L));
+    }
+
+    public void start() {
+        tickTask = plugin.getServer().getScheduler().runTaskTimer(plugin, plugin.getMetrics().timed("sleep", this::tick), 1L, 1L);
+    }
+
+    public void shutdown() {
+        if (tickTask != null) {
+            tickTask.cancel();
+            tickTask = null;
+        }
+        worlds.clear();
+        dirtyWorlds.clear();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerBedEnter(PlayerBedEnterEvent event) {
+        if (event.getBedEnterResult() == PlayerBedEnterEvent.BedEnterResult.OK) {
+            World world = event.getPlayer().getWorld();
+            worlds.computeIfAbsent(world.getUID(), k -> new WorldSleep()).sleepers.add(event.getPlayer().getUniqueId());
+            dirtyWorlds.add(world.getUID());
+        }
+    }
+
+    @EventHandler
+    public void onPlayerBedLeave(PlayerBedLeaveEvent event) {
+        leave(event.getPlayer().getUniqueId(), event.getPlayer().getWorld());
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        leave(event.getPlayer().getUniqueId(), event.getPlayer().getWorld());
+    }
+
+    @EventHandler
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        leave(event.getPlayer().getUniqueId(), event.getFrom());
+    }
+
+    // Also marks the world when the player was awake: one player fewer can tip the balance
+    private void leave(UUID player, World world) {
+        WorldSleep sleep = worlds.get(world.getUID());
+        if (sleep != null) {
+            sleep.sleepers.remove(player);
+        }
+        dirtyWorlds.add(world.getUID());
+    }
+
+    private void tick() {
+        if (!dirtyWorlds.isEmpty()) {
+            for (UUID id : dirtyWorlds) {
+                evaluate(id);
+            }
+            dirtyWorlds.clear();
+        }
+        Iterator<Map.Entry<UUID, WorldSleep>> it = worlds.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<UUID, WorldSleep> entry = it.next();
+            WorldSleep sleep = entry.getValue();
+            World world = Bukkit.getWorld(entry.getKey());
+            if (world == null) {
+                it.remove();
+            } else if (sleep.skipping) {
+                advance(world, sleep);
+            } else if (sleep.sleepers.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    private void evaluate(UUID id) {
+        WorldSleep sleep = worlds.get(id);
+        World world = Bukkit.getWorld(id);
+        if (sleep == null || world == null || sleep.skipping || sleep.sleepers.isEmpty()) {
+            return;
+        }
+        if (world.getTime() < NIGHT_START && !world.isThundering()) {
+            return;
+        }
+        int eligible = 0;
+        for (Player player : world.getPlayers()) {
+            if (!player.isSleepingIgnored() && player.getGameMode() != GameMode.SPECTATOR) {
+                eligible++;
+            }
+        }
+        int needed = Math.max(1, (int) Math.ceil(eligible * percentage / 100.0));
+        if (sleep.sleepers.size() < needed) {
+            return;
+        }
+        sleep.skipping = true;
+        sleep.morning = (world.getFullTime() / DAY + 1L) * DAY;
+        String message = ChatColor.YELLOW + "" + sleep.sleepers.size() + "/" + eligible + " players are sleeping, skipping the night...";
+        for (Player player : world.getPlayers()) {
+            player.sendMessage(message);
+        }
+    }
+
+    // Moves the clock forward a step; the last step lands exactly on the morning the skip aimed for
+    private void advance(World world, WorldSleep sleep) {
+        long time = world.getFullTime();
+        if (time + skipSpeed >= sleep.morning) {
+            // Vanilla may have skipped the night itself in the meantime; never go past its morning
+            if (time < sleep.morning) {
+                world.setFullTime(sleep.morning);
+            }
+            world.setStorm(false);
+            world.setThundering(false);
+            sleep.skipping = false;
+            for (Player player : world.getPlayers()) {
+                player.sendMessage(ChatColor.YELLOW + "Good morning! The night was skipped.");
+            }
+            return;
+        }
+        world.setFullTime(time + skipSpeed);
+    }
+
+    private static class WorldSleep {
+        final Set<UUID> sleepers = new HashSet<>();
+        boolean skipping;
+        long morning; // full time the current skip ends at
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.teleportplugin;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Places {@link StructureTemplate}s with physics off, at most
+ * {@code structures.blocks-per-tick} blocks per tick across all structures.
+ * A structure that fits in what is left of the current tick is placed right
+ * away; otherwise it is queued and continues on the following ticks. Chunks
+ * are never loaded for decoration: a structure reaching into an unloaded
+ * chunk waits at the back of the queue, and is given up after a while.
+ */
+public class StructurePlacer {
+    // About 10 seconds of waiting for the chunks around a structure to load
+    private static final int MAX_WAIT_TICKS = 200;
+
+    private final TeleportPlugin plugin;
+    private final int blocksPerTick;
+    private final ArrayDeque<Job> queue = new ArrayDeque<>();
+    private int placedThisTick;
+    private BukkitTask tickTask;
+
+    public StructurePlacer(TeleportPlugin plugin) {
+        this.plugin = plugin;
+        this.blocksPerTick = Math.max(1, plugin.getConfig().getInt("structures.blocks-per-tick", 64));
+    }
+
+    public void start() {
+        tickTask = plugin.getServer().getScheduler().runTaskTimer(plugin, plugin.getMetrics().timed("structure-placer", this::tick), 1L, 1L);
+    }
+
+    // Finishes queued structures so their callbacks still run
+    public void shutdown() {
+        if (tickTask != null) {
+            tickTask.cancel();
+            tickTask = null;
+        }
+        while (!queue.isEmpty()) {
+            Job job = queue.poll();
+            if (job.template.isLoaded(job.world, job.x, job.z)) {
+                run(job, Integer.MAX_VALUE);
+            }
+            job.done.accept(job.placed);
+        }
+    }
+
+    /** Places the template at the origin; {@code done} gets the blocks that were actually placed. */
+    public void place(World world, int x, int y, int z, StructureTemplate template, Consumer<List<Block>> done) {
+        Job job = new Job(world, x, y, z, template, done);
+        if (queue.isEmpty() && placedThisTick + template.size() <= blocksPerTick && template.isLoaded(world, x, z)) {
+            run(job, template.size());
+            done.accept(job.placed);
+        } else {
+            queue.add(job);
+        }
+    }
+
+    private void tick() {
+        placedThisTick = 0;
+        // Jobs sent to the back are each looked at once per tick
+        int waiting = 0;
+        while (!queue.isEmpty() && placedThisTick < blocksPerTick && waiting < queue.size()) {
+            Job job = queue.poll();
+            if (!job.template.isLoaded(job.world, job.x, job.z)) {
+                if (++job.waitedTicks >= MAX_WAIT_TICKS) {
+                    job.done.accept(job.placed);
+                } else {
+                    queue.add(job);
+                    waiting++;
+                }
+                continue;
+            }
+            if (run(job, blocksPerTick - placedThisTick)) {
+                job.done.accept(job.placed);
+            } else {
+                queue.addFirst(job);
+            }
+        }
+    }
+
+    // Places up to budget entries, all in loaded chunks; returns true once the job is finished
+    private boolean run(Job job, int budget) {
+        Block origin = job.world.getBlockAt(job.x, job.y, job.z);
+        int end = (int) Math.min(job.template.size(), (long) job.next + budget);
+        placedThisTick += end - job.next;
+        for (; job.next < end; job.next++) {
+            Block block = job.template.place(origin, job.next);
+            if (block != null) {
+                job.placed.add(block);
+            }
+        }
+        return job.next >= job.template.size();
+    }
+
+    private static class Job {
+        final World world;
+        final int x, y, z;
+        final StructureTemplate template;
+        final Consumer<List<Block>> done;
+        final List<Block> placed = new ArrayList<>();
+        int next;
+        int waitedTicks;
+
+        Job(World world, int x, int y, int z, StructureTemplate template, Consumer<List<Block>> done) {
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.template = template;
+            this.done = done;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+/**
+ * A small block structure read from config, placed relative to an origin by
+ * the {@link StructurePlacer}. Each entry is a map:
+ *
+ * <pre>
+ * - offset: [0, 1, -1]        # dx, dy, dz from the origin
+ *   block: stone_slab         # block data string, or a list to pick one at random
+ *   chance: 0.4               # optional, default 1
+ *   on: solid                 # optional: "solid" or a material required below
+ *   replace: air              # optional: "air" (default) or "passable"
+ * </pre>
+ *
+ * Entries are placed in order, so an entry may stand on one placed before it.
+ */
+public class StructureTemplate {
+    private final String name;
+    private final Entry[] entries;
+    // Horizontal bounds of the offsets, the origin included
+    private final int minDx, maxDx, minDz, maxDz;
+
+    private StructureTemplate(String name, Entry[] entries) {
+        this.name = name;
+        this.entries = entries;
+        int minX = 0, maxX = 0, minZ = 0, maxZ = 0;
+        for (Entry entry : entries) {
+            minX = Math.min(minX, entry.dx);
+            maxX = Math.max(maxX, entry.dx);
+            minZ = Math.min(minZ, entry.dz);
+            maxZ = Math.max(maxZ, entry.dz);
+        }
+        this.minDx = minX;
+        this.maxDx = maxX;
+        this.minDz = minZ;
+        this.maxDz = maxZ;
+    }
+
+    public static StructureTemplate fromConfig(String name, List<Map<?, ?>> config, Logger logger) {
+        List<Entry> entries = new ArrayList<>(config.size());
+        for (int i = 0; i < config.size(); i++) {
+            try {
+                entries.add(parse(config.get(i)));
+            } catch (IllegalArgumentException e) {
+                logger.warning("Skipping entry " + (i + 1) + " of structure '" + name + "': " + e.getMessage());
+            }
+        }
+        return new StructureTemplate(name, entries.toArray(new Entry[0]));
+    }
+
+    private static Entry parse(Map<?, ?> map) {
+        Object offset = map.get("offset");
+        if (!(offset instanceof List) || ((List<?>) offset).size() != 3) {
+            throw new IllegalArgumentException("offset must be [dx, dy, dz]");
+        }
+        List<?> xyz = (List<?>) offset;
+        int[] delta = new int[3];
+        for (int i = 0; i < 3; i++) {
+            if (!(xyz.get(i) instanceof Number)) {
+                throw new IllegalArgumentException("offset must be [dx, dy, dz]");
+            }
+            delta[i] = ((Number) xyz.get(i)).intValue();
+        }
+
+        Object block = map.get("block");
+        List<?> names = block instanceof List ? (List<?>) block : Collections.singletonList(block);
+        if (names.isEmpty() || names.contains(null)) {
+            throw new IllegalArgumentException("missing block");
+        }
+        BlockData[] choices = new BlockData[names.size()];
+        for (int i = 0; i < choices.length; i++) {
+            // Throws IllegalArgumentException for unknown blocks
+            choices[i] = Bukkit.createBlockData(names.get(i).toString().toLowerCase(Locale.ROOT));
+        }
+
+        Object chance = map.get("chance");
+        double probability = chance instanceof Number ? ((Number) chance).doubleValue() : 1.0;
+
+        boolean onSolid = false;
+        Material onType = null;
+        Object on = map.get("on");
+        if (on != null) {
+            if (on.toString().equalsIgnoreCase("solid")) {
+                onSolid = true;
+            } else {
+                onType = Material.matchMaterial(on.toString());
+                if (onType == null) {
+                    throw new IllegalArgumentException("unknown material '" + on + "'");
+                }
+            }
+        }
+
+        Object replace = map.get("replace");
+        boolean replacePassable = replace != null && replace.toString().equalsIgnoreCase("passable");
+        return new Entry(delta[0], delta[1], delta[2], choices, probability, onSolid, onType, replacePassable);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    /** Whether every chunk the template can touch around this origin is loaded. */
+    boolean isLoaded(World world, int x, int z) {
+        for (int chunkX = (x + minDx) >> 4; chunkX <= (x + maxDx) >> 4; chunkX++) {
+            for (int chunkZ = (z + minDz) >> 4; chunkZ <= (z + maxDz) >> 4; chunkZ++) {
+                if (!world.isChunkLoaded(chunkX, chunkZ)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Places entry {@code index} at the origin with physics off. Returns the
+     * block if it was placed, or null if its conditions were not met.
+     */
+    Block place(Block origin, int index) {
+        Entry entry = entries[index];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (entry.chance < 1.0 && random.nextDouble() >= entry.chance) {
+            return null;
+        }
+        Block block = origin.getRelative(entry.dx, entry.dy, entry.dz);
+        Material current = block.getType();
+        boolean free = current == Material.AIR || current == Material.CAVE_AIR
+            || (entry.replacePassable && !current.isSolid() && !block.isLiquid());
+        if (!free) {
+            return null;
+        }
+        if (entry.onSolid || entry.onType != null) {
+            Material below = block.getRelative(0, -1, 0).getType();
+            if (entry.onSolid ? !below.isSolid() : below != entry.onType) {
+                return null;
+            }
+        }
+        BlockData data = entry.choices.length == 1 ? entry.choices[0] : entry.choices[random.nextInt(entry.choices.length)];
+        block.setBlockData(data, false);
+        return block;
+    }
+
+    private static class Entry {
+        final int dx, dy, dz;
+        final BlockData[] choices;
+        final double chance;
+        final boolean onSolid;
+        final Material onType;
+        final boolean replacePassable;
+
+        Entry(int dx, int dy, int dz, BlockData[] choices, double chance, boolean onSolid, Material onType,
+              boolean replacePassable) {
+            this.dx = dx;
+            this.dy = dy;
+            this.dz = dz;
+            this.choices = choices;
+            this.chance = chance;
+            this.onSolid = onSolid;
+            this.onType = onType;
+            this.replacePassable = replacePassable;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Staged teleports. The destination chunk is loaded first, asynchronously
+ * with Paper's World#getChunkAtAsync when the server has it, otherwise through
+ * a plugin chunk ticket with only a few synchronous loads per tick. The player
+ * is moved on a later tick once the chunk is ready and the warmup has passed,
+ * with at most {@code teleport.max-per-tick} teleports per tick. A departure
+ * to another backend waits out the same warmup and then hands the player to
+ * the proxy instead.
+ */
+public class TeleportPipeline implements Listener {
+    private final TeleportPlugin plugin;
+    private final Method getChunkAtAsync;
+    private final LinkedHashMap<UUID, PendingTeleport> pending = new LinkedHashMap<>();
+    private final ArrayDeque<PendingTeleport> syncLoads = new ArrayDeque<>();
+    private final long warmupTicks;
+    private final boolean cancelOnMove;
+    private final int maxTeleportsPerTick;
+    private final int maxChunkLoadsPerTick;
+    private BukkitTask tickTask;
+
+    public TeleportPipeline(TeleportPlugin plugin) {
+        this.plugin = plugin;
+        this.warmupTicks = Math.max(0L, plugin.getConfig().getLong("teleport.warmup-seconds", 3L) * 20L);
+        this.cancelOnMove = plugin.getConfig().getBoolean("teleport.cancel-on-move", true);
+        this.maxTeleportsPerTick = Math.max(1, plugin.getConfig().getInt("teleport.max-per-tick", 5));
+        this.maxChunkLoadsPerTick = Math.max(1, plugin.getConfig().getInt("teleport.max-chunk-loads-per-tick", 2));
+        this.getChunkAtAsync = findAsyncChunkLoader();
+    }
+
+    private static Method findAsyncChunkLoader() {
+        try {
+            return World.class.getMethod("getChunkAtAsync", int.class, int.class, boolean.class);
+        } catch (NoSuchMethodException e) {
+            return null; // Spigot: fall back to ticket-based loading
+        }
+    }
+
+    public void start() {
+        tickTask = plugin.getServer().getScheduler().runTaskTimer(plugin, plugin.getMetrics().timed("teleport-pipeline", this::tick), 1L, 1L);
+    }
+
+    public void shutdown() {
+        if (tickTask != null) {
+            tickTask.cancel();
+            tickTask = null;
+        }
+        for (PendingTeleport teleport : new ArrayList<>(pending.values())) {
+            cancel(teleport, null);
+        }
+    }
+
+    /**
+     * Queues a teleport, replacing any teleport the player already has pending.
+     * The success message is sent once the player has actually been moved.
+     */
+    public void teleport(Player player, Location destination, String successMessage) {
+        queue(player, destination.clone(), null, successMessage, hasNoWarmup(player));
+    }
+
+    /** Teleports without a warmup: for players arriving from another backend, who waited it out there. */
+    public void teleportNow(Player player, Location destination, String successMessage) {
+        queue(player, destination.clone(), null, successMessage, true);
+    }
+
+    /**
+     * Runs the departure once the warmup has passed, for teleports that take
+     * the player to another backend. The message is sent just before it.
+     */
+    public void depart(Player player, Runnable departure, String message) {
+        queue(player, null, departure, message, hasNoWarmup(player));
+    }
+
+    private boolean hasNoWarmup(Player player) {
+        return warmupTicks == 0L || player.hasPermission("teleportplugin.teleport.nowarmup");
+    }
+
+    private void queue(Player player, Location destination, Runnable departure, String successMessage, boolean instant) {
+        PendingTeleport previous = pending.get(player.getUniqueId());
+        if (previous != null) {
+            cancel(previous, null);
+        }
+        Location from = player.getLocation();
+        PendingTeleport teleport = new PendingTeleport(player.getUniqueId(), destination, departure, successMessage,
+            instant ? 0L : warmupTicks, from.getBlockX(), from.getBlockY(), from.getBlockZ());
+        pending.put(teleport.player, teleport);
+        if (destination != null) {
+            loadChunk(teleport);
+        }
+
+        if (!instant) {
+            player.sendMessage(ChatColor.GRAY + "Teleporting in " + (warmupTicks / 20L) + " seconds"
+                + (cancelOnMove ? ", don't move." : "."));
+        }
+    }
+
+    /** Teleports waiting for their warmup, their chunk or a free slot in a tick. */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public boolean cancel(UUID player, String reason) {
+        PendingTeleport teleport = pending.get(player);
+        if (teleport == null) {
+            return false;
+        }
+        cancel(teleport, reason);
+        return true;
+    }
+
+    private void cancel(PendingTeleport teleport, String reason) {
+        pending.remove(teleport.player, teleport);
+        syncLoads.remove(teleport);
+        teleport.cancelled = true;
+        releaseChunk(teleport);
+        if (reason != null) {
+            Player player = Bukkit.getPlayer(teleport.player);
+            if (player != null) {
+                player.sendMessage(ChatColor.RED + reason);
+            }
+        }
+    }
+
+    private void loadChunk(PendingTeleport teleport) {
+        World world = teleport.destination.getWorld();
+        int chunkX = teleport.destination.getBlockX() >> 4;
+        int chunkZ = teleport.destination.getBlockZ() >> 4;
+        if (world.isChunkLoaded(chunkX, chunkZ)) {
+            holdChunk(teleport);
+            return;
+        }
+        if (getChunkAtAsync != null) {
+            try {
+                CompletableFuture<?> future = (CompletableFuture<?>) getChunkAtAsync.invoke(world, chunkX, chunkZ, true);
+                future.whenComplete((chunk, error) -> onMainThread(() -> {
+                    if (teleport.cancelled) {
+                        return;
+                    }
+                    if (error != null) {
+                        cancel(teleport, "Could not load the destination.");
+                    } else {
+                        holdChunk(teleport);
+                    }
+                }));
+                return;
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                plugin.getLogger().warning("Async chunk loading failed, falling back to sync loads: " + e);
+            }
+        }
+        syncLoads.add(teleport);
+    }
+
+    // Paper usually completes chunk futures on the main thread already
+    private void onMainThread(Runnable task) {
+        if (Bukkit.isPrimaryThread()) {
+            task.run();
+        } else if (plugin.isEnabled()) {
+            plugin.getServer().getScheduler().runTask(plugin, task);
+        }
+    }
+
+    // The ticket keeps the chunk loaded until the player arrives; on Spigot adding it loads the chunk
+    private void holdChunk(PendingTeleport teleport) {
+        Location destination = teleport.destination;
+        destination.getWorld().addPluginChunkTicket(destination.getBlockX() >> 4, destination.getBlockZ() >> 4, plugin);
+        teleport.chunkHeld = true;
+    }
+
+    private void releaseChunk(PendingTeleport teleport) {
+        if (!teleport.chunkHeld) {
+            return;
+        }
+        teleport.chunkHeld = false;
+        Location destination = teleport.destination;
+        World world = destination.getWorld();
+        int chunkX = destination.getBlockX() >> 4;
+        int chunkZ = destination.getBlockZ() >> 4;
+        // Another pending teleport may still need the same chunk
+        for (PendingTeleport other : pending.values()) {
+            if (other.chunkHeld && other.destination.getWorld() == world
+                && other.destination.getBlockX() >> 4 == chunkX && other.destination.getBlockZ() >> 4 == chunkZ) {
+                return;
+            }
+        }
+        world.removePluginChunkTicket(chunkX, chunkZ, plugin);
+    }
+
+    private void tick() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < maxChunkLoadsPerTick && !syncLoads.isEmpty(); i++) {
+            holdChunk(syncLoads.poll());
+        }
+
+        int teleported = 0;
+        Iterator<PendingTeleport> iterator = pending.values().iterator();
+        List<PendingTeleport> moved = null;
+        while (iterator.hasNext()) {
+            PendingTeleport teleport = iterator.next();
+            Player player = Bukkit.getPlayer(teleport.player);
+            if (player == null) {
+                // Gone without a quit event reaching us; nobody to tell
+                iterator.remove();
+                cancel(teleport, null);
+                continue;
+            }
+            if (teleport.warmupLeft > 0L) {
+                if (cancelOnMove && hasMoved(player, teleport)) {
+                    (moved != null ? moved : (moved = new ArrayList<>())).add(teleport);
+                    continue;
+                }
+                teleport.warmupLeft--;
+            }
+            boolean ready = teleport.departure != null || teleport.chunkHeld;
+            if (teleport.warmupLeft > 0L || !ready || teleported >= maxTeleportsPerTick) {
+                continue;
+            }
+            iterator.remove();
+            teleported++;
+            if (teleport.departure != null) {
+                if (teleport.successMessage != null) {
+                    player.sendMessage(teleport.successMessage);
+                }
+                teleport.departure.run();
+                continue;
+            }
+            boolean arrived = player.teleport(teleport.destination);
+            releaseChunk(teleport);
+            if (!arrived) {
+                // Another plugin cancelled the PlayerTeleportEvent, or the player is riding something
+                player.sendMessage(ChatColor.RED + "Teleport failed.");
+            } else if (teleport.successMessage != null) {
+                player.sendMessage(teleport.successMessage);
+            }
+        }
+        if (moved != null) {
+            for (PendingTeleport teleport : moved) {
+                cancel(teleport, "Teleport cancelled because you moved.");
+            }
+        }
+    }
+
+    private static boolean hasMoved(Player player, PendingTeleport teleport) {
+        Location location = player.getLocation();
+        return location.getBlockX() != teleport.startX || location.getBlockY() != teleport.startY
+            || location.getBlockZ() != teleport.startZ;
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        cancel(event.getPlayer().getUniqueId(), null);
+    }
+
+    private static class PendingTeleport {
+        final UUID player;
+        // Null for a departure to another backend
+        final Location destination;
+        final Runnable departure;
+        final String successMessage;
+        final int startX, startY, startZ;
+        long warmupLeft;
+        boolean chunkHeld;
+        boolean cancelled;
+
+        PendingTeleport(UUID player, Location destination, Runnable departure, String successMessage, long warmupTicks,
+                        int startX, int startY, int startZ) {
+            this.player = player;
+            this.destination = destination;
+            this.departure = departure;
+            this.successMessage = successMessage;
+            this.warmupLeft = warmupTicks;
+            this.startX = startX;
+            this.startY = startY;
+            this.startZ = startZ;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.*;
+
+/**
+ * Pending /tp and /tpahere requests. A target may hold several incoming
+ * requests; a sender has at most one outgoing request, and sending a new one
+ * replaces it. Every request expires after a TTL scheduled on the shared
+ * {@link ExpiryService}. Either player may be on another backend of the
+ * network, in which case {@link NetworkSync} keeps the request in step with
+ * that backend's copy. Main thread only, like the timing wheel behind it;
+ * async callers hop over with the scheduler.
+ */
+public class TeleportRequestRegistry implements Listener {
+    private final TeleportPlugin plugin;
+    private final ExpiryService expiry;
+    private final HashMap<UUID, LinkedHashMap<UUID, TeleportRequest>> incoming = new HashMap<>();
+    private final HashMap<UUID, TeleportRequest> outgoing = new HashMap<>();
+    private final long ttlTicks;
+
+    public TeleportRequestRegistry(TeleportPlugin plugin, ExpiryService expiry) {
+        this.plugin = plugin;
+        this.expiry = expiry;
+        this.ttlTicks = plugin.getConfig().getLong("teleport.request-timeout-seconds", 60L) * 20L;
+    }
+
+    public TeleportRequest add(UUID from, UUID to, boolean here) {
+        return add(from, to, here, null);
+    }
+
+    /** Adds a request whose other player is on the given backend; null when both are here. */
+    public TeleportRequest add(UUID from, UUID to, boolean here, String server) {
+        TeleportRequest previous = outgoing.get(from);
+        if (previous != null) {
+            // A remote sender's backend has already withdrawn its copy of the previous request
+            if (Bukkit.getPlayer(from) != null) {
+                withdraw(previous);
+            } else {
+                remove(previous);
+            }
+        }
+        TeleportRequest request = new TeleportRequest(from, to, here, server);
+        request.timeout = expiry.schedule(ttlTicks, () -> expire(request));
+        outgoing.put(from, request);
+        incoming.computeIfAbsent(to, k -> new LinkedHashMap<>()).put(from, request);
+        return request;
+    }
+
+    // Most recent request sent to this player, or null
+    public TeleportRequest getLatest(UUID to) {
+        LinkedHashMap<UUID, TeleportRequest> requests = incoming.get(to);
+        if (requests == null || requests.isEmpty()) {
+            return null;
+        }
+        TeleportRequest latest = null;
+        for (TeleportRequest request : requests.values()) {
+            latest = request;
+        }
+        return latest;
+    }
+
+    public TeleportRequest get(UUID to, UUID from) {
+        LinkedHashMap<UUID, TeleportRequest> requests = incoming.get(to);
+        return requests != null ? requests.get(from) : null;
+    }
+
+    public Collection<TeleportRequest> getIncoming(UUID to) {
+        LinkedHashMap<UUID, TeleportRequest> requests = incoming.get(to);
+        return requests != null ? requests.values() : Collections.emptyList();
+    }
+
+    /** Senders with a request outstanding. */
+    public int getOutgoingCount() {
+        return outgoing.size();
+    }
+
+    /** Targets with at least one request waiting; an emptied entry would be a leak. */
+    public int getIncomingCount() {
+        return incoming.size();
+    }
+
+    public void remove(TeleportRequest request) {
+        request.timeout.cancel();
+        outgoing.remove(request.from, request);
+        LinkedHashMap<UUID, TeleportRequest> requests = incoming.get(request.to);
+        if (requests != null) {
+            requests.remove(request.from, request);
+            if (requests.isEmpty()) {
+                incoming.remove(request.to);
+            }
+        }
+    }
+
+    // Removes a request and tells the other player's backend, if it has a copy
+    private void withdraw(TeleportRequest request) {
+        remove(request);
+        if (request.server != null && plugin.getNetworkSync() != null) {
+            plugin.getNetworkSync().cancel(request);
+        }
+    }
+
+    // Both backends hold a copy of a cross-server request and let it expire on their own
+    private void expire(TeleportRequest request) {
+        remove(request);
+        Player from = Bukkit.getPlayer(request.from);
+        Player to = Bukkit.getPlayer(request.to);
+        String fromName = from != null ? from.getName() : nameOf(request.from);
+        String toName = to != null ? to.getName() : nameOf(request.to);
+        if (from != null) {
+            from.sendMessage(ChatColor.GRAY + "Your teleport request to " + (toName != null ? toName : "that player") + " expired.");
+        }
+        if (to != null && fromName != null) {
+            to.sendMessage(ChatColor.GRAY + "The teleport request from " + fromName + " expired.");
+        }
+    }
+
+    // Name of a player on another backend, or null
+    private String nameOf(UUID uuid) {
+        NetworkSync sync = plugin.getNetworkSync();
+        return sync != null ? sync.getPlayerName(uuid) : null;
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        UUID uuid = event.getPlayer().getUniqueId();
+        TeleportRequest sent = outgoing.get(uuid);
+        if (sent != null) {
+            withdraw(sent);
+        }
+        LinkedHashMap<UUID, TeleportRequest> received = incoming.get(uuid);
+        if (received != null) {
+            for (TeleportRequest request : new ArrayList<>(received.values())) {
+                withdraw(request);
+            }
+        }
+    }
+
+    public static class TeleportRequest {
+        public final UUID from;
+        public final UUID to;
+        // true for /tpahere: the target is brought to the sender
+        public final boolean here;
+        // Backend of whichever player is not on this one; null when both are here
+        public final String server;
+        private TimingWheel.Timeout timeout;
+
+        public TeleportRequest(UUID from, UUID to, boolean here) {
+            this(from, to, here, null);
+        }
+
+        public TeleportRequest(UUID from, UUID to, boolean here, String server) {
+            this.from = from;
+            this.to = to;
+            this.here = here;
+            this.server = server;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.teleportplugin;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
+import org.bukkit.command.TabExecutor;
+
+import java.util.List;
+
+/**
+ * Decorates a command executor, recording how long each {@code onCommand}
+ * takes. Tab completion is passed through untimed, so wrapping an executor
+ * that completes its own arguments keeps it working.
+ */
+public class TimedCommandExecutor implements TabExecutor {
+    private final CommandExecutor delegate;
+    private final LatencyHistogram histogram;
+
+    public TimedCommandExecutor(CommandExecutor delegate, LatencyHistogram histogram) {
+        this.delegate = delegate;
+        this.histogram = histogram;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        long start = System.nanoTime();
+        try {
+            return delegate.onCommand(sender, command, label, args);
+        } finally {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    // null makes Bukkit fall back to player names, as it does for executors that don't complete
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        return delegate instanceof TabCompleter ? ((TabCompleter) delegate).onTabComplete(sender, command, alias, args) : null;
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.teleportplugin;
+
+import java.util.ArrayList;
+
+/**
+ * Hashed timing wheel measured in server ticks. Scheduling and cancelling are
+ * O(1); each {@link #advance()} only looks at one bucket. Entries further away
+ * than one revolution stay in their bucket and are skipped until due.
+ *
+ * Not thread-safe: schedule, cancel and advance from the main thread.
+ */
+public class TimingWheel {
+    private final Entry[] buckets;
+    private final int mask;
+    private final ArrayList<Entry> due = new ArrayList<>();
+    private long tick;
+    private int size;
+
+    public TimingWheel(int bucketCount) {
+        int capacity = Integer.highestOneBit(Math.max(2, bucketCount - 1)) << 1;
+        this.buckets = new Entry[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public long currentTick() {
+        return tick;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Runs the task after the given number of ticks (at least one). */
+    public Timeout schedule(long delayTicks, Runnable task) {
+        Entry entry = new Entry(tick + Math.max(1L, delayTicks), task);
+        link(entry);
+        return entry;
+    }
+
+    /** Moves the wheel forward one tick and runs every task that became due. */
+    public void advance() {
+        tick++;
+        int index = (int) (tick & mask);
+        Entry entry = buckets[index];
+        while (entry != null) {
+            Entry next = entry.next;
+            if (entry.deadline <= tick) {
+                unlink(entry);
+                due.add(entry);
+            }
+            entry = next;
+        }
+        // Run after the scan so tasks may freely schedule or cancel other entries
+        for (int i = 0; i < due.size(); i++) {
+            Entry fired = due.get(i);
+            if (fired.state == Entry.PENDING) {
+                fired.state = Entry.EXPIRED;
+                fired.task.run();
+            }
+        }
+        due.clear();
+    }
+
+    private void link(Entry entry) {
+        int index = (int) (entry.deadline & mask);
+        entry.bucket = index;
+        entry.next = buckets[index];
+        if (entry.next != null) {
+            entry.next.prev = entry;
+        }
+        buckets[index] = entry;
+        size++;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            buckets[entry.bucket] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+        entry.bucket = -1;
+        size--;
+    }
+
+    public interface Timeout {
+        /** Returns false if the task already ran or was cancelled. */
+        boolean cancel();
+
+        boolean isPending();
+    }
+
+    private final class Entry implements Timeout {
+        static final int PENDING = 0;
+        static final int EXPIRED = 1;
+        static final int CANCELLED = 2;
+
+        final long deadline;
+        final Runnable task;
+        int state = PENDING;
+        int bucket = -1;
+        Entry prev;
+        Entry next;
+
+        Entry(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (state != PENDING) {
+                return false;
+            }
+            state = CANCELLED;
+            if (bucket >= 0) {
+                unlink(this);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isPending() {
+            return state == PENDING;
+        }
+    }
+}
@@ -2,13 +2,13 @@ package com.example.teleportplugin;
 
 import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
-import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
 import org.bukkit.entity.Player;
 
-import java.util.UUID;
+import java.util.List;
 
-public class TpAcceptCommand implements CommandExecutor {
+public class TpAcceptCommand implements TabExecutor {
     private final TeleportPlugin plugin;
     public TpAcceptCommand(TeleportPlugin plugin) {
         this.plugin = plugin;
@@ -20,21 +20,31 @@ public class TpAcceptCommand implements CommandExecutor {
             return true;
         }
         Player target = (Player) sender;
-        TeleportPlugin.TeleportRequest request = plugin.getTeleportRequest(target.getUniqueId());
+        TeleportRequestRegistry.TeleportRequest request = TpDenyCommand.findRequest(plugin, target, args);
         if (request == null) {
-            target.sendMessage("No teleport request to accept.");
+            return true;
+        }
+        plugin.getTeleportRequests().remove(request);
+        if (request.server != null) {
+            plugin.getNetworkSync().accept(request, target);
             return true;
         }
         Player from = Bukkit.getPlayer(request.from);
         if (from == null || !from.isOnline()) {
             target.sendMessage("Requesting player is not online.");
-            plugin.removeTeleportRequest(target.getUniqueId());
             return true;
         }
-        from.teleport(target.getLocation());
-        from.sendMessage("Teleported to " + target.getName() + "!");
-        target.sendMessage("Teleport request accepted.");
-        plugin.removeTeleportRequest(target.getUniqueId());
+        if (request.here) {
+            plugin.getTeleportPipeline().teleport(target, from.getLocation(), "Teleported to " + from.getName() + "!");
+            from.sendMessage(target.getName() + " accepted your request.");
+        } else {
+            plugin.getTeleportPipeline().teleport(from, target.getLocation(), "Teleported to " + target.getName() + "!");
+            target.sendMessage("Teleport request accepted.");
+        }
         return true;
     }
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        return TpDenyCommand.completeRequesters(plugin, sender, args);
+    }
 }
@@ -26,16 +26,20 @@ public class TpCommand implements CommandExecutor {
         Player player = (Player) sender;
         Player target = Bukkit.getPlayer(args[0]);
         if (target == null || !target.isOnline()) {
-            player.sendMessage("Player not found.");
+            // Maybe on another server of the network
+            NetworkSync sync = plugin.getNetworkSync();
+            if (sync == null || !sync.request(player, args[0], false)) {
+                player.sendMessage("Player not found.");
+            }
             return true;
         }
         if (player.getUniqueId().equals(target.getUniqueId())) {
             player.sendMessage("You cannot teleport to yourself.");
             return true;
         }
-        plugin.addTeleportRequest(player.getUniqueId(), target.getUniqueId());
+        plugin.getTeleportRequests().add(player.getUniqueId(), target.getUniqueId(), false);
         player.sendMessage("Teleport request sent to " + target.getName() + ".");
-        target.sendMessage(player.getName() + " wants to teleport to you. Type /tpaccept to allow.");
+        target.sendMessage(player.getName() + " wants to teleport to you. Type /tpaccept to allow or /tpdeny to refuse.");
         return true;
     }
 }
@@ -0,0 +1,84 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+public class TpDenyCommand implements TabExecutor {
+    private final TeleportPlugin plugin;
+    public TpDenyCommand(TeleportPlugin plugin) {
+        this.plugin = plugin;
+    }
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (!(sender instanceof Player)) {
+            sender.sendMessage("Only players can use this command.");
+            return true;
+        }
+        Player target = (Player) sender;
+        TeleportRequestRegistry.TeleportRequest request = findRequest(plugin, target, args);
+        if (request == null) {
+            return true;
+        }
+        plugin.getTeleportRequests().remove(request);
+        if (request.server != null) {
+            plugin.getNetworkSync().deny(request, target);
+            return true;
+        }
+        Player from = Bukkit.getPlayer(request.from);
+        if (from != null) {
+            from.sendMessage(target.getName() + " denied your teleport request.");
+        }
+        target.sendMessage("Teleport request denied.");
+        return true;
+    }
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        return completeRequesters(plugin, sender, args);
+    }
+
+    // Picks the request named in args[0], or the most recent one; tells the player when there is none
+    static TeleportRequestRegistry.TeleportRequest findRequest(TeleportPlugin plugin, Player target, String[] args) {
+        TeleportRequestRegistry requests = plugin.getTeleportRequests();
+        if (args.length == 0) {
+            TeleportRequestRegistry.TeleportRequest latest = requests.getLatest(target.getUniqueId());
+            if (latest == null) {
+                target.sendMessage("You have no pending teleport requests.");
+            }
+            return latest;
+        }
+        Player from = Bukkit.getPlayer(args[0]);
+        UUID fromId = from != null ? from.getUniqueId() : null;
+        if (fromId == null && plugin.getNetworkSync() != null) {
+            fromId = plugin.getNetworkSync().findPlayerId(args[0]);
+        }
+        TeleportRequestRegistry.TeleportRequest request = fromId != null ? requests.get(target.getUniqueId(), fromId) : null;
+        if (request == null) {
+            target.sendMessage("No teleport request from " + args[0] + ".");
+        }
+        return request;
+    }
+
+    static List<String> completeRequesters(TeleportPlugin plugin, CommandSender sender, String[] args) {
+        if (!(sender instanceof Player) || args.length != 1) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<>();
+        for (TeleportRequestRegistry.TeleportRequest request : plugin.getTeleportRequests().getIncoming(((Player) sender).getUniqueId())) {
+            Player from = Bukkit.getPlayer(request.from);
+            String name = from != null ? from.getName()
+                : plugin.getNetworkSync() != null ? plugin.getNetworkSync().getPlayerName(request.from) : null;
+            if (name != null && name.regionMatches(true, 0, args[0], 0, args[0].length())) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+}
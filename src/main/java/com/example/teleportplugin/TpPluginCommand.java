@@ -0,0 +1,79 @@
+package com.example.teleportplugin;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+
+import java.util.List;
+import java.util.Locale;
+
+public class TpPluginCommand implements CommandExecutor {
+    private static final int STATS_LINES = 10;
+
+    private final TeleportPlugin plugin;
+
+    public TpPluginCommand(TeleportPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (!sender.hasPermission("teleportplugin.admin")) {
+            sender.sendMessage(ChatColor.RED + "You don't have permission to use this command.");
+            return true;
+        }
+        if (args.length == 0) {
+            sender.sendMessage(ChatColor.YELLOW + "Usage: /tpplugin <reload|stats [reset|filter]>");
+            return true;
+        }
+        switch (args[0].toLowerCase()) {
+            case "reload":
+                plugin.reloadSettings();
+                sender.sendMessage(ChatColor.GREEN + "TeleportPlugin configuration reloaded.");
+                return true;
+            case "stats":
+                showStats(sender, args.length > 1 ? args[1] : null);
+                return true;
+            default:
+                sender.sendMessage(ChatColor.YELLOW + "Usage: /tpplugin <reload|stats [reset|filter]>");
+                return true;
+        }
+    }
+
+    // Busiest handlers by total time; an argument other than reset narrows the list to names containing it
+    private void showStats(CommandSender sender, String arg) {
+        Metrics metrics = plugin.getMetrics();
+        if (!metrics.isEnabled()) {
+            sender.sendMessage(ChatColor.YELLOW + "Metrics are disabled; set metrics.enabled: true in config.yml and restart.");
+            return;
+        }
+        if ("reset".equalsIgnoreCase(arg)) {
+            metrics.reset();
+            sender.sendMessage(ChatColor.GREEN + "Metrics reset.");
+            return;
+        }
+        List<Metrics.Row> rows = metrics.snapshot();
+        if (arg != null) {
+            String filter = arg.toLowerCase(Locale.ROOT);
+            rows.removeIf(row -> !row.name.toLowerCase(Locale.ROOT).contains(filter));
+        }
+        if (rows.isEmpty()) {
+            sender.sendMessage(ChatColor.YELLOW + "No calls recorded yet.");
+            return;
+        }
+        sender.sendMessage(ChatColor.GOLD + "=== TeleportPlugin stats (calls, /s, p50/p99/max ms) ===");
+        for (Metrics.Row row : rows.subList(0, Math.min(STATS_LINES, rows.size()))) {
+            sender.sendMessage(ChatColor.YELLOW + row.name + ChatColor.WHITE + String.format(Locale.ROOT,
+                " %d, %.2f/s, %s/%s/%s", row.count, row.rate, millis(row.latency.percentile(50.0)),
+                millis(row.latency.percentile(99.0)), millis(row.latency.maxNanos)));
+        }
+        if (rows.size() > STATS_LINES) {
+            sender.sendMessage(ChatColor.GRAY + "... and " + (rows.size() - STATS_LINES) + " more; the full set is in the metrics dump.");
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+}
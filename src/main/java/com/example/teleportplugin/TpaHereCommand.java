@@ -0,0 +1,43 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+public class TpaHereCommand implements CommandExecutor {
+    private final TeleportPlugin plugin;
+    public TpaHereCommand(TeleportPlugin plugin) {
+        this.plugin = plugin;
+    }
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (!(sender instanceof Player)) {
+            sender.sendMessage("Only players can use this command.");
+            return true;
+        }
+        if (args.length != 1) {
+            sender.sendMessage("Usage: /tpahere <player>");
+            return true;
+        }
+        Player player = (Player) sender;
+        Player target = Bukkit.getPlayer(args[0]);
+        if (target == null || !target.isOnline()) {
+            // Maybe on another server of the network
+            NetworkSync sync = plugin.getNetworkSync();
+            if (sync == null || !sync.request(player, args[0], true)) {
+                player.sendMessage("Player not found.");
+            }
+            return true;
+        }
+        if (player.getUniqueId().equals(target.getUniqueId())) {
+            player.sendMessage("You cannot teleport to yourself.");
+            return true;
+        }
+        plugin.getTeleportRequests().add(player.getUniqueId(), target.getUniqueId(), true);
+        player.sendMessage("Request sent to " + target.getName() + " to teleport to you.");
+        target.sendMessage(player.getName() + " wants you to teleport to them. Type /tpaccept to allow or /tpdeny to refuse.");
+        return true;
+    }
+}
@@ -2,13 +2,22 @@ package com.example.teleportplugin;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.Material;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
 import java.util.UUID;
 
 public class TradeCommand implements CommandExecutor {
+    private static final int HISTORY_PAGE_SIZE = 8;
+    private static final DateTimeFormatter HISTORY_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")
+        .withZone(ZoneId.systemDefault());
+
     private final TradeManager tradeManager;
 
     public TradeCommand(TradeManager tradeManager) {
@@ -17,6 +26,11 @@ public class TradeCommand implements CommandExecutor {
 
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        // Moderators may look up history from the console too
+        if (args.length > 0 && args[0].equalsIgnoreCase("history")) {
+            return handleHistory(sender, args);
+        }
+
         if (!(sender instanceof Player)) {
             sender.sendMessage(ChatColor.RED + "Only players can use this command.");
             return true;
@@ -25,7 +39,7 @@ public class TradeCommand implements CommandExecutor {
         Player player = (Player) sender;
 
         if (args.length == 0) {
-            player.sendMessage(ChatColor.YELLOW + "Usage: /trade <player> | /trade accept | /trade cancel");
+            player.sendMessage(ChatColor.YELLOW + "Usage: /trade <player> | /trade accept | /trade cancel | /trade reopen | /trade history <player>");
             return true;
         }
 
@@ -34,11 +48,110 @@ public class TradeCommand implements CommandExecutor {
                 return handleTradeAccept(player);
             case "cancel":
                 return handleTradeCancel(player);
+            case "reopen":
+                if (!tradeManager.reopen(player)) {
+                    player.sendMessage(ChatColor.RED + "You have no trade to return to.");
+                }
+                return true;
             default:
                 return handleTradeRequest(player, args[0]);
         }
     }
 
+    // /trade history <player> [material] [since] [page]; the optional arguments go in any order
+    private boolean handleHistory(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("teleportplugin.trade.history")) {
+            sender.sendMessage(ChatColor.RED + "You don't have permission to view trade history.");
+            return true;
+        }
+        if (args.length < 2) {
+            sender.sendMessage(ChatColor.YELLOW + "Usage: /trade history <player> [material] [since] [page]");
+            sender.sendMessage(ChatColor.GRAY + "since: a duration like 30m, 12h, 7d, 1d12h or a date like 2024-05-01");
+            return true;
+        }
+        String target = args[1];
+        Material material = null;
+        long since = 0L;
+        String sinceArg = null;
+        int page = 1;
+        for (int i = 2; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.matches("\\d+")) {
+                page = Math.max(1, Integer.parseInt(arg));
+                continue;
+            }
+            long parsed = TradeHistory.parseSince(arg, System.currentTimeMillis());
+            if (parsed >= 0L) {
+                since = parsed;
+                sinceArg = arg;
+                continue;
+            }
+            Material match = Material.matchMaterial(arg);
+            if (match == null) {
+                sender.sendMessage(ChatColor.RED + "Unknown material, duration or page: " + arg);
+                return true;
+            }
+            material = match;
+        }
+
+        int currentPage = page;
+        Material filter = material;
+        String from = sinceArg;
+        tradeManager.getHistory().query(target, material, since, page, HISTORY_PAGE_SIZE, result -> {
+            if (result.player == null) {
+                sender.sendMessage(ChatColor.RED + "No trades recorded for " + target + ".");
+                return;
+            }
+            if (result.entries.isEmpty()) {
+                sender.sendMessage(ChatColor.YELLOW + (currentPage > 1 ? "No more trades." : "No matching trades for " + target + "."));
+                return;
+            }
+            sender.sendMessage(ChatColor.GOLD + "Trade history for " + target
+                + (filter != null ? " with " + filter.name() : "") + " (page " + currentPage + ")");
+            for (TradeHistory.Entry entry : result.entries) {
+                sendEntry(sender, entry);
+            }
+            if (result.more) {
+                StringBuilder next = new StringBuilder("/trade history ").append(target);
+                if (filter != null) {
+                    next.append(' ').append(filter.name().toLowerCase());
+                }
+                if (from != null) {
+                    // A relative duration shifts a little between pages; close enough for browsing
+                    next.append(' ').append(from);
+                }
+                next.append(' ').append(currentPage + 1);
+                sender.sendMessage(ChatColor.GRAY + "More: " + ChatColor.WHITE + next);
+            }
+        });
+        return true;
+    }
+
+    private static void sendEntry(CommandSender sender, TradeHistory.Entry entry) {
+        String outcome = entry.outcome == TradeHistory.COMPLETED ? ChatColor.GREEN + "completed" : ChatColor.RED + "cancelled";
+        sender.sendMessage(ChatColor.GRAY + HISTORY_DATE.format(Instant.ofEpochMilli(entry.time)) + " " + outcome
+            + ChatColor.WHITE + " " + entry.name1 + " ↔ " + entry.name2);
+        sender.sendMessage(ChatColor.GRAY + "  " + entry.name1 + ": " + ChatColor.WHITE + describe(entry.items1));
+        sender.sendMessage(ChatColor.GRAY + "  " + entry.name2 + ": " + ChatColor.WHITE + describe(entry.items2));
+    }
+
+    private static String describe(List<TradeHistory.ItemSummary> items) {
+        if (items.isEmpty()) {
+            return "nothing";
+        }
+        StringBuilder text = new StringBuilder();
+        for (TradeHistory.ItemSummary item : items) {
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            text.append(item.amount).append("x ").append(item.material);
+            if (!item.displayName.isEmpty()) {
+                text.append(" \"").append(item.displayName).append(ChatColor.WHITE).append('"');
+            }
+        }
+        return text.toString();
+    }
+
     private boolean handleTradeRequest(Player player, String targetName) {
         Player target = Bukkit.getPlayer(targetName);
         if (target == null || !target.isOnline()) {
@@ -62,7 +175,11 @@ public class TradeCommand implements CommandExecutor {
             return true;
         }
 
-        tradeManager.sendTradeRequest(player.getUniqueId(), target.getUniqueId());
+        if (!tradeManager.sendTradeRequest(player.getUniqueId(), target.getUniqueId())) {
+            player.sendMessage(ChatColor.RED + "You are sending trade requests too fast. Try again in "
+                + tradeManager.getRequestCooldownSeconds(player.getUniqueId()) + "s.");
+            return true;
+        }
         player.sendMessage(ChatColor.GREEN + "Trade request sent to " + target.getName() + ".");
         target.sendMessage(ChatColor.YELLOW + player.getName() + " wants to trade with you!");
         target.sendMessage(ChatColor.YELLOW + "Type " + ChatColor.WHITE + "/trade accept" + ChatColor.YELLOW + " to accept or " + ChatColor.WHITE + "/trade cancel" + ChatColor.YELLOW + " to decline.");
@@ -94,7 +211,10 @@ public class TradeCommand implements CommandExecutor {
             return true;
         }
 
-        tradeManager.startTrade(requesterUUID, player.getUniqueId());
+        if (!tradeManager.startTrade(requesterUUID, player.getUniqueId())) {
+            player.sendMessage(ChatColor.RED + "One of you is already in a trade.");
+            return true;
+        }
         player.sendMessage(ChatColor.GREEN + "Trade started with " + requester.getName() + "!");
         player.sendMessage(ChatColor.YELLOW + "Place items on your side (left), then click your ready button when ready.");
         requester.sendMessage(ChatColor.GREEN + "Trade started with " + player.getName() + "!");
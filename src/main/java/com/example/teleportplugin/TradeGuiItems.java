@@ -0,0 +1,83 @@
+package com.example.teleportplugin;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prebuilt items for the trade window, shared by every session. The filler
+ * and cancel button are built once; ready buttons carry the player's name, so
+ * one set per name is kept in a small LRU. Inventory#setItem copies what it
+ * is given, so these stacks are never modified after they are built.
+ * Main thread only.
+ */
+public class TradeGuiItems {
+    public enum ReadyState { NOT_READY, READY, CONFIRMED }
+
+    private static final int MAX_CACHED_NAMES = 128;
+
+    private static final List<String> NOT_READY_LORE = Arrays.asList(
+        ChatColor.GRAY + "Click when ready to trade");
+    private static final List<String> READY_LORE = Arrays.asList(
+        ChatColor.GRAY + "This player is ready",
+        ChatColor.GRAY + "Click again to confirm",
+        ChatColor.RED + "Warning: Double check the items!");
+    private static final List<String> CONFIRMED_LORE = Arrays.asList(
+        ChatColor.GRAY + "This player has confirmed the trade",
+        ChatColor.GRAY + "Click to unready");
+
+    private ItemStack filler;
+    private ItemStack cancelButton;
+    private final LinkedHashMap<String, ItemStack[]> readyButtons = new LinkedHashMap<String, ItemStack[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ItemStack[]> eldest) {
+            return size() > MAX_CACHED_NAMES;
+        }
+    };
+
+    // Built on first use: ItemMeta needs a running server
+    public ItemStack filler() {
+        if (filler == null) {
+            filler = build(Material.GRAY_STAINED_GLASS_PANE, " ", null);
+        }
+        return filler;
+    }
+
+    public ItemStack cancelButton() {
+        if (cancelButton == null) {
+            cancelButton = build(Material.BARRIER, ChatColor.RED + "Cancel Trade",
+                Arrays.asList(ChatColor.GRAY + "Click to cancel the trade"));
+        }
+        return cancelButton;
+    }
+
+    public ItemStack readyButton(String playerName, ReadyState state) {
+        ItemStack[] buttons = readyButtons.get(playerName);
+        if (buttons == null) {
+            buttons = new ItemStack[] {
+                build(Material.RED_WOOL, ChatColor.RED + playerName + " - NOT READY", NOT_READY_LORE),
+                build(Material.GOLD_BLOCK, ChatColor.YELLOW + playerName + " - READY", READY_LORE),
+                build(Material.EMERALD_BLOCK, ChatColor.GREEN + playerName + " - CONFIRMED", CONFIRMED_LORE)
+            };
+            readyButtons.put(playerName, buttons);
+        }
+        return buttons[state.ordinal()];
+    }
+
+    private static ItemStack build(Material material, String name, List<String> lore) {
+        ItemStack item = new ItemStack(material);
+        ItemMeta meta = item.getItemMeta();
+        meta.setDisplayName(name);
+        if (lore != null) {
+            meta.setLore(lore);
+        }
+        item.setItemMeta(meta);
+        return item;
+    }
+}
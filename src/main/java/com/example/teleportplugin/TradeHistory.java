@@ -0,0 +1,472 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only history of finished trades in trades/history/seg-N.log. Each
+ * record is a [length][crc32][payload] frame holding the time, outcome, both
+ * players and a summary (material, amount, display name) of what each side
+ * put in. A segment is closed once it passes {@code trade.history.segment-kb}
+ * and never written again.
+ *
+ * Only the indexes live in memory: for every player and every material a
+ * sorted list of record positions ({@code segment << 32 | offset}). They are
+ * rebuilt by streaming the segments once at startup. A query walks the
+ * player's list, or its intersection with the material's, from the newest
+ * record backwards and reads just the records it needs from disk. Everything here
+ * runs on the I/O thread; callers get their results back on the main thread.
+ */
+public class TradeHistory {
+    public static final byte COMPLETED = 1;
+    public static final byte CANCELLED = 2;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("seg-(\\d+)\\.log");
+    private static final Pattern DURATION = Pattern.compile("(\\d+)([smhdw])");
+
+    private final TeleportPlugin plugin;
+    private final IoThread io;
+    private final File directory;
+    private final long segmentBytes;
+
+    // I/O thread
+    private final HashMap<UUID, LongList> byPlayer = new HashMap<>();
+    private final EnumMap<Material, LongList> byMaterial = new EnumMap<>(Material.class);
+    private final HashMap<String, UUID> byName = new HashMap<>();
+    private FileChannel channel;
+    private int segment;
+    private long segmentSize;
+
+    public TradeHistory(TeleportPlugin plugin, IoThread io) {
+        this.plugin = plugin;
+        this.io = io;
+        this.directory = new File(new File(plugin.getDataFolder(), "trades"), "history");
+        this.segmentBytes = Math.max(64L, plugin.getConfig().getLong("trade.history.segment-kb", 4096L)) * 1024L;
+    }
+
+    // Builds the indexes in the background; queries queue up behind it
+    public void start() {
+        io.execute(() -> {
+            try {
+                load();
+            } catch (IOException e) {
+                plugin.getLogger().severe("Could not read the trade history: " + e.getMessage());
+            }
+        });
+    }
+
+    public void shutdown() {
+        io.execute(() -> {
+            if (channel != null) {
+                try {
+                    channel.force(false);
+                    channel.close();
+                } catch (IOException e) {
+                    plugin.getLogger().warning("Could not close the trade history: " + e.getMessage());
+                }
+                channel = null;
+            }
+        });
+    }
+
+    /** Records a finished trade; the items are summarized now, on the main thread. */
+    public void record(byte outcome, UUID player1, String name1, List<ItemStack> items1,
+                       UUID player2, String name2, List<ItemStack> items2) {
+        Entry entry = new Entry(System.currentTimeMillis(), outcome, player1, name1, summarize(items1),
+            player2, name2, summarize(items2));
+        io.execute(() -> append(entry));
+    }
+
+    private static List<ItemSummary> summarize(List<ItemStack> items) {
+        List<ItemSummary> summaries = new ArrayList<>(items.size());
+        for (ItemStack item : items) {
+            String name = "";
+            if (item.hasItemMeta()) {
+                ItemMeta meta = item.getItemMeta();
+                if (meta.hasDisplayName()) {
+                    name = meta.getDisplayName();
+                }
+            }
+            summaries.add(new ItemSummary(item.getType().name(), item.getAmount(), name));
+        }
+        return summaries;
+    }
+
+    /**
+     * Finds trades of one player, newest first, optionally only those with the
+     * material on either side and only those since the given time. Skips
+     * {@code page - 1} pages of {@code pageSize} matches and hands the next
+     * page (plus whether more follow) to {@code done} on the main thread.
+     */
+    public void query(String player, Material material, long since, int page, int pageSize, Consumer<Page> done) {
+        io.execute(() -> {
+            Page result = findOrEmpty(player, material, since, page, pageSize);
+            if (plugin.isEnabled()) {
+                plugin.getServer().getScheduler().runTask(plugin, () -> done.accept(result));
+            }
+        });
+    }
+
+    private Page findOrEmpty(String player, Material material, long since, int page, int pageSize) {
+        try {
+            return find(player, material, since, page, pageSize);
+        } catch (IOException e) {
+            plugin.getLogger().warning("Trade history query failed: " + e.getMessage());
+            return new Page(null, Collections.emptyList(), false);
+        }
+    }
+
+    private Page find(String player, Material material, long since, int page, int pageSize) throws IOException {
+        UUID id = byName.get(player.toLowerCase(Locale.ROOT));
+        if (id == null) {
+            try {
+                id = UUID.fromString(player);
+            } catch (IllegalArgumentException e) {
+                return new Page(null, Collections.emptyList(), false);
+            }
+        }
+        LongList refs = byPlayer.getOrDefault(id, LongList.EMPTY);
+        if (material != null) {
+            refs = refs.intersect(byMaterial.getOrDefault(material, LongList.EMPTY));
+        }
+        int skip = Math.max(0, page - 1) * pageSize;
+        List<Entry> entries = new ArrayList<>(pageSize);
+        boolean more = false;
+        HashMap<Integer, RandomAccessFile> files = new HashMap<>();
+        try {
+            for (int i = refs.size - 1; i >= 0; i--) {
+                Entry entry = read(files, refs.data[i]);
+                if (entry == null) {
+                    continue;
+                }
+                // Positions follow append order, so everything further back is older still
+                if (entry.time < since) {
+                    break;
+                }
+                if (skip > 0) {
+                    skip--;
+                } else if (entries.size() < pageSize) {
+                    entries.add(entry);
+                } else {
+                    more = true;
+                    break;
+                }
+            }
+        } finally {
+            for (RandomAccessFile file : files.values()) {
+                file.close();
+            }
+        }
+        return new Page(id, entries, more);
+    }
+
+    private Entry read(Map<Integer, RandomAccessFile> files, long ref) throws IOException {
+        int seg = (int) (ref >>> 32);
+        RandomAccessFile file = files.get(seg);
+        if (file == null) {
+            file = new RandomAccessFile(segmentFile(seg), "r");
+            files.put(seg, file);
+        }
+        file.seek(ref & 0xFFFFFFFFL);
+        int length = file.readInt();
+        int checksum = file.readInt();
+        byte[] payload = new byte[length];
+        file.readFully(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        return Entry.decode(new DataInputStream(new ByteArrayInputStream(payload)));
+    }
+
+    // Streams every segment once, indexing records; a torn record at the end is cut off
+    private void load() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create " + directory);
+        }
+        TreeSet<Integer> segments = new TreeSet<>();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                Matcher matcher = SEGMENT_NAME.matcher(name);
+                if (matcher.matches()) {
+                    segments.add(Integer.parseInt(matcher.group(1)));
+                }
+            }
+        }
+        int records = 0;
+        long validEnd = 0L;
+        for (int seg : segments) {
+            long offset = 0L;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segmentFile(seg))))) {
+                while (true) {
+                    byte[] payload = readFrame(in);
+                    if (payload == null) {
+                        break;
+                    }
+                    index(Entry.decode(new DataInputStream(new ByteArrayInputStream(payload))), (long) seg << 32 | offset);
+                    offset += 8 + payload.length;
+                    records++;
+                }
+            }
+            validEnd = offset;
+        }
+        segment = segments.isEmpty() ? 0 : segments.last();
+        channel = FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (channel.size() > validEnd) {
+            plugin.getLogger().warning("Trade history: dropping a partial record at the end of " + segmentFile(segment).getName());
+            channel.truncate(validEnd);
+        }
+        segmentSize = validEnd;
+        channel.position(validEnd);
+        if (records > 0) {
+            plugin.getLogger().info("Trade history: indexed " + records + " trade(s) in " + segments.size() + " segment(s)");
+        }
+    }
+
+    private void append(Entry entry) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            if (segmentSize >= segmentBytes) {
+                channel.force(false);
+                channel.close();
+                segment++;
+                segmentSize = 0L;
+                channel = FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                entry.encode(out);
+            }
+            byte[] payload = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+            ByteBuffer buffer = ByteBuffer.allocate(8 + payload.length);
+            buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+            long ref = (long) segment << 32 | segmentSize;
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            segmentSize += 8 + payload.length;
+            index(entry, ref);
+        } catch (IOException e) {
+            plugin.getLogger().warning("Could not write the trade history: " + e.getMessage());
+        }
+    }
+
+    private void index(Entry entry, long ref) {
+        byPlayer.computeIfAbsent(entry.player1, k -> new LongList()).add(ref);
+        byPlayer.computeIfAbsent(entry.player2, k -> new LongList()).add(ref);
+        byName.put(entry.name1.toLowerCase(Locale.ROOT), entry.player1);
+        byName.put(entry.name2.toLowerCase(Locale.ROOT), entry.player2);
+        indexItems(entry.items1, ref);
+        indexItems(entry.items2, ref);
+    }
+
+    private void indexItems(List<ItemSummary> items, long ref) {
+        for (ItemSummary item : items) {
+            Material material = Material.getMaterial(item.material);
+            if (material != null) {
+                // add() ignores the same record twice in a row
+                byMaterial.computeIfAbsent(material, k -> new LongList()).add(ref);
+            }
+        }
+    }
+
+    private File segmentFile(int seg) {
+        return new File(directory, "seg-" + seg + ".log");
+    }
+
+    private static byte[] readFrame(DataInputStream in) throws IOException {
+        int length;
+        int checksum;
+        try {
+            length = in.readInt();
+            checksum = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 0 || length > (1 << 20)) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        try {
+            in.readFully(payload);
+        } catch (EOFException e) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+        return (int) crc.getValue() == checksum ? payload : null;
+    }
+
+    /**
+     * Parses a "since" argument: a duration back from now ({@code 30m},
+     * {@code 12h}, {@code 7d}, {@code 2w}, combinable as {@code 1d12h}) or a
+     * date ({@code 2024-05-01}). Returns -1 if it is neither.
+     */
+    public static long parseSince(String text, long now) {
+        Matcher matcher = DURATION.matcher(text.toLowerCase(Locale.ROOT));
+        long millis = 0L;
+        int end = 0;
+        while (matcher.find() && matcher.start() == end) {
+            long amount = Long.parseLong(matcher.group(1));
+            switch (matcher.group(2)) {
+                case "s": millis += amount * 1000L; break;
+                case "m": millis += amount * 60_000L; break;
+                case "h": millis += amount * 3_600_000L; break;
+                case "d": millis += amount * 86_400_000L; break;
+                default: millis += amount * 604_800_000L;
+            }
+            end = matcher.end();
+        }
+        if (end > 0 && end == text.length()) {
+            return now - millis;
+        }
+        try {
+            return java.time.LocalDate.parse(text).atStartOfDay(java.time.ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (java.time.format.DateTimeParseException e) {
+            return -1L;
+        }
+    }
+
+    /** One page of query results; {@code player} is null if the name is unknown. */
+    public static final class Page {
+        public final UUID player;
+        public final List<Entry> entries;
+        public final boolean more;
+
+        Page(UUID player, List<Entry> entries, boolean more) {
+            this.player = player;
+            this.entries = entries;
+            this.more = more;
+        }
+    }
+
+    public static final class Entry {
+        public final long time;
+        public final byte outcome;
+        public final UUID player1;
+        public final String name1;
+        public final List<ItemSummary> items1;
+        public final UUID player2;
+        public final String name2;
+        public final List<ItemSummary> items2;
+
+        Entry(long time, byte outcome, UUID player1, String name1, List<ItemSummary> items1,
+              UUID player2, String name2, List<ItemSummary> items2) {
+            this.time = time;
+            this.outcome = outcome;
+            this.player1 = player1;
+            this.name1 = name1;
+            this.items1 = items1;
+            this.player2 = player2;
+            this.name2 = name2;
+            this.items2 = items2;
+        }
+
+        void encode(DataOutputStream out) throws IOException {
+            out.writeLong(time);
+            out.writeByte(outcome);
+            writeSide(out, player1, name1, items1);
+            writeSide(out, player2, name2, items2);
+        }
+
+        static Entry decode(DataInputStream in) throws IOException {
+            long time = in.readLong();
+            byte outcome = in.readByte();
+            UUID player1 = new UUID(in.readLong(), in.readLong());
+            String name1 = in.readUTF();
+            List<ItemSummary> items1 = readItems(in);
+            UUID player2 = new UUID(in.readLong(), in.readLong());
+            String name2 = in.readUTF();
+            List<ItemSummary> items2 = readItems(in);
+            return new Entry(time, outcome, player1, name1, items1, player2, name2, items2);
+        }
+
+        private static void writeSide(DataOutputStream out, UUID player, String name, List<ItemSummary> items)
+                throws IOException {
+            out.writeLong(player.getMostSignificantBits());
+            out.writeLong(player.getLeastSignificantBits());
+            out.writeUTF(name);
+            out.writeShort(items.size());
+            for (ItemSummary item : items) {
+                out.writeUTF(item.material);
+                out.writeShort(item.amount);
+                out.writeUTF(item.displayName);
+            }
+        }
+
+        private static List<ItemSummary> readItems(DataInputStream in) throws IOException {
+            int count = in.readUnsignedShort();
+            List<ItemSummary> items = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                items.add(new ItemSummary(in.readUTF(), in.readShort(), in.readUTF()));
+            }
+            return items;
+        }
+    }
+
+    public static final class ItemSummary {
+        public final String material;
+        public final int amount;
+        public final String displayName; // empty if the item was not renamed
+
+        ItemSummary(String material, int amount, String displayName) {
+            this.material = material;
+            this.amount = amount;
+            this.displayName = displayName;
+        }
+    }
+
+    // Growable sorted long[]; positions are only ever appended in increasing order
+    private static final class LongList {
+        static final LongList EMPTY = new LongList();
+
+        long[] data = new long[4];
+        int size;
+
+        void add(long value) {
+            if (size > 0 && data[size - 1] == value) {
+                return;
+            }
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        LongList intersect(LongList other) {
+            LongList result = new LongList();
+            int i = 0;
+            int j = 0;
+            while (i < size && j < other.size) {
+                if (data[i] < other.data[j]) {
+                    i++;
+                } else if (data[i] > other.data[j]) {
+                    j++;
+                } else {
+                    result.add(data[i]);
+                    i++;
+                    j++;
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.Tag;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Decides which items may go into a trade window, from the rules under
+ * {@code trade.filter}. The rules are compiled once into flat tables: banned
+ * materials and the materials of every listed tag become one bitset over
+ * Material ordinals, per-material stack limits an {@code int[]} by ordinal,
+ * and the meta predicates hash sets. Checking an item is a bit test and an
+ * array read; its meta is only looked at when meta rules exist.
+ * {@link #reload} compiles a fresh set and swaps it in.
+ */
+public class TradeItemFilter {
+    private final Logger logger;
+    private volatile Rules rules = Rules.NONE;
+
+    public TradeItemFilter(Logger logger) {
+        this.logger = logger;
+    }
+
+    /** Compiles the rules in the section; a missing section allows everything. */
+    public void reload(ConfigurationSection section) {
+        rules = section != null ? compile(section) : Rules.NONE;
+    }
+
+    public boolean isAllowed(ItemStack item) {
+        return item == null || isAllowed(item, item.getAmount());
+    }
+
+    /** Whether a stack of {@code amount} of this item may sit in an offer slot. */
+    public boolean isAllowed(ItemStack item, int amount) {
+        if (item == null || item.getType() == Material.AIR) {
+            return true;
+        }
+        Rules current = rules;
+        int ordinal = item.getType().ordinal();
+        if ((current.banned[ordinal >>> 6] >>> ordinal & 1L) != 0L) {
+            return false;
+        }
+        if (amount > current.maxAmount[ordinal]) {
+            return false;
+        }
+        if (current.hasMetaRules && item.hasItemMeta()) {
+            ItemMeta meta = item.getItemMeta();
+            if (meta.hasCustomModelData() && current.customModelData.contains(meta.getCustomModelData())) {
+                return false;
+            }
+            if (!current.dataKeys.isEmpty()) {
+                for (NamespacedKey key : meta.getPersistentDataContainer().getKeys()) {
+                    if (current.dataKeys.contains(key.getNamespace() + ":" + key.getKey())) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private Rules compile(ConfigurationSection section) {
+        Material[] materials = Material.values();
+        long[] banned = new long[(materials.length + 63) >>> 6];
+        for (String name : section.getStringList("materials")) {
+            Material material = Material.matchMaterial(name);
+            if (material == null) {
+                logger.warning("Trade filter: unknown material '" + name + "'");
+                continue;
+            }
+            banned[material.ordinal() >>> 6] |= 1L << material.ordinal();
+        }
+        for (String name : section.getStringList("tags")) {
+            NamespacedKey key = NamespacedKey.fromString(name.toLowerCase(Locale.ROOT));
+            Tag<Material> tag = key != null ? Bukkit.getTag(Tag.REGISTRY_ITEMS, key, Material.class) : null;
+            if (tag == null) {
+                logger.warning("Trade filter: unknown item tag '" + name + "'");
+                continue;
+            }
+            for (Material material : tag.getValues()) {
+                banned[material.ordinal() >>> 6] |= 1L << material.ordinal();
+            }
+        }
+
+        int[] maxAmount = new int[materials.length];
+        Arrays.fill(maxAmount, Integer.MAX_VALUE);
+        ConfigurationSection limits = section.getConfigurationSection("max-amount");
+        if (limits != null) {
+            for (String name : limits.getKeys(false)) {
+                Material material = Material.matchMaterial(name);
+                if (material == null) {
+                    logger.warning("Trade filter: unknown material '" + name + "' in max-amount");
+                    continue;
+                }
+                maxAmount[material.ordinal()] = Math.max(0, limits.getInt(name));
+            }
+        }
+
+        HashSet<Integer> customModelData = new HashSet<>(section.getIntegerList("custom-model-data"));
+        HashSet<String> dataKeys = new HashSet<>();
+        for (String name : section.getStringList("data-keys")) {
+            String key = name.toLowerCase(Locale.ROOT);
+            dataKeys.add(key.indexOf(':') >= 0 ? key : "minecraft:" + key);
+        }
+        return new Rules(banned, maxAmount, customModelData, dataKeys);
+    }
+
+    // Immutable once built, so readers never see a half-compiled set
+    private static final class Rules {
+        static final Rules NONE = new Rules(new long[(Material.values().length + 63) >>> 6],
+            filled(Material.values().length), Collections.emptySet(), Collections.emptySet());
+
+        final long[] banned;
+        final int[] maxAmount;
+        final Set<Integer> customModelData;
+        final Set<String> dataKeys;
+        final boolean hasMetaRules;
+
+        Rules(long[] banned, int[] maxAmount, Set<Integer> customModelData, Set<String> dataKeys) {
+            this.banned = banned;
+            this.maxAmount = maxAmount;
+            this.customModelData = customModelData;
+            this.dataKeys = dataKeys;
+            this.hasMetaRules = !customModelData.isEmpty() || !dataKeys.isEmpty();
+        }
+
+        private static int[] filled(int length) {
+            int[] table = new int[length];
+            Arrays.fill(table, Integer.MAX_VALUE);
+            return table;
+        }
+    }
+}
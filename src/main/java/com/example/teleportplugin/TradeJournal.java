@@ -0,0 +1,541 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log for trades, in trades/journal.log. Every open trade records
+ * what each side has put into the window; a commit records both offers before
+ * a single item moves and waits until that record is on disk. On startup
+ * {@link #recover} replays interrupted commits and rolls back trades that
+ * never committed. Items that cannot be handed over right away, because the
+ * player is offline, wait in a mailbox that is also journaled and delivered
+ * on join.
+ *
+ * Records are buffered on the main thread and written by the I/O thread once
+ * per tick. Offers and commits force the file to disk, every one in that
+ * batch sharing the one fsync, and their callbacks then save the players'
+ * data: recovery trusts the journal over a player file, so a player file must
+ * never still hold items the journal already has in a window or handed over.
+ * Other records are synced every {@code trade.journal.sync-interval-ticks}.
+ */
+public class TradeJournal implements Listener {
+    private static final byte OPEN = 1;
+    private static final byte OFFER = 2;
+    private static final byte COMMIT = 3;
+    private static final byte DONE = 4;
+    private static final byte CANCEL = 5;
+    private static final byte MAIL = 6;
+    private static final byte MAILED = 7;
+    private static final long COMPACT_AFTER_BYTES = 4L << 20;
+
+    private final TeleportPlugin plugin;
+    private final IoThread io;
+    private final File file;
+    private final long syncIntervalTicks;
+
+    // Main thread
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private List<Runnable> afterSync = new ArrayList<>();
+    private boolean flushScheduled;
+    private final HashSet<UUID> openTrades = new HashSet<>();
+    private final HashMap<UUID, List<byte[]>> mailbox = new HashMap<>();
+    private long writtenBytes;
+    private BukkitTask syncTask;
+
+    // I/O thread
+    private FileChannel channel;
+    private boolean unsynced;
+
+    public TradeJournal(TeleportPlugin plugin, IoThread io) {
+        this.plugin = plugin;
+        this.io = io;
+        this.file = new File(new File(plugin.getDataFolder(), "trades"), "journal.log");
+        this.syncIntervalTicks = Math.max(1L, plugin.getConfig().getLong("trade.journal.sync-interval-ticks", 20L));
+    }
+
+    /**
+     * Called once from onEnable before any trade can start. Reads the journal,
+     * turns every unfinished trade into mail, rewrites the journal with just
+     * the mailbox and opens it for appending.
+     */
+    public void recover() throws IOException {
+        HashMap<UUID, RecoveredTrade> trades = new LinkedHashMap<>();
+        if (file.isFile()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                byte[] payload;
+                while ((payload = readFrame(in)) != null) {
+                    replay(new DataInputStream(new ByteArrayInputStream(payload)), trades);
+                }
+            }
+        }
+        int replayed = 0;
+        int rolledBack = 0;
+        for (RecoveredTrade trade : trades.values()) {
+            if (trade.finished) {
+                continue;
+            }
+            if (trade.committed) {
+                // The commit was on disk, so the trade happened: hand each side the other's items
+                queueMail(trade.player2, trade.commit1);
+                queueMail(trade.player1, trade.commit2);
+                replayed++;
+            } else {
+                queueMail(trade.player1, trade.offer1);
+                queueMail(trade.player2, trade.offer2);
+                rolledBack++;
+            }
+        }
+        if (replayed > 0 || rolledBack > 0) {
+            plugin.getLogger().info("Trade journal: replayed " + replayed + " and rolled back " + rolledBack
+                + " unfinished trade(s)");
+        }
+        rewrite(encodeMailbox());
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        writtenBytes = channel.size();
+        syncTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::syncIfNeeded, syncIntervalTicks, syncIntervalTicks);
+
+        // After a reload the owners may already be online
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            deliverMail(player);
+        }
+    }
+
+    private void replay(DataInputStream in, Map<UUID, RecoveredTrade> trades) throws IOException {
+        byte type = in.readByte();
+        UUID id = readUuid(in);
+        switch (type) {
+            case OPEN:
+                trades.put(id, new RecoveredTrade(readUuid(in), readUuid(in)));
+                break;
+            case OFFER: {
+                RecoveredTrade trade = trades.get(id);
+                boolean right = in.readBoolean();
+                byte[] blob = readBlob(in);
+                if (trade != null) {
+                    if (right) {
+                        trade.offer2 = blob;
+                    } else {
+                        trade.offer1 = blob;
+                    }
+                }
+                break;
+            }
+            case COMMIT: {
+                RecoveredTrade trade = trades.get(id);
+                byte[] commit1 = readBlob(in);
+                byte[] commit2 = readBlob(in);
+                if (trade != null) {
+                    trade.committed = true;
+                    trade.commit1 = commit1;
+                    trade.commit2 = commit2;
+                }
+                break;
+            }
+            case DONE:
+            case CANCEL: {
+                RecoveredTrade trade = trades.get(id);
+                if (trade != null) {
+                    trade.finished = true;
+                }
+                break;
+            }
+            case MAIL:
+                // For mail records the id is the recipient
+                queueMail(id, readBlob(in));
+                break;
+            case MAILED:
+                mailbox.remove(id);
+                break;
+            default:
+                throw new IOException("unknown record type " + type);
+        }
+    }
+
+    private void queueMail(UUID player, byte[] blob) {
+        if (player != null && blob != null && blob.length > 0) {
+            mailbox.computeIfAbsent(player, k -> new ArrayList<>()).add(blob);
+        }
+    }
+
+    private byte[] encodeMailbox() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Map.Entry<UUID, List<byte[]>> entry : mailbox.entrySet()) {
+            for (byte[] blob : entry.getValue()) {
+                out.write(frame(record(MAIL, entry.getKey(), blob)));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public void open(UUID trade, UUID player1, UUID player2) {
+        openTrades.add(trade);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(OPEN);
+            writeUuid(out, trade);
+            writeUuid(out, player1);
+            writeUuid(out, player2);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        append(bytes.toByteArray());
+    }
+
+    /** What one side currently has in the trade window; {@code onDurable} runs on the main thread once it is on disk. */
+    public void offer(UUID trade, boolean right, List<ItemStack> items, Runnable onDurable) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(OFFER);
+            writeUuid(out, trade);
+            out.writeBoolean(right);
+            writeBlob(out, encode(items));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        append(bytes.toByteArray());
+        afterSync.add(onDurable);
+    }
+
+    /** Records the commit and runs {@code onDurable} on the main thread once it is on disk. */
+    public void commit(UUID trade, List<ItemStack> player1Items, List<ItemStack> player2Items, Runnable onDurable) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(COMMIT);
+            writeUuid(out, trade);
+            writeBlob(out, encode(player1Items));
+            writeBlob(out, encode(player2Items));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        append(bytes.toByteArray());
+        afterSync.add(onDurable);
+    }
+
+    public void done(UUID trade) {
+        finish(DONE, trade);
+    }
+
+    public void cancel(UUID trade) {
+        finish(CANCEL, trade);
+    }
+
+    private void finish(byte type, UUID trade) {
+        openTrades.remove(trade);
+        append(record(type, trade, null));
+        if (openTrades.isEmpty() && writtenBytes > COMPACT_AFTER_BYTES) {
+            compact();
+        }
+    }
+
+    /** Items owed to a player who is offline; handed over on their next join. */
+    public void mail(UUID player, List<ItemStack> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        byte[] blob = encode(items);
+        queueMail(player, blob);
+        append(record(MAIL, player, blob));
+    }
+
+    @EventHandler
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        deliverMail(event.getPlayer());
+    }
+
+    private void deliverMail(Player player) {
+        List<byte[]> blobs = mailbox.remove(player.getUniqueId());
+        if (blobs == null) {
+            return;
+        }
+        int delivered = 0;
+        for (byte[] blob : blobs) {
+            List<ItemStack> items;
+            try {
+                items = ItemCodec.decode(blob);
+            } catch (IOException e) {
+                plugin.getLogger().warning("Dropping unreadable trade mail for " + player.getName() + ": " + e.getMessage());
+                continue;
+            }
+            for (ItemStack item : items) {
+                for (ItemStack overflow : player.getInventory().addItem(item).values()) {
+                    player.getWorld().dropItemNaturally(player.getLocation(), overflow);
+                }
+                delivered++;
+            }
+        }
+        // Saved before the mail is marked delivered, so a crash cannot lose it
+        player.saveData();
+        append(record(MAILED, player.getUniqueId(), null));
+        if (delivered > 0) {
+            player.sendMessage(ChatColor.YELLOW + "You received " + delivered + " item stack(s) from an interrupted trade.");
+        }
+    }
+
+    private byte[] encode(List<ItemStack> items) {
+        if (items.isEmpty()) {
+            return new byte[0];
+        }
+        try {
+            return ItemCodec.encode(items);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void append(byte[] payload) {
+        byte[] framed = frame(payload);
+        pending.write(framed, 0, framed.length);
+        writtenBytes += framed.length;
+        if (!flushScheduled && plugin.isEnabled()) {
+            flushScheduled = true;
+            plugin.getServer().getScheduler().runTask(plugin, this::flush);
+        }
+    }
+
+    // Hands this tick's records to the I/O thread; commits in the batch share one fsync
+    private void flush() {
+        flushScheduled = false;
+        if (pending.size() == 0) {
+            return;
+        }
+        byte[] batch = pending.toByteArray();
+        pending = new ByteArrayOutputStream();
+        List<Runnable> callbacks = afterSync;
+        afterSync = new ArrayList<>();
+        boolean force = !callbacks.isEmpty();
+        io.execute(() -> {
+            try {
+                if (channel == null) {
+                    throw new IOException("journal is not open");
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(batch);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (force) {
+                    channel.force(false);
+                    unsynced = false;
+                } else {
+                    unsynced = true;
+                }
+            } catch (IOException e) {
+                // Keep going: refusing the commit now would strand the items in the window
+                plugin.getLogger().severe("Could not write the trade journal: " + e.getMessage());
+            }
+            if (!callbacks.isEmpty() && plugin.isEnabled()) {
+                plugin.getServer().getScheduler().runTask(plugin, () -> callbacks.forEach(Runnable::run));
+            }
+        });
+    }
+
+    private void syncIfNeeded() {
+        io.execute(() -> {
+            if (unsynced) {
+                try {
+                    channel.force(false);
+                    unsynced = false;
+                } catch (IOException e) {
+                    plugin.getLogger().warning("Could not sync the trade journal: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    // Replaces the journal with just the outstanding mail; only when no trade is open
+    private void compact() {
+        if (channel == null) {
+            return;
+        }
+        byte[] mail;
+        try {
+            mail = encodeMailbox();
+        } catch (IOException e) {
+            return;
+        }
+        flush();
+        writtenBytes = mail.length;
+        io.execute(() -> {
+            try {
+                channel.close();
+                rewrite(mail);
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                plugin.getLogger().severe("Could not compact the trade journal: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Called from onDisable after open trades were cancelled: writes what is
+     * left, waits for it to reach disk and then finishes any commit that was
+     * waiting for its fsync. The I/O thread must still be running.
+     */
+    public void shutdown() {
+        if (syncTask != null) {
+            syncTask.cancel();
+            syncTask = null;
+        }
+        List<Runnable> callbacks = afterSync;
+        afterSync = new ArrayList<>();
+        writeNow(false);
+        // Durable (or as durable as it will get): hand the items over while players are still online
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+        // The DONE records those just appended; without them a restart would deliver again
+        writeNow(true);
+    }
+
+    // Writes and syncs whatever is buffered and waits for it; the scheduler is no longer available
+    private void writeNow(boolean close) {
+        byte[] batch = pending.toByteArray();
+        pending = new ByteArrayOutputStream();
+        if (channel == null) {
+            return;
+        }
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        io.execute(() -> {
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+                if (close) {
+                    channel.close();
+                }
+                written.complete(null);
+            } catch (IOException e) {
+                written.completeExceptionally(e);
+            }
+        });
+        try {
+            written.get(10L, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            plugin.getLogger().severe("Could not write the trade journal on shutdown: " + e);
+        }
+    }
+
+    private void rewrite(byte[] contents) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("could not create " + parent);
+        }
+        File temp = new File(parent, file.getName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(contents);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(false);
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static byte[] record(byte type, UUID id, byte[] blob) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(blob != null ? 24 + blob.length : 17);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            writeUuid(out, id);
+            if (blob != null) {
+                writeBlob(out, blob);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // [length][crc32][payload]; a torn write at the end fails the length or checksum
+    private static byte[] frame(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + payload.length);
+        buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        return buffer.array();
+    }
+
+    // Returns null at the end of the log, including a partially written last record
+    private static byte[] readFrame(DataInputStream in) throws IOException {
+        int length;
+        int checksum;
+        try {
+            length = in.readInt();
+            checksum = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 0 || length > (64 << 20)) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        try {
+            in.readFully(payload);
+        } catch (EOFException e) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+        return (int) crc.getValue() == checksum ? payload : null;
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static void writeBlob(DataOutputStream out, byte[] blob) throws IOException {
+        out.writeInt(blob.length);
+        out.write(blob);
+    }
+
+    private static byte[] readBlob(DataInputStream in) throws IOException {
+        byte[] blob = new byte[in.readInt()];
+        in.readFully(blob);
+        return blob;
+    }
+
+    private static class RecoveredTrade {
+        final UUID player1;
+        final UUID player2;
+        byte[] offer1;
+        byte[] offer2;
+        boolean committed;
+        byte[] commit1;
+        byte[] commit2;
+        boolean finished;
+
+        RecoveredTrade(UUID player1, UUID player2) {
+            this.player1 = player1;
+            this.player2 = player2;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.teleportplugin;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Where each part of the trade GUI sits. A layout is drawn as rows of nine
+ * characters: {@code L} and {@code R} are the offer slots of the player who
+ * sent the request and of the one who accepted it, {@code A} and {@code B}
+ * their ready buttons, {@code X} the cancel button and anything else filler.
+ *
+ * All lookups are table reads: offer slots are kept as {@code int[]} in
+ * offer order, ownership as one 54-bit mask per side, and the reverse
+ * slot-to-offer-index table as an {@code int[]} over the whole inventory.
+ */
+public final class TradeLayout {
+    public static final TradeLayout DEFAULT = fromPattern("default", Arrays.asList(
+        "#########",
+        "LLLL#RRRR",
+        "LLLL#RRRR",
+        "LLLL#RRRR",
+        "LLLL#RRRR",
+        "#A##X##B#"));
+    public static final TradeLayout COMPACT = fromPattern("compact", Arrays.asList(
+        "LLLL#RRRR",
+        "LLLL#RRRR",
+        "A###X###B"));
+
+    private final String name;
+    private final int size;
+    private final int[] leftSlots;
+    private final int[] rightSlots;
+    private final long leftMask;
+    private final long rightMask;
+    private final long fillerMask;
+    private final int[] offerIndex; // slot -> index into its side's offer, or -1
+    private final int leftReadySlot;
+    private final int rightReadySlot;
+    private final int cancelSlot;
+
+    private TradeLayout(String name, int size, int[] leftSlots, int[] rightSlots, long fillerMask,
+                        int leftReadySlot, int rightReadySlot, int cancelSlot) {
+        this.name = name;
+        this.size = size;
+        this.leftSlots = leftSlots;
+        this.rightSlots = rightSlots;
+        this.leftMask = maskOf(leftSlots);
+        this.rightMask = maskOf(rightSlots);
+        this.fillerMask = fillerMask;
+        this.leftReadySlot = leftReadySlot;
+        this.rightReadySlot = rightReadySlot;
+        this.cancelSlot = cancelSlot;
+        this.offerIndex = new int[size];
+        Arrays.fill(offerIndex, -1);
+        for (int i = 0; i < leftSlots.length; i++) {
+            offerIndex[leftSlots[i]] = i;
+        }
+        for (int i = 0; i < rightSlots.length; i++) {
+            offerIndex[rightSlots[i]] = i;
+        }
+    }
+
+    private static long maskOf(int[] slots) {
+        long mask = 0L;
+        for (int slot : slots) {
+            mask |= 1L << slot;
+        }
+        return mask;
+    }
+
+    /** Parses a layout; throws IllegalArgumentException if it is malformed. */
+    public static TradeLayout fromPattern(String name, List<String> rows) {
+        if (rows.isEmpty() || rows.size() > 6) {
+            throw new IllegalArgumentException("a layout has 1 to 6 rows");
+        }
+        int size = rows.size() * 9;
+        int[] left = new int[size];
+        int[] right = new int[size];
+        int leftCount = 0;
+        int rightCount = 0;
+        long filler = 0L;
+        int leftReady = -1;
+        int rightReady = -1;
+        int cancel = -1;
+        for (int row = 0; row < rows.size(); row++) {
+            String line = rows.get(row);
+            if (line.length() != 9) {
+                throw new IllegalArgumentException("row " + (row + 1) + " is not 9 characters");
+            }
+            for (int column = 0; column < 9; column++) {
+                int slot = row * 9 + column;
+                switch (line.charAt(column)) {
+                    case 'L':
+                        left[leftCount++] = slot;
+                        break;
+                    case 'R':
+                        right[rightCount++] = slot;
+                        break;
+                    case 'A':
+                        leftReady = unique(leftReady, slot, 'A');
+                        break;
+                    case 'B':
+                        rightReady = unique(rightReady, slot, 'B');
+                        break;
+                    case 'X':
+                        cancel = unique(cancel, slot, 'X');
+                        break;
+                    default:
+                        filler |= 1L << slot;
+                }
+            }
+        }
+        if (leftReady < 0 || rightReady < 0 || cancel < 0) {
+            throw new IllegalArgumentException("a layout needs one A, one B and one X");
+        }
+        if (leftCount == 0 || rightCount == 0) {
+            throw new IllegalArgumentException("both sides need at least one offer slot");
+        }
+        return new TradeLayout(name, size, Arrays.copyOf(left, leftCount), Arrays.copyOf(right, rightCount),
+            filler, leftReady, rightReady, cancel);
+    }
+
+    private static int unique(int current, int slot, char symbol) {
+        if (current >= 0) {
+            throw new IllegalArgumentException("more than one " + symbol);
+        }
+        return slot;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /** Offer slots of one side in offer order. Shared; do not modify. */
+    int[] slots(boolean right) {
+        return right ? rightSlots : leftSlots;
+    }
+
+    /** Bit {@code slot} is set for every offer slot of that side. */
+    public long offerMask(boolean right) {
+        return right ? rightMask : leftMask;
+    }
+
+    public long allOfferSlots() {
+        return leftMask | rightMask;
+    }
+
+    public boolean isOfferSlot(int slot, boolean right) {
+        return slot >= 0 && slot < size && ((right ? rightMask : leftMask) >>> slot & 1L) != 0L;
+    }
+
+    public boolean isFiller(int slot) {
+        return slot >= 0 && slot < size && (fillerMask >>> slot & 1L) != 0L;
+    }
+
+    /** Position of the slot within its side's offer, or -1 for buttons and filler. */
+    public int offerIndex(int slot) {
+        return slot >= 0 && slot < size ? offerIndex[slot] : -1;
+    }
+
+    public int readySlot(boolean right) {
+        return right ? rightReadySlot : leftReadySlot;
+    }
+
+    public int cancelSlot() {
+        return cancelSlot;
+    }
+
+    public boolean isButton(int slot) {
+        return slot == leftReadySlot || slot == rightReadySlot || slot == cancelSlot;
+    }
+}
@@ -5,17 +5,22 @@ import org.bukkit.Material;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
+import org.bukkit.event.inventory.InventoryAction;
 import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 
 public class TradeListener implements Listener {
     private final TradeManager tradeManager;
+    private final TradeItemFilter filter;
 
-    public TradeListener(TradeManager tradeManager) {
+    public TradeListener(TradeManager tradeManager, TradeItemFilter filter) {
         this.tradeManager = tradeManager;
+        this.filter = filter;
     }
 
     @EventHandler
@@ -29,15 +34,20 @@ public class TradeListener implements Listener {
         // Check if this is the trade inventory
         if (!event.getInventory().equals(session.getTradeInventory())) return;
         
-        int slot = event.getSlot();
+        // Committed or cancelled: the window is being emptied and closed
+        if (session.isFinished()) {
+            event.setCancelled(true);
+            return;
+        }
         
-        // Handle button clicks (always cancel these)
-        if (slot == 46 || slot == 52 || slot == 49) {
+        // A double-click collects matching stacks from every slot, the other player's offer included
+        if (event.getAction() == InventoryAction.COLLECT_TO_CURSOR) {
             event.setCancelled(true);
-            session.handleButtonClick(player.getUniqueId(), slot);
             return;
         }
         
+        int slot = event.getSlot();
+        
         // If player is clicking outside the inventory (negative slot), allow it
         if (event.getSlot() < 0) {
             return;
@@ -45,7 +55,24 @@ public class TradeListener implements Listener {
         
         // Check if clicking in player's own inventory (bottom inventory)
         if (event.getClickedInventory() == player.getInventory()) {
-            // Allow clicks in player's own inventory for moving items
+            // Allow clicks in player's own inventory for moving items. A shift-click would
+            // land in the first free trade slot, whichever side; it is done by hand instead
+            if (event.getAction() == InventoryAction.MOVE_TO_OTHER_INVENTORY) {
+                event.setCancelled(true);
+                if (!filter.isAllowed(event.getCurrentItem())) {
+                    player.sendMessage(ChatColor.RED + "You cannot trade this item!");
+                    return;
+                }
+                moveIntoOffer(event, player, session);
+            }
+            return;
+        }
+        
+        // Handle button clicks (always cancel these); checked after the player's own
+        // inventory because compact layouts put buttons on slots it also has
+        if (session.getLayout().isButton(slot)) {
+            event.setCancelled(true);
+            session.handleButtonClick(player.getUniqueId(), slot);
             return;
         }
         
@@ -56,20 +83,15 @@ public class TradeListener implements Listener {
             return;
         }
         
-        // Prevent placing certain items
-        ItemStack item = event.getCursor();
-        if (item != null && item.getType() != Material.AIR && isBlacklistedItem(item)) {
+        // Prevent placing certain items, whichever way they come in
+        if (!isAllowedInsertion(event, player)) {
             event.setCancelled(true);
             player.sendMessage(ChatColor.RED + "You cannot trade this item!");
             return;
         }
         
-        // Allow the click and update the trade after a short delay
-        player.getServer().getScheduler().runTaskLater(
-            player.getServer().getPluginManager().getPlugin("TeleportPlugin"), 
-            () -> session.updateItems(),
-            1L
-        );
+        // Allow the click; the trade is refreshed once at the end of the tick
+        tradeManager.markDirty(session, 1L << slot);
     }
     
     @EventHandler
@@ -83,7 +105,13 @@ public class TradeListener implements Listener {
         // Check if this is the trade inventory
         if (!event.getInventory().equals(session.getTradeInventory())) return;
         
+        if (session.isFinished()) {
+            event.setCancelled(true);
+            return;
+        }
+        
         // Check if any dragged slots are invalid
+        long changed = 0L;
         for (int slot : event.getRawSlots()) {
             if (slot < event.getInventory().getSize()) { // Only check top inventory
                 if (!session.isValidSlot(slot, player.getUniqueId())) {
@@ -91,15 +119,20 @@ public class TradeListener implements Listener {
                     player.sendMessage(ChatColor.RED + "You can only place items on your side of the trade!");
                     return;
                 }
+                // The stack each slot would end up with
+                if (!filter.isAllowed(event.getNewItems().get(slot))) {
+                    event.setCancelled(true);
+                    player.sendMessage(ChatColor.RED + "You cannot trade this item!");
+                    return;
+                }
+                changed |= 1L << slot;
             }
         }
         
         // Update trade after drag
-        player.getServer().getScheduler().runTaskLater(
-            player.getServer().getPluginManager().getPlugin("TeleportPlugin"), 
-            () -> session.updateItems(),
-            1L
-        );
+        if (changed != 0L) {
+            tradeManager.markDirty(session, changed);
+        }
     }
     
     @EventHandler
@@ -113,42 +146,90 @@ public class TradeListener implements Listener {
         // Check if this is the trade inventory
         if (!event.getInventory().equals(session.getTradeInventory())) return;
         
-        // If inventory was closed, cancel the trade after a short delay
-        // This gives the player a chance to reopen if it was accidental
-        player.getServer().getScheduler().runTaskLater(
-            player.getServer().getPluginManager().getPlugin("TeleportPlugin"), 
-            () -> {
-                TradeManager.TradeSession currentSession = tradeManager.getTradeSession(player.getUniqueId());
-                if (currentSession != null && currentSession.equals(session)) {
-                    // Check if player still has the trade inventory open
-                    if (!player.getOpenInventory().getTopInventory().equals(session.getTradeInventory())) {
-                        tradeManager.cancelTrade(player.getUniqueId());
-                        player.sendMessage(ChatColor.YELLOW + "Trade cancelled because you closed the trade window.");
-                    }
-                }
-            }, 
-            20L // 1 second delay
-        );
+        // Cancelled after a grace period unless the player reopens it with /trade reopen
+        tradeManager.windowClosed(player, session);
     }
     
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent event) {
         Player player = event.getPlayer();
-        TradeManager.TradeSession session = tradeManager.getTradeSession(player.getUniqueId());
-        if (session != null) {
-            tradeManager.cancelTrade(player.getUniqueId());
-        }
+        tradeManager.playerLeft(player, "left the server");
+        tradeManager.forgetPlayer(player.getUniqueId());
     }
     
-    private boolean isBlacklistedItem(ItemStack item) {
-        // Add items that shouldn't be tradeable
-        Material type = item.getType();
-        return type == Material.BEDROCK || 
-               type == Material.COMMAND_BLOCK ||
-               type == Material.CHAIN_COMMAND_BLOCK ||
-               type == Material.REPEATING_COMMAND_BLOCK ||
-               type == Material.BARRIER ||
-               type == Material.STRUCTURE_BLOCK ||
-               type == Material.STRUCTURE_VOID;
+    @EventHandler
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        tradeManager.playerLeft(event.getPlayer(), "changed worlds");
+    }
+    
+    // Shift-click from the player's inventory: fills similar stacks on their own side first, then empty slots
+    private void moveIntoOffer(InventoryClickEvent event, Player player, TradeManager.TradeSession session) {
+        ItemStack moving = event.getCurrentItem();
+        if (moving == null || moving.getType() == Material.AIR) {
+            return;
+        }
+        Inventory trade = session.getTradeInventory();
+        int[] slots = session.getLayout().slots(player.getUniqueId().equals(session.player2));
+        int remaining = moving.getAmount();
+        long changed = 0L;
+        for (int pass = 0; pass < 2 && remaining > 0; pass++) {
+            for (int slot : slots) {
+                ItemStack there = trade.getItem(slot);
+                boolean empty = there == null || there.getType() == Material.AIR;
+                if (pass == 0 ? empty || !there.isSimilar(moving) : !empty) {
+                    continue;
+                }
+                int existing = empty ? 0 : there.getAmount();
+                int moved = Math.min(remaining, moving.getMaxStackSize() - existing);
+                // The filter may cap how many of an item one stack can hold
+                if (moved <= 0 || !filter.isAllowed(moving, existing + moved)) {
+                    continue;
+                }
+                ItemStack placed = moving.clone();
+                placed.setAmount(existing + moved);
+                trade.setItem(slot, placed);
+                remaining -= moved;
+                changed |= 1L << slot;
+                if (remaining == 0) {
+                    break;
+                }
+            }
+        }
+        if (changed == 0L) {
+            return;
+        }
+        ItemStack rest = remaining > 0 ? moving.clone() : null;
+        if (rest != null) {
+            rest.setAmount(remaining);
+        }
+        event.getClickedInventory().setItem(event.getSlot(), rest);
+        tradeManager.markDirty(session, changed);
+    }
+
+    // Checks the stack a click would leave in an offer slot: from the cursor, a hotbar key or the offhand key
+    private boolean isAllowedInsertion(InventoryClickEvent event, Player player) {
+        ItemStack current = event.getCurrentItem();
+        int existing = current != null && current.getType() != Material.AIR ? current.getAmount() : 0;
+        switch (event.getClick()) {
+            case NUMBER_KEY:
+                return filter.isAllowed(player.getInventory().getItem(event.getHotbarButton()));
+            case SWAP_OFFHAND:
+                return filter.isAllowed(player.getInventory().getItemInOffHand());
+            default:
+                break;
+        }
+        ItemStack cursor = event.getCursor();
+        if (cursor == null || cursor.getType() == Material.AIR) {
+            return true;
+        }
+        switch (event.getAction()) {
+            case PLACE_ONE:
+                return filter.isAllowed(cursor, existing + 1);
+            case PLACE_ALL:
+            case PLACE_SOME:
+                return filter.isAllowed(cursor, Math.min(existing + cursor.getAmount(), cursor.getMaxStackSize()));
+            default:
+                return filter.isAllowed(cursor);
+        }
     }
 }
@@ -6,50 +6,144 @@ import org.bukkit.Material;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.inventory.meta.ItemMeta;
-import org.bukkit.scheduler.BukkitRunnable;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
+/**
+ * Trade requests and running trade sessions.
+ *
+ * Threading: both registries are concurrent maps, so looking up a session or
+ * request and cancelling a trade are safe from any thread. A session's
+ * lifecycle is an {@link AtomicReference} to its {@link TradeSession.State};
+ * every transition is a compare-and-set, so exactly one caller wins it and a
+ * trade is cancelled or completed once, whoever races. Anything that touches
+ * inventories, players or the scheduler-bound services (requests, timeouts,
+ * the GUI) runs on the main thread; a cancel that wins off the main thread
+ * hands the item return to the scheduler.
+ */
 public class TradeManager {
-    private final HashMap<UUID, TradeSession> activeTrades = new HashMap<>();
-    private final HashMap<UUID, UUID> tradeRequests = new HashMap<>();
+    private final ConcurrentHashMap<UUID, TradeSession> activeTrades = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, TradeRequest> tradeRequests = new ConcurrentHashMap<>();
     private final TeleportPlugin plugin;
+    private final ExpiryService expiry;
+    private final RequestRateLimiter requestLimiter;
+    private final long requestTimeoutTicks;
+    private final long closeGraceTicks;
+    private final TradeLayout layout;
+    private final TradeGuiItems guiItems = new TradeGuiItems();
+    private final TradeJournal journal;
+    private final TradeHistory history;
+    // Sessions whose items changed this tick, refreshed once by a single flush task. Main thread
+    private final LinkedHashSet<TradeSession> dirtySessions = new LinkedHashSet<>();
+    private final Runnable flushTask;
+    private boolean flushScheduled;
+    private long refreshesRequested;
+    private long refreshesCoalesced;
 
-    public TradeManager(TeleportPlugin plugin) {
+    public TradeManager(TeleportPlugin plugin, ExpiryService expiry, TradeJournal journal, TradeHistory history) {
         this.plugin = plugin;
+        this.expiry = expiry;
+        this.journal = journal;
+        this.history = history;
+        this.requestTimeoutTicks = plugin.getConfig().getLong("trade.request-timeout-seconds", 30L) * 20L;
+        this.closeGraceTicks = Math.max(1L, plugin.getConfig().getLong("trade.close-grace-seconds", 10L) * 20L);
+        this.requestLimiter = new RequestRateLimiter(expiry,
+            plugin.getConfig().getInt("trade.request-rate.max-requests", 3),
+            plugin.getConfig().getLong("trade.request-rate.window-seconds", 30L) * 20L);
+        this.layout = loadLayout(plugin);
+        this.flushTask = plugin.getMetrics().timed("trade-refresh", this::flushDirty);
     }
 
-    public void sendTradeRequest(UUID from, UUID to) {
-        tradeRequests.put(to, from);
-        
-        // Auto-remove request after 30 seconds
-        new BukkitRunnable() {
-            @Override
-            public void run() {
-                if (tradeRequests.containsKey(to) && tradeRequests.get(to).equals(from)) {
-                    tradeRequests.remove(to);
-                    Player fromPlayer = Bukkit.getPlayer(from);
-                    if (fromPlayer != null) {
-                        fromPlayer.sendMessage(ChatColor.RED + "Your trade request expired.");
-                    }
+    // trade.layout names a built-in layout or one drawn under trade.layouts
+    private static TradeLayout loadLayout(TeleportPlugin plugin) {
+        String name = plugin.getConfig().getString("trade.layout", "default");
+        List<String> rows = plugin.getConfig().getStringList("trade.layouts." + name);
+        if (!rows.isEmpty()) {
+            try {
+                return TradeLayout.fromPattern(name, rows);
+            } catch (IllegalArgumentException e) {
+                plugin.getLogger().warning("Invalid trade layout '" + name + "': " + e.getMessage() + "; using default");
+                return TradeLayout.DEFAULT;
+            }
+        }
+        if (name.equalsIgnoreCase(TradeLayout.COMPACT.getName())) {
+            return TradeLayout.COMPACT;
+        }
+        if (!name.equalsIgnoreCase(TradeLayout.DEFAULT.getName())) {
+            plugin.getLogger().warning("Unknown trade layout '" + name + "'; using default");
+        }
+        return TradeLayout.DEFAULT;
+    }
+
+    // Returns false if the sender is rate-limited and nothing was sent. Main thread
+    public boolean sendTradeRequest(UUID from, UUID to) {
+        if (!requestLimiter.tryAcquire(from)) {
+            return false;
+        }
+        TradeRequest request = new TradeRequest(from);
+        request.timeout = expiry.schedule(requestTimeoutTicks, () -> {
+            if (tradeRequests.remove(to, request)) {
+                Player fromPlayer = Bukkit.getPlayer(from);
+                if (fromPlayer != null) {
+                    fromPlayer.sendMessage(ChatColor.RED + "Your trade request expired.");
                 }
             }
-        }.runTaskLater(plugin, 600L); // 30 seconds
+        });
+        // A newer request to the same player replaces the old one and its timeout
+        TradeRequest previous = tradeRequests.put(to, request);
+        if (previous != null) {
+            previous.timeout.cancel();
+        }
+        return true;
+    }
+
+    public long getRequestCooldownSeconds(UUID from) {
+        return (requestLimiter.ticksUntilNext(from) + 19L) / 20L;
     }
 
     public UUID getTradeRequest(UUID to) {
-        return tradeRequests.get(to);
+        TradeRequest request = tradeRequests.get(to);
+        return request != null ? request.from : null;
     }
 
     public void removeTradeRequest(UUID to) {
-        tradeRequests.remove(to);
+        TradeRequest request = tradeRequests.remove(to);
+        // The timing wheel is main-thread only; an uncancelled timeout finds nothing to remove
+        if (request != null && Bukkit.isPrimaryThread()) {
+            request.timeout.cancel();
+        }
+    }
+
+    public void forgetPlayer(UUID player) {
+        removeTradeRequest(player);
+        requestLimiter.forget(player);
     }
 
-    public void startTrade(UUID player1, UUID player2) {
-        TradeSession session = new TradeSession(player1, player2, plugin);
-        activeTrades.put(player1, session);
-        activeTrades.put(player2, session);
+    private static class TradeRequest {
+        final UUID from;
+        TimingWheel.Timeout timeout;
+
+        TradeRequest(UUID from) {
+            this.from = from;
+        }
+    }
+
+    // Returns false if either player is already trading. Main thread
+    public boolean startTrade(UUID player1, UUID player2) {
+        TradeSession session = new TradeSession(player1, player2, plugin, layout, guiItems, journal, history,
+            this::release);
+        // Both slots are claimed atomically or not at all
+        if (activeTrades.putIfAbsent(player1, session) != null) {
+            return false;
+        }
+        if (activeTrades.putIfAbsent(player2, session) != null) {
+            activeTrades.remove(player1, session);
+            return false;
+        }
+        session.begin();
         removeTradeRequest(player1);
         removeTradeRequest(player2);
         
@@ -59,63 +153,261 @@ public class TradeManager {
             session.openTradeInventory(p1);
             session.openTradeInventory(p2);
         }
+        return true;
+    }
+
+    /**
+     * Queues a refresh of the given trade window slots (bit n = slot n) for the
+     * end of the tick; repeated calls coalesce.
+     */
+    public void markDirty(TradeSession session, long slots) {
+        refreshesRequested++;
+        session.pendingSlots |= slots;
+        if (session.dirty) {
+            refreshesCoalesced++;
+            return;
+        }
+        session.dirty = true;
+        dirtySessions.add(session);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            plugin.getServer().getScheduler().runTask(plugin, flushTask);
+        }
+    }
+
+    private void flushDirty() {
+        flushScheduled = false;
+        for (TradeSession session : dirtySessions) {
+            session.dirty = false;
+            // Finished or cancelled since it was marked
+            if (activeTrades.get(session.player1) == session) {
+                session.updateItems();
+            }
+        }
+        dirtySessions.clear();
+    }
+
+    public long getRefreshesRequested() {
+        return refreshesRequested;
+    }
+
+    /** Refresh requests that were absorbed by another refresh in the same tick. */
+    public long getRefreshesCoalesced() {
+        return refreshesCoalesced;
+    }
+
+    /** Players in an open trade; each session holds two entries until it finishes. */
+    public int getActiveTradeCount() {
+        return activeTrades.size();
+    }
+
+    /** Trade requests still waiting for an answer. */
+    public int getPendingRequestCount() {
+        return tradeRequests.size();
+    }
+
+    public TradeHistory getHistory() {
+        return history;
     }
 
     public TradeSession getTradeSession(UUID player) {
         return activeTrades.get(player);
     }
 
+    /**
+     * A player closed the trade window. The trade is cancelled once the grace
+     * period ends unless everyone who closed it has reopened it by then; one
+     * timeout per session on the shared timing wheel, cancelled in O(1).
+     */
+    public void windowClosed(Player player, TradeSession session) {
+        if (session.isFinished() || activeTrades.get(player.getUniqueId()) != session) {
+            return;
+        }
+        session.closedMask |= session.sideBit(player.getUniqueId());
+        if (session.closeGrace == null) {
+            session.closeGrace = expiry.schedule(closeGraceTicks, () -> {
+                session.closeGrace = null;
+                int closed = session.closedMask;
+                if (closed != 0 && session.cancelTrade()) {
+                    for (UUID id : new UUID[] { session.player1, session.player2 }) {
+                        Player closer = (closed & session.sideBit(id)) != 0 ? Bukkit.getPlayer(id) : null;
+                        if (closer != null) {
+                            closer.sendMessage(ChatColor.YELLOW + "Trade cancelled because you closed the trade window.");
+                        }
+                    }
+                }
+            });
+        }
+        player.sendMessage(ChatColor.GRAY + "Trade window closed. Use " + ChatColor.WHITE + "/trade reopen"
+            + ChatColor.GRAY + " within " + (closeGraceTicks / 20L) + "s to go back.");
+    }
+
+    /** /trade reopen; returns false if the player has no trade to return to. */
+    public boolean reopen(Player player) {
+        TradeSession session = activeTrades.get(player.getUniqueId());
+        if (session == null || session.isFinished()) {
+            return false;
+        }
+        if (!player.getOpenInventory().getTopInventory().equals(session.getTradeInventory())) {
+            session.openTradeInventory(player);
+        }
+        session.closedMask &= ~session.sideBit(player.getUniqueId());
+        if (session.closedMask == 0 && session.closeGrace != null) {
+            session.closeGrace.cancel();
+            session.closeGrace = null;
+        }
+        return true;
+    }
+
+    // Quitting or changing worlds ends the trade at once; nothing waits on a player who is gone
+    public void playerLeft(Player player, String reason) {
+        TradeSession session = activeTrades.get(player.getUniqueId());
+        if (session != null && session.cancelTrade()) {
+            Player other = Bukkit.getPlayer(player.getUniqueId().equals(session.player1) ? session.player2 : session.player1);
+            if (other != null) {
+                other.sendMessage(ChatColor.YELLOW + "Trade cancelled because " + player.getName() + " " + reason + ".");
+            }
+        }
+    }
+
+    // A session that reached DONE or CANCELLED lets go of its players. Main thread
+    private void release(TradeSession session) {
+        activeTrades.remove(session.player1, session);
+        activeTrades.remove(session.player2, session);
+        if (session.closeGrace != null) {
+            session.closeGrace.cancel();
+            session.closeGrace = null;
+        }
+    }
+
+    // Any thread
     public void cancelTrade(UUID player) {
         TradeSession session = activeTrades.get(player);
         if (session != null) {
             session.cancelTrade();
-            activeTrades.remove(session.player1);
-            activeTrades.remove(session.player2);
+            // Only this session's entries; a new trade may already have claimed a player
+            activeTrades.remove(session.player1, session);
+            activeTrades.remove(session.player2, session);
         }
     }
 
-    public void removeTrade(UUID player1, UUID player2) {
-        activeTrades.remove(player1);
-        activeTrades.remove(player2);
+    // Called from onDisable: open trades are cancelled so nobody is left with items in a window
+    public void shutdown() {
+        for (TradeSession session : new LinkedHashSet<>(activeTrades.values())) {
+            session.cancelTrade();
+        }
+        activeTrades.clear();
+        journal.shutdown();
+        // After the journal: trades it finished just now are recorded too
+        history.shutdown();
     }
 
     public static class TradeSession {
+        /**
+         * OPEN: nobody is ready. READY: at least one player is ready or has
+         * confirmed. CONFIRMED: both confirmed and the offers are being
+         * verified. COMMITTING: the commit is journaled and the window
+         * emptied; only DONE follows. DONE and CANCELLED are final.
+         */
+        public enum State { OPEN, READY, CONFIRMED, COMMITTING, DONE, CANCELLED }
+
         public final UUID player1;
         public final UUID player2;
         private final Inventory tradeInventory;
         private final TeleportPlugin plugin;
+        private final TradeLayout layout;
+        private final TradeGuiItems guiItems;
+        private final TradeJournal journal;
+        private final TradeHistory history;
+        // Journal key; the players alone do not identify a trade
+        private final UUID id = UUID.randomUUID();
+        // Captured once; buttons and messages never look the players up again for their names
+        private final String player1Name;
+        private final String player2Name;
         
         private boolean player1Ready = false;
         private boolean player2Ready = false;
         private boolean player1Confirmed = false;
         private boolean player2Confirmed = false;
-        private boolean tradeCompleted = false;
+        private final AtomicReference<State> state = new AtomicReference<>(State.OPEN);
+        private final Consumer<TradeSession> onFinish;
+        private boolean dirty;
+        // Which players have the window closed (bit 1 = player1, bit 2 = player2) and their shared grace timeout
+        private int closedMask;
+        private TimingWheel.Timeout closeGrace;
         
-        private final ItemStack[] player1Items = new ItemStack[16];
-        private final ItemStack[] player2Items = new ItemStack[16];
+        private final TradeOffer player1Offer;
+        private final TradeOffer player2Offer;
+        // Window slots changed since the offers were last refreshed
+        private long pendingSlots;
+        // Fingerprint of both offers at the moment each player confirmed
+        private long player1Agreed;
+        private long player2Agreed;
         
         private long lastModification = System.currentTimeMillis();
 
-        public TradeSession(UUID player1, UUID player2, TeleportPlugin plugin) {
+        public TradeSession(UUID player1, UUID player2, TeleportPlugin plugin, TradeLayout layout,
+                            TradeGuiItems guiItems, TradeJournal journal, TradeHistory history,
+                            Consumer<TradeSession> onFinish) {
             this.player1 = player1;
             this.player2 = player2;
             this.plugin = plugin;
+            this.layout = layout;
+            this.guiItems = guiItems;
+            this.journal = journal;
+            this.history = history;
+            this.onFinish = onFinish;
+            this.player1Offer = new TradeOffer(layout, false);
+            this.player2Offer = new TradeOffer(layout, true);
             Player p1 = Bukkit.getPlayer(player1);
             Player p2 = Bukkit.getPlayer(player2);
-            String title = ChatColor.DARK_GREEN + "Trade: " + (p1 != null ? p1.getName() : "Unknown") + " ↔ " + (p2 != null ? p2.getName() : "Unknown");
-            this.tradeInventory = Bukkit.createInventory(null, 54, title);
+            this.player1Name = p1 != null ? p1.getName() : "Unknown";
+            this.player2Name = p2 != null ? p2.getName() : "Unknown";
+            String title = ChatColor.DARK_GREEN + "Trade: " + player1Name + " ↔ " + player2Name;
+            this.tradeInventory = Bukkit.createInventory(null, layout.getSize(), title);
             setupTradeInventory();
         }
 
+        // Called once the session owns both players
+        void begin() {
+            journal.open(id, player1, player2);
+        }
+
+        public State getState() {
+            return state.get();
+        }
+
+        private int sideBit(UUID player) {
+            return player.equals(player1) ? 1 : player.equals(player2) ? 2 : 0;
+        }
+
+        // OPEN <-> READY follows the players' ready flags; no effect once the trade moved on
+        private void syncReadyState() {
+            State target = player1Ready || player2Ready ? State.READY : State.OPEN;
+            State current = state.get();
+            if ((current == State.OPEN || current == State.READY) && current != target) {
+                state.compareAndSet(current, target);
+            }
+        }
+
+        // Unreadies both players after a failed check; CONFIRMED goes back to OPEN
+        private void resetReady(String message) {
+            player1Ready = player2Ready = player1Confirmed = player2Confirmed = false;
+            updateReadyButton(false, false);
+            updateReadyButton(true, false);
+            state.compareAndSet(State.CONFIRMED, State.OPEN);
+            syncReadyState();
+            Player p1 = Bukkit.getPlayer(player1);
+            Player p2 = Bukkit.getPlayer(player2);
+            if (p1 != null) p1.sendMessage(message);
+            if (p2 != null) p2.sendMessage(message);
+        }
+
         private void setupTradeInventory() {
-            // Fill with glass panes
-            ItemStack grayPane = createGlassPane(Material.GRAY_STAINED_GLASS_PANE, " ");
-            ItemStack greenPane = createGlassPane(Material.LIME_STAINED_GLASS_PANE, " ");
-            ItemStack redPane = createGlassPane(Material.RED_STAINED_GLASS_PANE, " ");
-            
-            // Fill borders and dividers
-            for (int i = 0; i < 54; i++) {
-                if (i < 9 || i >= 45 || i % 9 == 4) {
+            // Fill borders and dividers with glass panes
+            ItemStack grayPane = guiItems.filler();
+            for (int i = 0; i < layout.getSize(); i++) {
+                if (layout.isFiller(i)) {
                     tradeInventory.setItem(i, grayPane);
                 }
             }
@@ -125,20 +417,7 @@ public class TradeManager {
             updateReadyButton(true, false);  // player2
             
             // Cancel button
-            ItemStack cancelButton = new ItemStack(Material.BARRIER);
-            ItemMeta cancelMeta = cancelButton.getItemMeta();
-            cancelMeta.setDisplayName(ChatColor.RED + "Cancel Trade");
-            cancelMeta.setLore(Arrays.asList(ChatColor.GRAY + "Click to cancel the trade"));
-            cancelButton.setItemMeta(cancelMeta);
-            tradeInventory.setItem(49, cancelButton);
-        }
-
-        private ItemStack createGlassPane(Material material, String name) {
-            ItemStack pane = new ItemStack(material);
-            ItemMeta meta = pane.getItemMeta();
-            meta.setDisplayName(name);
-            pane.setItemMeta(meta);
-            return pane;
+            tradeInventory.setItem(layout.cancelSlot(), guiItems.cancelButton());
         }
 
         public void openTradeInventory(Player player) {
@@ -147,53 +426,45 @@ public class TradeManager {
 
         public boolean isValidSlot(int slot, UUID playerUUID) {
             if (playerUUID.equals(player1)) {
-                // Player 1 slots: 9-12, 18-21, 27-30, 36-39 (left side)
-                return (slot >= 9 && slot <= 12) || (slot >= 18 && slot <= 21) || 
-                       (slot >= 27 && slot <= 30) || (slot >= 36 && slot <= 39);
+                return layout.isOfferSlot(slot, false); // left side
             } else if (playerUUID.equals(player2)) {
-                // Player 2 slots: 14-17, 23-26, 32-35, 41-44 (right side)
-                return (slot >= 14 && slot <= 17) || (slot >= 23 && slot <= 26) || 
-                       (slot >= 32 && slot <= 35) || (slot >= 41 && slot <= 44);
+                return layout.isOfferSlot(slot, true); // right side
             }
             return false;
         }
 
         public void updateItems() {
+            State current = state.get();
+            if (current != State.OPEN && current != State.READY) {
+                return;
+            }
+            long slots = pendingSlots;
+            pendingSlots = 0L;
+            // Only the changed slots are reread; a click that moved nothing changes nothing
+            boolean changed1 = player1Offer.refresh(tradeInventory, slots);
+            boolean changed2 = player2Offer.refresh(tradeInventory, slots);
+            if (!changed1 && !changed2) {
+                return;
+            }
+            // Escrow: what is in the window goes back to its owner if the server dies now.
+            // Once the offer is on disk the player file is saved without those items
+            if (changed1) {
+                journal.offer(id, false, player1Offer.toList(), () -> save(player1));
+            }
+            if (changed2) {
+                journal.offer(id, true, player2Offer.toList(), () -> save(player2));
+            }
+            
             // Reset ready states when items change (anti-scam measure)
             if (player1Ready || player2Ready) {
-                player1Ready = false;
-                player2Ready = false;
-                player1Confirmed = false;
-                player2Confirmed = false;
-                
-                Player p1 = Bukkit.getPlayer(player1);
-                Player p2 = Bukkit.getPlayer(player2);
-                if (p1 != null) p1.sendMessage(ChatColor.YELLOW + "Items changed! Please ready up again.");
-                if (p2 != null) p2.sendMessage(ChatColor.YELLOW + "Items changed! Please ready up again.");
-                
-                updateReadyButton(false, false);
-                updateReadyButton(true, false);
+                resetReady(ChatColor.YELLOW + "Items changed! Please ready up again.");
             }
             
             lastModification = System.currentTimeMillis();
-            
-            // Update item displays
-            updateItemDisplay();
         }
 
-        private void updateItemDisplay() {
-            // Store current items for verification
-            int p1Index = 0, p2Index = 0;
-            
-            // Player 1 items
-            for (int slot : Arrays.asList(9,10,11,12,18,19,20,21,27,28,29,30,36,37,38,39)) {
-                player1Items[p1Index++] = tradeInventory.getItem(slot);
-            }
-            
-            // Player 2 items  
-            for (int slot : Arrays.asList(14,15,16,17,23,24,25,26,32,33,34,35,41,42,43,44)) {
-                player2Items[p2Index++] = tradeInventory.getItem(slot);
-            }
+        private long offersFingerprint() {
+            return player1Offer.fingerprint() * 0x9E3779B97F4A7C15L + player2Offer.fingerprint();
         }
 
         public void toggleReady(UUID playerUUID) {
@@ -212,6 +483,7 @@ public class TradeManager {
                     player1Confirmed = false;
                 } else if (!player1Confirmed) {
                     player1Confirmed = true;
+                    player1Agreed = offersFingerprint();
                 } else {
                     player1Ready = false;
                     player1Confirmed = false;
@@ -223,187 +495,259 @@ public class TradeManager {
                     player2Confirmed = false;
                 } else if (!player2Confirmed) {
                     player2Confirmed = true;
+                    player2Agreed = offersFingerprint();
                 } else {
                     player2Ready = false;
                     player2Confirmed = false;
                 }
                 updateReadyButton(true, player2Ready);
             }
+            syncReadyState();
             
             checkTradeCompletion();
         }
 
         private void updateReadyButton(boolean isPlayer2, boolean ready) {
-            int slot = isPlayer2 ? 52 : 46;
-            UUID playerUUID = isPlayer2 ? player2 : player1;
             boolean confirmed = isPlayer2 ? player2Confirmed : player1Confirmed;
-            
-            ItemStack button;
-            String playerName = Bukkit.getPlayer(playerUUID) != null ? Bukkit.getPlayer(playerUUID).getName() : "Unknown";
-            
-            if (confirmed) {
-                button = new ItemStack(Material.EMERALD_BLOCK);
-                ItemMeta meta = button.getItemMeta();
-                meta.setDisplayName(ChatColor.GREEN + playerName + " - CONFIRMED");
-                meta.setLore(Arrays.asList(
-                    ChatColor.GRAY + "This player has confirmed the trade",
-                    ChatColor.GRAY + "Click to unready"
-                ));
-                button.setItemMeta(meta);
-            } else if (ready) {
-                button = new ItemStack(Material.GOLD_BLOCK);
-                ItemMeta meta = button.getItemMeta();
-                meta.setDisplayName(ChatColor.YELLOW + playerName + " - READY");
-                meta.setLore(Arrays.asList(
-                    ChatColor.GRAY + "This player is ready",
-                    ChatColor.GRAY + "Click again to confirm",
-                    ChatColor.RED + "Warning: Double check the items!"
-                ));
-                button.setItemMeta(meta);
-            } else {
-                button = new ItemStack(Material.RED_WOOL);
-                ItemMeta meta = button.getItemMeta();
-                meta.setDisplayName(ChatColor.RED + playerName + " - NOT READY");
-                meta.setLore(Arrays.asList(
-                    ChatColor.GRAY + "Click when ready to trade"
-                ));
-                button.setItemMeta(meta);
-            }
-            
-            tradeInventory.setItem(slot, button);
+            TradeGuiItems.ReadyState readyState = confirmed ? TradeGuiItems.ReadyState.CONFIRMED
+                : ready ? TradeGuiItems.ReadyState.READY : TradeGuiItems.ReadyState.NOT_READY;
+            tradeInventory.setItem(layout.readySlot(isPlayer2),
+                guiItems.readyButton(isPlayer2 ? player2Name : player1Name, readyState));
         }
 
         public void handleButtonClick(UUID playerUUID, int slot) {
-            if (slot == 46 && playerUUID.equals(player1)) {
+            if (slot == layout.readySlot(false) && playerUUID.equals(player1)) {
                 toggleReady(playerUUID);
-            } else if (slot == 52 && playerUUID.equals(player2)) {
+            } else if (slot == layout.readySlot(true) && playerUUID.equals(player2)) {
                 toggleReady(playerUUID);
-            } else if (slot == 49) {
+            } else if (slot == layout.cancelSlot()) {
                 cancelTrade();
             }
         }
 
         private void checkTradeCompletion() {
-            if (player1Confirmed && player2Confirmed && !tradeCompleted) {
+            if (!player1Confirmed || !player2Confirmed || state.get() != State.READY) {
+                return;
+            }
+            // Clicks from this tick that the end-of-tick flush has not seen yet
+            if (pendingSlots != 0L) {
+                updateItems();
+                if (!player1Confirmed || !player2Confirmed) {
+                    return; // the offers changed and everyone was unreadied
+                }
+            }
+            // Both players must have confirmed exactly what is in the window now
+            long current = offersFingerprint();
+            if (player1Agreed != current || player2Agreed != current) {
+                resetReady(ChatColor.YELLOW + "Items changed! Please ready up again.");
+                return;
+            }
+            // Loses to a cancel from elsewhere
+            if (state.compareAndSet(State.READY, State.CONFIRMED)) {
                 completeTrade();
             }
         }
 
-        public void completeTrade() {
-            if (tradeCompleted) return;
-            tradeCompleted = true;
+        // Runs in CONFIRMED and leaves the session COMMITTING, CANCELLED or back at OPEN/READY
+        private void completeTrade() {
+            Player p1 = Bukkit.getPlayer(player1);
+            Player p2 = Bukkit.getPlayer(player2);
+            if (p1 == null || p2 == null) {
+                state.compareAndSet(State.CONFIRMED, State.READY);
+                return;
+            }
+            // Final verification - deep compare of the window against the confirmed copies.
+            // Checked before committing so cancelTrade still returns the items
+            if (!player1Offer.matches(tradeInventory) || !player2Offer.matches(tradeInventory)) {
+                p1.sendMessage(ChatColor.RED + "Trade cancelled - items were modified during confirmation!");
+                p2.sendMessage(ChatColor.RED + "Trade cancelled - items were modified during confirmation!");
+                cancelTrade();
+                return;
+            }
+            List<ItemStack> toPlayer2 = player1Offer.toList();
+            List<ItemStack> toPlayer1 = player2Offer.toList();
+            
+            // Both sides must be able to hold what they receive; nothing is dropped on the floor
+            if (!fits(p1.getInventory(), toPlayer1) || !fits(p2.getInventory(), toPlayer2)) {
+                String full = !fits(p1.getInventory(), toPlayer1) ? player1Name : player2Name;
+                resetReady(ChatColor.RED + full + " does not have enough inventory space for this trade.");
+                return;
+            }
+            // From here on the trade can no longer be cancelled
+            if (!state.compareAndSet(State.CONFIRMED, State.COMMITTING)) {
+                return;
+            }
+            
+            // The copies are what was verified; take the originals out of the window
+            for (int slot : layout.slots(false)) {
+                tradeInventory.clear(slot);
+            }
+            for (int slot : layout.slots(true)) {
+                tradeInventory.clear(slot);
+            }
             
+            // Items move only once the commit record is on disk
+            journal.commit(id, toPlayer2, toPlayer1, () -> deliver(toPlayer2, toPlayer1));
+            p1.closeInventory();
+            p2.closeInventory();
+        }
+
+        private void deliver(List<ItemStack> toPlayer2, List<ItemStack> toPlayer1) {
             Player p1 = Bukkit.getPlayer(player1);
             Player p2 = Bukkit.getPlayer(player2);
+            give(p2, player2, toPlayer2);
+            give(p1, player1, toPlayer1);
+            state.set(State.DONE);
+            onFinish.accept(this);
+            // Until DONE is written a restart hands the items over again; the player files must have them first
+            save(player1);
+            save(player2);
+            journal.done(id);
+            history.record(TradeHistory.COMPLETED, player1, player1Name, toPlayer2, player2, player2Name, toPlayer1);
+            
+            if (p1 != null) p1.sendMessage(ChatColor.GREEN + "Trade completed successfully with " + player2Name + "!");
+            if (p2 != null) p2.sendMessage(ChatColor.GREEN + "Trade completed successfully with " + player1Name + "!");
             
-            if (p1 != null && p2 != null) {
-                // Final verification - check if items match stored items
-                if (!verifyItems()) {
-                    p1.sendMessage(ChatColor.RED + "Trade cancelled - items were modified during confirmation!");
-                    p2.sendMessage(ChatColor.RED + "Trade cancelled - items were modified during confirmation!");
-                    cancelTrade();
-                    return;
+            // Log trade for admins
+            plugin.getLogger().info("Trade completed between " + player1Name + " and " + player2Name);
+        }
+
+        // Online players only; offline ones were saved on quit
+        private static void save(UUID playerId) {
+            Player player = Bukkit.getPlayer(playerId);
+            if (player != null) {
+                player.saveData();
+            }
+        }
+
+        // Online players get the items now (the capacity check makes overflow rare); offline ones by mail
+        private void give(Player player, UUID playerId, List<ItemStack> items) {
+            if (player == null) {
+                journal.mail(playerId, items);
+                return;
+            }
+            for (ItemStack item : items) {
+                HashMap<Integer, ItemStack> overflow = player.getInventory().addItem(item.clone());
+                for (ItemStack overflowItem : overflow.values()) {
+                    player.getWorld().dropItem(player.getLocation(), overflowItem);
                 }
-                
-                // Give player1 items to player2
-                for (ItemStack item : player1Items) {
-                    if (item != null && item.getType() != Material.AIR) {
-                        HashMap<Integer, ItemStack> overflow = p2.getInventory().addItem(item);
-                        for (ItemStack overflowItem : overflow.values()) {
-                            p2.getWorld().dropItem(p2.getLocation(), overflowItem);
-                        }
+            }
+        }
+
+        /**
+         * Whether the items would all fit into the inventory's storage slots,
+         * merging into similar stacks first the way addItem does. Works on
+         * counts only; the inventory is not touched.
+         */
+        static boolean fits(Inventory inventory, List<ItemStack> items) {
+            ItemStack[] contents = inventory.getStorageContents();
+            int[] amounts = new int[contents.length];
+            int free = 0;
+            for (int i = 0; i < contents.length; i++) {
+                ItemStack stack = contents[i];
+                if (stack == null || stack.getType() == Material.AIR) {
+                    contents[i] = null;
+                    free++;
+                } else {
+                    amounts[i] = stack.getAmount();
+                }
+            }
+            for (ItemStack item : items) {
+                int remaining = item.getAmount();
+                int max = Math.max(1, item.getMaxStackSize());
+                for (int i = 0; i < contents.length && remaining > 0; i++) {
+                    if (contents[i] != null && amounts[i] < max && contents[i].isSimilar(item)) {
+                        int moved = Math.min(remaining, max - amounts[i]);
+                        amounts[i] += moved;
+                        remaining -= moved;
                     }
                 }
-                
-                // Give player2 items to player1
-                for (ItemStack item : player2Items) {
-                    if (item != null && item.getType() != Material.AIR) {
-                        HashMap<Integer, ItemStack> overflow = p1.getInventory().addItem(item);
-                        for (ItemStack overflowItem : overflow.values()) {
-                            p1.getWorld().dropItem(p1.getLocation(), overflowItem);
+                while (remaining > 0) {
+                    if (free == 0) {
+                        return false;
+                    }
+                    // Later items of the same kind may merge into this new stack
+                    for (int i = 0; i < contents.length; i++) {
+                        if (contents[i] == null) {
+                            contents[i] = item;
+                            amounts[i] = Math.min(remaining, max);
+                            remaining -= amounts[i];
+                            free--;
+                            break;
                         }
                     }
                 }
-                
-                p1.sendMessage(ChatColor.GREEN + "Trade completed successfully with " + p2.getName() + "!");
-                p2.sendMessage(ChatColor.GREEN + "Trade completed successfully with " + p1.getName() + "!");
-                
-                p1.closeInventory();
-                p2.closeInventory();
-                
-                // Log trade for admins
-                plugin.getLogger().info("Trade completed between " + p1.getName() + " and " + p2.getName());
             }
+            return true;
         }
 
-        private boolean verifyItems() {
-            int p1Index = 0, p2Index = 0;
-            
-            // Verify player 1 items
-            for (int slot : Arrays.asList(9,10,11,12,18,19,20,21,27,28,29,30,36,37,38,39)) {
-                ItemStack current = tradeInventory.getItem(slot);
-                ItemStack stored = player1Items[p1Index++];
-                if (!itemsEqual(current, stored)) {
+        /** Any thread; returns false if the trade was already committing or finished. */
+        public boolean cancelTrade() {
+            // Exactly one caller wins, so a second cancel (button, then the close handler) returns nothing twice
+            State current;
+            do {
+                current = state.get();
+                if (current == State.COMMITTING || current == State.DONE || current == State.CANCELLED) {
                     return false;
                 }
-            }
+            } while (!state.compareAndSet(current, State.CANCELLED));
             
-            // Verify player 2 items
-            for (int slot : Arrays.asList(14,15,16,17,23,24,25,26,32,33,34,35,41,42,43,44)) {
-                ItemStack current = tradeInventory.getItem(slot);
-                ItemStack stored = player2Items[p2Index++];
-                if (!itemsEqual(current, stored)) {
-                    return false;
-                }
+            if (Bukkit.isPrimaryThread()) {
+                returnItems();
+            } else {
+                plugin.getServer().getScheduler().runTask(plugin, this::returnItems);
             }
-            
             return true;
         }
 
-        private boolean itemsEqual(ItemStack item1, ItemStack item2) {
-            if (item1 == null && item2 == null) return true;
-            if (item1 == null || item2 == null) return false;
-            return item1.equals(item2);
-        }
-
-        public void cancelTrade() {
-            if (tradeCompleted) return;
-            
+        private void returnItems() {
             Player p1 = Bukkit.getPlayer(player1);
             Player p2 = Bukkit.getPlayer(player2);
             
-            // Return items to players
+            // Return items to players; the window is emptied so they exist only once
+            List<ItemStack> offer1 = takeOffer(false);
+            List<ItemStack> offer2 = takeOffer(true);
+            history.record(TradeHistory.CANCELLED, player1, player1Name, offer1, player2, player2Name, offer2);
+            give(p1, player1, offer1);
+            give(p2, player2, offer2);
+            save(player1);
+            save(player2);
+            journal.cancel(id);
+            onFinish.accept(this);
+            
             if (p1 != null) {
-                for (int slot : Arrays.asList(9,10,11,12,18,19,20,21,27,28,29,30,36,37,38,39)) {
-                    ItemStack item = tradeInventory.getItem(slot);
-                    if (item != null && item.getType() != Material.AIR) {
-                        HashMap<Integer, ItemStack> overflow = p1.getInventory().addItem(item);
-                        for (ItemStack overflowItem : overflow.values()) {
-                            p1.getWorld().dropItem(p1.getLocation(), overflowItem);
-                        }
-                    }
-                }
                 p1.sendMessage(ChatColor.YELLOW + "Trade cancelled.");
                 p1.closeInventory();
             }
-            
             if (p2 != null) {
-                for (int slot : Arrays.asList(14,15,16,17,23,24,25,26,32,33,34,35,41,42,43,44)) {
-                    ItemStack item = tradeInventory.getItem(slot);
-                    if (item != null && item.getType() != Material.AIR) {
-                        HashMap<Integer, ItemStack> overflow = p2.getInventory().addItem(item);
-                        for (ItemStack overflowItem : overflow.values()) {
-                            p2.getWorld().dropItem(p2.getLocation(), overflowItem);
-                        }
-                    }
-                }
                 p2.sendMessage(ChatColor.YELLOW + "Trade cancelled.");
                 p2.closeInventory();
             }
         }
 
+        private List<ItemStack> takeOffer(boolean right) {
+            List<ItemStack> items = new ArrayList<>();
+            for (int slot : layout.slots(right)) {
+                ItemStack item = tradeInventory.getItem(slot);
+                if (item != null && item.getType() != Material.AIR) {
+                    items.add(item);
+                    tradeInventory.clear(slot);
+                }
+            }
+            return items;
+        }
+
+        /** Committing, completed or cancelled; the window no longer accepts changes. */
+        public boolean isFinished() {
+            return state.get().compareTo(State.COMMITTING) >= 0;
+        }
+
         public Inventory getTradeInventory() {
             return tradeInventory;
         }
+
+        public TradeLayout getLayout() {
+            return layout;
+        }
     }
 }
@@ -0,0 +1,114 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One side of a trade as last seen in the trade window: a copy of every
+ * offered stack and a 64-bit fingerprint of the whole offer. Each slot
+ * contributes a hash of its type, amount and serialized meta, and the
+ * fingerprint is the sum of those, so refreshing a few changed slots keeps
+ * it current without rehashing the rest.
+ */
+final class TradeOffer {
+    private final TradeLayout layout;
+    private final boolean right;
+    private final ItemStack[] items;
+    private final long[] slotHashes;
+    private long fingerprint;
+
+    TradeOffer(TradeLayout layout, boolean right) {
+        this.layout = layout;
+        this.right = right;
+        int size = layout.slots(right).length;
+        this.items = new ItemStack[size];
+        this.slotHashes = new long[size];
+    }
+
+    /** Rereads the given inventory slots that belong to this side; returns true if any changed. */
+    boolean refresh(Inventory inventory, long slotMask) {
+        long mask = slotMask & layout.offerMask(right);
+        boolean changed = false;
+        while (mask != 0L) {
+            int slot = Long.numberOfTrailingZeros(mask);
+            mask &= mask - 1L;
+            int index = layout.offerIndex(slot);
+            ItemStack current = inventory.getItem(slot);
+            long hash = slotHash(index, current);
+            if (hash != slotHashes[index]) {
+                fingerprint += hash - slotHashes[index];
+                slotHashes[index] = hash;
+                items[index] = isEmpty(current) ? null : current.clone();
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    long fingerprint() {
+        return fingerprint;
+    }
+
+    /** Full comparison of the window against the copies; only needed when the trade commits. */
+    boolean matches(Inventory inventory) {
+        int[] slots = layout.slots(right);
+        for (int i = 0; i < slots.length; i++) {
+            ItemStack current = inventory.getItem(slots[i]);
+            if (isEmpty(current) ? items[i] != null : !current.equals(items[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The offered stacks, empty slots as null. Shared; copy before handing out. */
+    ItemStack[] items() {
+        return items;
+    }
+
+    /** Copies of the offered stacks without the empty slots. */
+    List<ItemStack> toList() {
+        List<ItemStack> list = new ArrayList<>(items.length);
+        for (ItemStack item : items) {
+            if (item != null) {
+                list.add(item.clone());
+            }
+        }
+        return list;
+    }
+
+    private static boolean isEmpty(ItemStack item) {
+        return item == null || item.getType() == Material.AIR;
+    }
+
+    private static long slotHash(int index, ItemStack item) {
+        if (isEmpty(item)) {
+            return 0L;
+        }
+        long hash = item.getType().ordinal() * 0x9E3779B97F4A7C15L + item.getAmount();
+        if (item.hasItemMeta()) {
+            hash = hash * 31L + fnv64(item.getItemMeta().getAsString());
+        }
+        return mix(hash ^ ((long) (index + 1) << 48));
+    }
+
+    private static long fnv64(String text) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    // splitmix64 finalizer: spreads small differences over all 64 bits
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.teleportplugin;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Version of a replicated record: a write counter per server, plus the wall
+ * clock time and server of the write that made it. When one version's
+ * counters dominate the other's, it is newer no matter what the clocks say;
+ * writes made concurrently on two servers are settled by last-writer-wins on
+ * the wall clock time, then on the server name, so every server picks the same
+ * winner. Immutable.
+ */
+public final class VectorTimestamp {
+    public static final VectorTimestamp ZERO = new VectorTimestamp(Collections.emptyMap(), 0L, "");
+
+    public enum Order { BEFORE, EQUAL, AFTER, CONCURRENT }
+
+    private final Map<String, Long> counters;
+    private final long time;
+    private final String writer;
+
+    private VectorTimestamp(Map<String, Long> counters, long time, String writer) {
+        this.counters = counters;
+        this.time = time;
+        this.writer = writer;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String getWriter() {
+        return writer;
+    }
+
+    /** No write has been counted: a record from before sync, or none at all. */
+    public boolean isZero() {
+        return time == 0L && counters.isEmpty();
+    }
+
+    /** The version of a new write on the given server, after this one. */
+    public VectorTimestamp next(String server) {
+        TreeMap<String, Long> next = new TreeMap<>(counters);
+        next.merge(server, 1L, Long::sum);
+        // Never behind the version it replaces, even if this server's clock is
+        return new VectorTimestamp(Collections.unmodifiableMap(next), Math.max(System.currentTimeMillis(), time + 1L), server);
+    }
+
+    /**
+     * This version with the other's counters folded in. Kept by a server that
+     * has seen both, so its next write dominates either of them.
+     */
+    public VectorTimestamp merge(VectorTimestamp other) {
+        TreeMap<String, Long> merged = new TreeMap<>(counters);
+        for (Map.Entry<String, Long> entry : other.counters.entrySet()) {
+            merged.merge(entry.getKey(), entry.getValue(), Math::max);
+        }
+        return new VectorTimestamp(Collections.unmodifiableMap(merged), time, writer);
+    }
+
+    public Order compare(VectorTimestamp other) {
+        boolean behind = false;
+        boolean ahead = false;
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            long theirs = other.counters.getOrDefault(entry.getKey(), 0L);
+            ahead |= entry.getValue() > theirs;
+            behind |= entry.getValue() < theirs;
+        }
+        for (Map.Entry<String, Long> entry : other.counters.entrySet()) {
+            behind |= !counters.containsKey(entry.getKey()) && entry.getValue() > 0L;
+        }
+        return ahead ? (behind ? Order.CONCURRENT : Order.AFTER) : (behind ? Order.BEFORE : Order.EQUAL);
+    }
+
+    /** Whether a record with this version replaces one with the other. */
+    public boolean supersedes(VectorTimestamp other) {
+        switch (compare(other)) {
+            case AFTER:
+                return true;
+            case BEFORE:
+                return false;
+            default:
+                // Concurrent, or equal counters from before servers kept any
+                return time != other.time ? time > other.time : writer.compareTo(other.writer) > 0;
+        }
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(time);
+        out.writeUTF(writer);
+        out.writeShort(counters.size());
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    public static VectorTimestamp read(DataInput in) throws IOException {
+        long time = in.readLong();
+        String writer = in.readUTF();
+        int count = in.readUnsignedShort();
+        TreeMap<String, Long> counters = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            counters.put(in.readUTF(), in.readLong());
+        }
+        return new VectorTimestamp(Collections.unmodifiableMap(counters), time, writer);
+    }
+
+    @Override
+    public String toString() {
+        return counters + "@" + time + "/" + writer;
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.teleportplugin;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Interns world names into small integer ids. Only names are kept, never
+ * {@link World} references, so unloaded worlds stay collectable.
+ */
+public class WorldIndex {
+    private final HashMap<String, Integer> ids = new HashMap<>();
+    private final ArrayList<String> names = new ArrayList<>();
+
+    public int idOf(String worldName) {
+        Integer id = ids.get(worldName);
+        if (id == null) {
+            id = names.size();
+            names.add(worldName);
+            ids.put(worldName, id);
+        }
+        return id;
+    }
+
+    public String nameOf(int id) {
+        return names.get(id);
+    }
+
+    // Returns null if the world is not currently loaded
+    public World resolve(int id) {
+        return Bukkit.getWorld(names.get(id));
+    }
+}